@@ -0,0 +1,221 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Reads primitive values from a byte array in the encodings written
+ * by BinaryWriter.
+ * <p>
+ * A BinaryReader is not thread-safe.
+ */
+public class BinaryReader {
+    private final byte[] mBuf;
+    private final int mLimit;
+    private int mPos;
+
+    /**
+     * Constructs a new BinaryReader over the whole of the given array.
+     *
+     * @param buf a byte array
+     */
+    public BinaryReader(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    /**
+     * Constructs a new BinaryReader over a range of the given array.
+     *
+     * @param buf a byte array
+     * @param off the offset of the first byte to read
+     * @param len the number of readable bytes
+     */
+    public BinaryReader(byte[] buf, int off, int len) {
+        if (off < 0 || len < 0 || off + len > buf.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        mBuf = buf;
+        mPos = off;
+        mLimit = off + len;
+    }
+
+    /**
+     * @return the position of the next byte to be read
+     */
+    public int position() {
+        return mPos;
+    }
+
+    /**
+     * @return the number of bytes left to read
+     */
+    public int remaining() {
+        return mLimit - mPos;
+    }
+
+    /**
+     * Skips over the given number of bytes.
+     *
+     * @param n the number of bytes to skip
+     * @throws IOException if fewer than n bytes remain
+     */
+    public void skip(int n) throws IOException {
+        require(n);
+        mPos += n;
+    }
+
+    public byte readByte() throws IOException {
+        require(1);
+        return mBuf[mPos++];
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public char readChar() throws IOException {
+        require(2);
+        char ret = (char) (((mBuf[mPos] & 0xFF) << 8) | (mBuf[mPos + 1] & 0xFF));
+        mPos += 2;
+        return ret;
+    }
+
+    public int readInt() throws IOException {
+        require(4);
+        return getInt();
+    }
+
+    public long readLong() throws IOException {
+        require(8);
+        return getLong();
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    public int readVarInt() throws IOException {
+        int ret = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = readByte();
+            ret |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return ret;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public long readVarLong() throws IOException {
+        long ret = 0L;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = readByte();
+            ret |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return ret;
+            }
+        }
+        throw new IOException("Malformed varlong");
+    }
+
+    public int readZigZagInt() throws IOException {
+        int v = readVarInt();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    public long readZigZagLong() throws IOException {
+        long v = readVarLong();
+        return (v >>> 1) ^ -(v & 1L);
+    }
+
+    public void readBytes(byte[] b, int off, int len) throws IOException {
+        require(len);
+        System.arraycopy(mBuf, mPos, b, off, len);
+        mPos += len;
+    }
+
+    /**
+     * Reads a String written by BinaryWriter.writeString().
+     *
+     * @return a String, or null
+     * @throws IOException if the input is truncated
+     */
+    public String readString() throws IOException {
+        int len = readLength() - 1;
+        if (len < 0) {
+            return null;
+        }
+        require(len);
+        String ret = new String(mBuf, mPos, len, BinaryWriter.UTF_8);
+        mPos += len;
+        return ret;
+    }
+
+    public int[] readIntArray() throws IOException {
+        int[] ret = new int[readLength()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = readZigZagInt();
+        }
+        return ret;
+    }
+
+    public long[] readLongArray() throws IOException {
+        long[] ret = new long[readLength()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = readZigZagLong();
+        }
+        return ret;
+    }
+
+    public double[] readDoubleArray() throws IOException {
+        int len = readLength();
+        require(len * 8L);
+        double[] ret = new double[len];
+        for (int i = 0; i < len; i++) {
+            ret[i] = Double.longBitsToDouble(getLong());
+        }
+        return ret;
+    }
+
+    public byte[] readByteArray() throws IOException {
+        byte[] ret = new byte[readLength()];
+        readBytes(ret, 0, ret.length);
+        return ret;
+    }
+
+    // Read a length and check that it is plausible before allocating
+    private int readLength() throws IOException {
+        int len = readVarInt();
+        if (len < 0 || len > remaining() + 1) {
+            throw new IOException("Malformed length " + len);
+        }
+        return len;
+    }
+
+    private void require(long n) throws EOFException {
+        if (n > mLimit - mPos) {
+            throw new EOFException("Needed " + n + " bytes but only "
+                    + (mLimit - mPos) + " remain");
+        }
+    }
+
+    // Callers must check the remaining length
+    private int getInt() {
+        int ret = ((mBuf[mPos] & 0xFF) << 24)
+                | ((mBuf[mPos + 1] & 0xFF) << 16)
+                | ((mBuf[mPos + 2] & 0xFF) << 8)
+                | (mBuf[mPos + 3] & 0xFF);
+        mPos += 4;
+        return ret;
+    }
+
+    private long getLong() {
+        long ret = Platform.getLong(mBuf, mPos);
+        mPos += 8;
+        return ret;
+    }
+}
@@ -0,0 +1,278 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * A growable byte buffer with methods for writing primitive values in
+ * the big-endian fixed width and variable length encodings used by
+ * DataBundleCodec.
+ * <p>
+ * A BinaryWriter is not thread-safe. It can be reset() and reused to
+ * avoid allocating a new buffer for every message.
+ */
+public class BinaryWriter {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Some VMs reserve header words in arrays
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private byte[] mBuf;
+    private int mCount;
+
+    /**
+     * Constructs a new BinaryWriter with a default initial capacity.
+     */
+    public BinaryWriter() {
+        this(256);
+    }
+
+    /**
+     * Constructs a new BinaryWriter with the given initial capacity.
+     * The buffer will grow as needed.
+     *
+     * @param capacity the initial capacity in bytes
+     */
+    public BinaryWriter(int capacity) {
+        mBuf = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Discards all written bytes, keeping the buffer for reuse.
+     */
+    public void reset() {
+        mCount = 0;
+    }
+
+    /**
+     * Returns the internal buffer. Only the first size() bytes are valid,
+     * and the buffer may be replaced by a later write.
+     *
+     * @return the internal byte array
+     */
+    public byte[] array() {
+        return mBuf;
+    }
+
+    /**
+     * @return a copy of the written bytes
+     */
+    public byte[] toByteArray() {
+        byte[] ret = new byte[mCount];
+        System.arraycopy(mBuf, 0, ret, 0, mCount);
+        return ret;
+    }
+
+    /**
+     * Writes all written bytes to the given stream.
+     *
+     * @param out an OutputStream
+     * @throws IOException if the stream throws
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(mBuf, 0, mCount);
+    }
+
+    /**
+     * Makes room for at least n more bytes.
+     *
+     * @param n the number of bytes to make room for
+     * @throws IllegalArgumentException if the buffer cannot grow that large
+     */
+    public void ensureCapacity(int n) {
+        long required = (long) mCount + n;
+        if (required > mBuf.length) {
+            if (n < 0 || required > MAX_SIZE) {
+                throw new IllegalArgumentException("BinaryWriter cannot grow to " + required + " bytes");
+            }
+            int capacity = (int) Math.min(MAX_SIZE, Math.max((long) mBuf.length << 1, required));
+            byte[] buf = new byte[capacity];
+            System.arraycopy(mBuf, 0, buf, 0, mCount);
+            mBuf = buf;
+        }
+    }
+
+    public void writeByte(int v) {
+        ensureCapacity(1);
+        mBuf[mCount++] = (byte) v;
+    }
+
+    public void writeBoolean(boolean v) {
+        writeByte(v ? 1 : 0);
+    }
+
+    public void writeChar(char v) {
+        ensureCapacity(2);
+        mBuf[mCount++] = (byte) (v >>> 8);
+        mBuf[mCount++] = (byte) v;
+    }
+
+    public void writeInt(int v) {
+        ensureCapacity(4);
+        putInt(v);
+    }
+
+    public void writeLong(long v) {
+        ensureCapacity(8);
+        putLong(v);
+    }
+
+    public void writeFloat(float v) {
+        writeInt(Float.floatToRawIntBits(v));
+    }
+
+    public void writeDouble(double v) {
+        writeLong(Double.doubleToRawLongBits(v));
+    }
+
+    /**
+     * Writes an int as an unsigned LEB128 variable length value of 1 to 5 bytes.
+     *
+     * @param v the value, treated as unsigned
+     */
+    public void writeVarInt(int v) {
+        ensureCapacity(5);
+        while ((v & ~0x7F) != 0) {
+            mBuf[mCount++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        mBuf[mCount++] = (byte) v;
+    }
+
+    /**
+     * Writes a long as an unsigned LEB128 variable length value of 1 to 10 bytes.
+     *
+     * @param v the value, treated as unsigned
+     */
+    public void writeVarLong(long v) {
+        ensureCapacity(10);
+        while ((v & ~0x7FL) != 0) {
+            mBuf[mCount++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        mBuf[mCount++] = (byte) v;
+    }
+
+    /**
+     * Writes a signed int so that values of small magnitude take few bytes.
+     *
+     * @param v the value
+     */
+    public void writeZigZagInt(int v) {
+        writeVarInt((v << 1) ^ (v >> 31));
+    }
+
+    /**
+     * Writes a signed long so that values of small magnitude take few bytes.
+     *
+     * @param v the value
+     */
+    public void writeZigZagLong(long v) {
+        writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    public void writeBytes(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, mBuf, mCount, len);
+        mCount += len;
+    }
+
+    /**
+     * Writes a String as its UTF-8 byte length plus one, followed by the bytes.
+     * A length of zero denotes null.
+     *
+     * @param s a String, or null
+     */
+    @SuppressWarnings("deprecation")
+    public void writeString(String s) {
+        if (s == null) {
+            writeVarInt(0);
+            return;
+        }
+        int len = s.length();
+        boolean ascii = true;
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) >= 0x80) {
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii) {
+            // Fast path: one byte per char, no intermediate array
+            writeVarInt(len + 1);
+            ensureCapacity(len);
+            // Drops the high byte of each char, which is zero for ASCII. With
+            // compact strings this is a single array copy.
+            s.getBytes(0, len, mBuf, mCount);
+            mCount += len;
+        }
+        else {
+            byte[] b = s.getBytes(UTF_8);
+            writeVarInt(b.length + 1);
+            writeBytes(b, 0, b.length);
+        }
+    }
+
+    public void writeIntArray(int[] a) {
+        writeVarInt(a.length);
+        for (int v : a) {
+            writeZigZagInt(v);
+        }
+    }
+
+    public void writeLongArray(long[] a) {
+        writeVarInt(a.length);
+        for (long v : a) {
+            writeZigZagLong(v);
+        }
+    }
+
+    public void writeDoubleArray(double[] a) {
+        if (a.length > MAX_SIZE / 8) {
+            throw new IllegalArgumentException("Too many doubles to write: " + a.length);
+        }
+        writeVarInt(a.length);
+        ensureCapacity(a.length * 8);
+        for (double v : a) {
+            putLong(Double.doubleToRawLongBits(v));
+        }
+    }
+
+    public void writeByteArray(byte[] a) {
+        writeVarInt(a.length);
+        writeBytes(a, 0, a.length);
+    }
+
+    /**
+     * Overwrites four bytes at the given position with a big-endian int,
+     * e.g. to fill in a length field once the following data is known.
+     *
+     * @param pos a position less than or equal to size() - 4
+     * @param v the value
+     */
+    public void setInt(int pos, int v) {
+        mBuf[pos] = (byte) (v >>> 24);
+        mBuf[pos + 1] = (byte) (v >>> 16);
+        mBuf[pos + 2] = (byte) (v >>> 8);
+        mBuf[pos + 3] = (byte) v;
+    }
+
+    // Callers must ensure capacity
+    private void putInt(int v) {
+        setInt(mCount, v);
+        mCount += 4;
+    }
+
+    private void putLong(long v) {
+        Platform.putLong(mBuf, mCount, v);
+        mCount += 8;
+    }
+}
@@ -0,0 +1,53 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A WritableByteChannel which discards everything written to it and counts
+ * the bytes. A write consumes the whole buffer in constant time, without
+ * reading its contents.
+ * <p>
+ * A BlackholeChannel is not thread-safe.
+ */
+public class BlackholeChannel implements WritableByteChannel {
+    private long mCount;
+    private boolean mOpen = true;
+
+    public int write(ByteBuffer src) throws ClosedChannelException {
+        if (!mOpen) {
+            throw new ClosedChannelException();
+        }
+        int ret = src.remaining();
+        src.position(src.limit());
+        mCount += ret;
+        return ret;
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Sets the count back to zero.
+     *
+     * @return the count before the reset
+     */
+    public long resetCount() {
+        long ret = mCount;
+        mCount = 0L;
+        return ret;
+    }
+
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    public void close() {
+        mOpen = false;
+    }
+}
@@ -0,0 +1,116 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.Closeable;
+
+/**
+ * CDataBundleArena
+ *
+ * Allocates many native DataBundles from one native arena, and frees all
+ * of them together when closed, which is much cheaper than creating and
+ * destroying each DataBundle on its own. Suited to batches of short-lived
+ * bundles, for example one arena per batch of messages.
+ * <p>
+ * Pointers returned by allocate() are valid until the arena is closed, and
+ * must not be passed to CDataBundleWrapper.destroy(). An arena which is
+ * garbage collected without being closed is freed by a cleaner thread as a
+ * safety net, and counted as leaked.
+ * <p>
+ * allocate() is not thread-safe, close() takes effect exactly once.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public final class CDataBundleArena implements Closeable {
+    private static final NativeCleaner.Counters sCounters = new NativeCleaner.Counters();
+
+    private final Resource mResource;
+    private int mAllocated;
+
+    private CDataBundleArena(long ptr) {
+        mResource = new Resource(this, ptr);
+    }
+
+    /**
+     * Creates a new, empty arena.
+     *
+     * @return a new CDataBundleArena
+     */
+    public static CDataBundleArena create() {
+        return new CDataBundleArena(CDataBundleWrapper.createArena());
+    }
+
+    /**
+     * Creates a new, empty native DataBundle in this arena.
+     *
+     * @return a pointer to the DataBundle, for use with the CDataBundleWrapper methods
+     * @throws IllegalStateException if the arena is closed
+     */
+    public long allocate() {
+        if (mResource.isReleased()) {
+            throw new IllegalStateException("CDataBundleArena is closed");
+        }
+        long ret = CDataBundleWrapper.createInArena(mResource.pointer());
+        mAllocated++;
+        return ret;
+    }
+
+    /**
+     * @return the number of DataBundles allocated in this arena
+     */
+    public int getAllocatedCount() {
+        return mAllocated;
+    }
+
+    public boolean isClosed() {
+        return mResource.isReleased();
+    }
+
+    /**
+     * Frees the arena and every DataBundle allocated in it. Closing a
+     * closed arena has no effect.
+     */
+    public void close() {
+        mResource.release();
+    }
+
+    /**
+     * @return the number of arenas created
+     */
+    public static long getCreatedCount() {
+        return sCounters.mCreated.sum();
+    }
+
+    /**
+     * @return the number of arenas closed
+     */
+    public static long getClosedCount() {
+        return sCounters.mClosed.sum();
+    }
+
+    /**
+     * @return the number of arenas which were collected without being
+     *     closed, and freed by the cleaner
+     */
+    public static long getLeakedCount() {
+        return sCounters.mLeaked.sum();
+    }
+
+    /**
+     * @return the number of arenas not yet closed or cleaned
+     */
+    public static long getLiveCount() {
+        return sCounters.live();
+    }
+
+    // Static, so that it does not refer to the CDataBundleArena it cleans up after
+    private static final class Resource extends NativeCleaner.Resource {
+        Resource(CDataBundleArena owner, long ptr) {
+            super(owner, ptr, "CDataBundleArena", sCounters);
+        }
+
+        @Override
+        void free(long ptr) {
+            CDataBundleWrapper.destroyArena(ptr);
+        }
+    }
+}
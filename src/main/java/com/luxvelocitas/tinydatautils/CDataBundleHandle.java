@@ -0,0 +1,102 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.Closeable;
+
+/**
+ * CDataBundleHandle
+ *
+ * Owns a native DataBundle created through CDataBundleWrapper, and destroys
+ * it when closed. A handle which is garbage collected without being closed
+ * is destroyed by a cleaner thread as a safety net, and counted as leaked.
+ * <p>
+ * The pointer is only valid while the handle is open and reachable. Keep
+ * the handle itself, not just the pointer, for as long as the pointer is
+ * in use, and close it as soon as it is no longer needed.
+ * <p>
+ * A CDataBundleHandle is thread-safe, close() takes effect exactly once.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public final class CDataBundleHandle implements Closeable {
+    private static final NativeCleaner.Counters sCounters = new NativeCleaner.Counters();
+
+    private final Resource mResource;
+
+    private CDataBundleHandle(long ptr) {
+        mResource = new Resource(this, ptr);
+    }
+
+    /**
+     * Creates a new, empty native DataBundle.
+     *
+     * @return a new CDataBundleHandle
+     */
+    public static CDataBundleHandle create() {
+        return new CDataBundleHandle(CDataBundleWrapper.create());
+    }
+
+    /**
+     * @return the native pointer, for use with the CDataBundleWrapper methods
+     * @throws IllegalStateException if the handle is closed
+     */
+    public long pointer() {
+        if (mResource.isReleased()) {
+            throw new IllegalStateException("CDataBundleHandle is closed");
+        }
+        return mResource.pointer();
+    }
+
+    public boolean isClosed() {
+        return mResource.isReleased();
+    }
+
+    /**
+     * Destroys the native DataBundle. Closing a closed handle has no effect.
+     */
+    public void close() {
+        mResource.release();
+    }
+
+    /**
+     * @return the number of handles created
+     */
+    public static long getCreatedCount() {
+        return sCounters.mCreated.sum();
+    }
+
+    /**
+     * @return the number of handles closed
+     */
+    public static long getClosedCount() {
+        return sCounters.mClosed.sum();
+    }
+
+    /**
+     * @return the number of handles which were collected without being
+     *     closed, and destroyed by the cleaner
+     */
+    public static long getLeakedCount() {
+        return sCounters.mLeaked.sum();
+    }
+
+    /**
+     * @return the number of handles not yet closed or cleaned, which
+     *     includes unreachable handles the cleaner has not yet seen
+     */
+    public static long getLiveCount() {
+        return sCounters.live();
+    }
+
+    // Static, so that it does not refer to the CDataBundleHandle it cleans up after
+    private static final class Resource extends NativeCleaner.Resource {
+        Resource(CDataBundleHandle owner, long ptr) {
+            super(owner, ptr, "CDataBundleHandle", sCounters);
+        }
+
+        @Override
+        void free(long ptr) {
+            CDataBundleWrapper.destroy(ptr);
+        }
+    }
+}
@@ -10,6 +10,30 @@ public class CDataBundleWrapper {
     public static native long create();
     public static native void destroy(long nativePtr);
 
+    /**
+     * Creates an arena in which many native DataBundles can be allocated
+     * cheaply and then freed together with destroyArena().
+     *
+     * @return a pointer to the arena
+     */
+    public static native long createArena();
+
+    /**
+     * Creates a native DataBundle in the given arena. It must not be passed
+     * to destroy(), and is freed when the arena is destroyed.
+     *
+     * @param arenaPtr a pointer to an arena
+     * @return a pointer to the DataBundle
+     */
+    public static native long createInArena(long arenaPtr);
+
+    /**
+     * Frees the given arena and every DataBundle created in it.
+     *
+     * @param arenaPtr a pointer to an arena
+     */
+    public static native void destroyArena(long arenaPtr);
+
     /**
      * Returns the number of mappings contained in this DataBundle.
      *
@@ -205,5 +229,133 @@ public class CDataBundleWrapper {
      * @return a String value, or null
      */
     public static native String getString(long nativePtr, String key);
+
+    /**
+     * Inserts a byte array value into the mapping of this DataBundle, replacing
+     * any existing value for the given key. The elements are copied in one
+     * bulk transfer (GetByteArrayRegion / GetPrimitiveArrayCritical), not
+     * element by element.
+     *
+     * @param key a String, or null
+     * @param value a byte array
+     */
+    public static native void putByteArray(long nativePtr, String key, byte[] value);
+
+    /**
+     * Returns a copy of the byte array associated with the given key, or null if
+     * no mapping of the desired type exists for the given key.
+     *
+     * @param key a String
+     * @return a byte array, or null
+     */
+    public static native byte[] getByteArray(long nativePtr, String key);
+
+    /**
+     * Copies the byte array associated with the given key into the given array,
+     * avoiding the allocation of a new Java array for every call.
+     *
+     * @param key a String
+     * @param dest the destination array
+     * @param offset the offset in dest of the first element to write
+     * @return the number of elements copied, or -1 if no mapping of the
+     *     desired type exists for the given key
+     */
+    public static native int getByteArrayRegion(long nativePtr, String key, byte[] dest, int offset);
+
+    /**
+     * Inserts an int array value into the mapping of this DataBundle, replacing
+     * any existing value for the given key. The elements are copied in one
+     * bulk transfer (GetIntArrayRegion / GetPrimitiveArrayCritical), not
+     * element by element.
+     *
+     * @param key a String, or null
+     * @param value an int array
+     */
+    public static native void putIntArray(long nativePtr, String key, int[] value);
+
+    /**
+     * Returns a copy of the int array associated with the given key, or null if
+     * no mapping of the desired type exists for the given key.
+     *
+     * @param key a String
+     * @return an int array, or null
+     */
+    public static native int[] getIntArray(long nativePtr, String key);
+
+    /**
+     * Copies the int array associated with the given key into the given array,
+     * avoiding the allocation of a new Java array for every call.
+     *
+     * @param key a String
+     * @param dest the destination array
+     * @param offset the offset in dest of the first element to write
+     * @return the number of elements copied, or -1 if no mapping of the
+     *     desired type exists for the given key
+     */
+    public static native int getIntArrayRegion(long nativePtr, String key, int[] dest, int offset);
+
+    /**
+     * Inserts a long array value into the mapping of this DataBundle, replacing
+     * any existing value for the given key. The elements are copied in one
+     * bulk transfer (GetLongArrayRegion / GetPrimitiveArrayCritical), not
+     * element by element.
+     *
+     * @param key a String, or null
+     * @param value a long array
+     */
+    public static native void putLongArray(long nativePtr, String key, long[] value);
+
+    /**
+     * Returns a copy of the long array associated with the given key, or null if
+     * no mapping of the desired type exists for the given key.
+     *
+     * @param key a String
+     * @return a long array, or null
+     */
+    public static native long[] getLongArray(long nativePtr, String key);
+
+    /**
+     * Copies the long array associated with the given key into the given array,
+     * avoiding the allocation of a new Java array for every call.
+     *
+     * @param key a String
+     * @param dest the destination array
+     * @param offset the offset in dest of the first element to write
+     * @return the number of elements copied, or -1 if no mapping of the
+     *     desired type exists for the given key
+     */
+    public static native int getLongArrayRegion(long nativePtr, String key, long[] dest, int offset);
+
+    /**
+     * Inserts a double array value into the mapping of this DataBundle, replacing
+     * any existing value for the given key. The elements are copied in one
+     * bulk transfer (GetDoubleArrayRegion / GetPrimitiveArrayCritical), not
+     * element by element.
+     *
+     * @param key a String, or null
+     * @param value a double array
+     */
+    public static native void putDoubleArray(long nativePtr, String key, double[] value);
+
+    /**
+     * Returns a copy of the double array associated with the given key, or null if
+     * no mapping of the desired type exists for the given key.
+     *
+     * @param key a String
+     * @return a double array, or null
+     */
+    public static native double[] getDoubleArray(long nativePtr, String key);
+
+    /**
+     * Copies the double array associated with the given key into the given array,
+     * avoiding the allocation of a new Java array for every call.
+     *
+     * @param key a String
+     * @param dest the destination array
+     * @param offset the offset in dest of the first element to write
+     * @return the number of elements copied, or -1 if no mapping of the
+     *     desired type exists for the given key
+     */
+    public static native int getDoubleArrayRegion(long nativePtr, String key, double[] dest, int offset);
 }
 
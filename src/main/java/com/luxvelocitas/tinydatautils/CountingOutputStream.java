@@ -0,0 +1,73 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream which counts the bytes written through it to another
+ * OutputStream. Unlike FilterOutputStream, bulk writes are passed on in
+ * one call rather than byte by byte.
+ * <p>
+ * A CountingOutputStream is not thread-safe.
+ */
+public class CountingOutputStream extends OutputStream {
+    private final OutputStream mOut;
+    private long mCount;
+
+    /**
+     * Constructs a new CountingOutputStream which discards the bytes
+     * written to it.
+     */
+    public CountingOutputStream() {
+        this(new DummyOutputStream());
+    }
+
+    /**
+     * Constructs a new CountingOutputStream.
+     *
+     * @param out the OutputStream to write to
+     */
+    public CountingOutputStream(OutputStream out) {
+        mOut = out;
+    }
+
+    /**
+     * @return the number of bytes written since construction or the last reset
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Sets the count back to zero.
+     *
+     * @return the count before the reset
+     */
+    public long resetCount() {
+        long ret = mCount;
+        mCount = 0L;
+        return ret;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        mOut.write(b);
+        mCount++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        mOut.write(b, off, len);
+        mCount += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOut.close();
+    }
+}
@@ -21,9 +21,21 @@ package com.luxvelocitas.tinydatautils;
 
 import com.luxvelocitas.jnigen.NativeCallable;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * A mapping from String values to various types.
@@ -33,8 +45,54 @@ import java.util.Set;
 public final class DataBundle implements Cloneable, Serializable {
     static final boolean DEBUG = false;
 
+    // Type signature codes, as returned by getTypeArray()
+    public static final char TYPE_CODE_BOOLEAN = 'z';
+    public static final char TYPE_CODE_BYTE = 'b';
+    public static final char TYPE_CODE_CHAR = 'c';
+    public static final char TYPE_CODE_SHORT = 's';
+    public static final char TYPE_CODE_INT = 'i';
+    public static final char TYPE_CODE_LONG = 'l';
+    public static final char TYPE_CODE_FLOAT = 'f';
+    public static final char TYPE_CODE_DOUBLE = 'd';
+    public static final char TYPE_CODE_STRING = 'x';
+    public static final char TYPE_CODE_BYTE_ARRAY = 'B';
+    public static final char TYPE_CODE_INT_ARRAY = 'I';
+    public static final char TYPE_CODE_LONG_ARRAY = 'L';
+    public static final char TYPE_CODE_DOUBLE_ARRAY = 'D';
+    public static final char TYPE_CODE_OBJECT = 'o';
+
     private HashMap<String, Object> mMap = null;
 
+    // Cached key and type signature, rebuilt lazily after a change in shape
+    private transient String[] mKeyCache = null;
+    private transient String mTypeCache = null;
+
+    // Non-null keys in sorted order, built on the first ordered query after
+    // a key is added or removed. Iterators keep the array they started with,
+    // so they are unaffected by later changes.
+    private transient String[] mSortedKeys = null;
+
+    // Keys touched since the last takeDelta(), mapped to whether they
+    // were present at that point. Null when change tracking is off.
+    private transient HashMap<String, Boolean> mDirty = null;
+
+    // Estimated size of all entries, not counting the contents of nested
+    // DataBundles, which can change independently and are walked on demand
+    private transient long mEntriesSize = 0L;
+    private transient int mNestedCount = 0;
+
+    // Sum of the hashes of all entries, maintained on put and remove.
+    // Nested DataBundles and arrays contribute only their key, as their
+    // contents can change in place, and are hashed on demand.
+    private transient int mContentHash = 0;
+    private transient int mArrayCount = 0;
+
+    // Canonicalizes String values when set
+    private transient StringDictionary mDictionary = null;
+
+    // Null unless a DataBundleListener is registered
+    private transient DataBundleNotifier mNotifier = null;
+
     @NativeCallable
     public static DataBundle create() {
         return new DataBundle();
@@ -44,6 +102,7 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     public DataBundle() {
         mMap = new HashMap<String, Object>();
+        if (DataBundleStats.ENABLED) DataBundleStats.recordCreate();
     }
 
     /**
@@ -54,6 +113,7 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     public DataBundle(int capacity) {
         mMap = new HashMap<String, Object>(capacity);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordCreate();
     }
 
     /**
@@ -68,6 +128,15 @@ public final class DataBundle implements Cloneable, Serializable {
         } else {
             mMap = null;
         }
+        mEntriesSize = b.mEntriesSize;
+        mNestedCount = b.mNestedCount;
+        mContentHash = b.mContentHash;
+        mArrayCount = b.mArrayCount;
+        mDictionary = b.mDictionary;
+        if (DataBundleStats.ENABLED) {
+            DataBundleStats.recordCreate();
+            DataBundleStats.recordCopy(b.mMap == null ? 0 : b.mMap.size());
+        }
     }
 
     /**
@@ -102,7 +171,23 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public void clear() {
+        if (mDirty != null) {
+            for (String key : mMap.keySet()) {
+                markDirty(key);
+            }
+        }
+        if (mNotifier != null) {
+            for (String key : mMap.keySet()) {
+                mNotifier.changed(key, DataBundleNotifier.REMOVED, true);
+            }
+        }
         mMap.clear();
+        mEntriesSize = 0L;
+        mNestedCount = 0;
+        mContentHash = 0;
+        mArrayCount = 0;
+        mSortedKeys = null;
+        invalidateSignature();
     }
 
     /**
@@ -125,6 +210,7 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public Object get(String key) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_OBJECT, key);
         return mMap.get(key);
     }
 
@@ -135,7 +221,16 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public void remove(String key) {
-        mMap.remove(key);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordRemove();
+        if (mDirty != null) markDirty(key);
+        int size = mMap.size();
+        Object old = mMap.remove(key);
+        if (mMap.size() != size) {
+            accountEntry(key, old, -1);
+            invalidateSignature();
+            mSortedKeys = null;
+            if (mNotifier != null) mNotifier.changed(key, DataBundleNotifier.REMOVED, true);
+        }
     }
 
     /**
@@ -147,7 +242,8 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public void put(String key, Object value) {
-        mMap.put(key, value);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_OBJECT, key);
+        putValue(key, value);
     }
 
     /**
@@ -157,71 +253,624 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public void putAll(DataBundle dataBundle) {
-        mMap.putAll(dataBundle.mMap);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPutAll(dataBundle.mMap.size());
+        for (Map.Entry<String, Object> entry : dataBundle.mMap.entrySet()) {
+            putValue(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the estimated number of heap bytes retained by this DataBundle,
+     * including its keys, values and nested DataBundles, following the model
+     * of DataBundleSizeEstimator.
+     * <p>
+     * The size of the entries is maintained as they are put and removed, so
+     * this takes constant time unless there are nested DataBundles, which are
+     * asked for their own size. CharSequence values which change length after
+     * being put are not accounted for.
+     *
+     * @return an estimate in bytes
+     */
+    public long estimateRetainedSize() {
+        long ret = DataBundleSizeEstimator.shallowSize(mMap.size()) + mEntriesSize;
+        if (mNestedCount > 0) {
+            for (Object value : mMap.values()) {
+                if (value instanceof DataBundle) {
+                    ret += ((DataBundle) value).estimateRetainedSize();
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Compares this DataBundle with another by content. Two DataBundles are
+     * equal if they have the same keys, and the values for each key are of
+     * the same class and equal. Arrays and nested DataBundles are compared
+     * by content.
+     *
+     * @param o an Object
+     * @return true if o is an equal DataBundle
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof DataBundle)) {
+            return false;
+        }
+        DataBundle other = (DataBundle) o;
+        if (mMap.size() != other.mMap.size()) {
+            return false;
+        }
+        // Without nested DataBundles or arrays the maintained hashes are complete
+        if (mNestedCount == 0 && mArrayCount == 0 && other.mNestedCount == 0 && other.mArrayCount == 0
+                && mContentHash != other.mContentHash) {
+            return false;
+        }
+        return valueEquals(this, other);
+    }
+
+    /**
+     * Returns a hash of the content of this DataBundle, consistent with
+     * equals().
+     * <p>
+     * The hash is maintained as entries are put and removed, so this takes
+     * constant time unless there are nested DataBundles or arrays, which
+     * are hashed on demand since they can be modified in place. Mutable
+     * CharSequences which are modified after being put are not accounted
+     * for, and a DataBundle must not be modified while it is a key in a
+     * hash based collection.
+     *
+     * @return the hash code
+     */
+    @Override
+    public int hashCode() {
+        int ret = mContentHash;
+        if (mNestedCount > 0 || mArrayCount > 0) {
+            for (Object value : mMap.values()) {
+                if (value instanceof DataBundle) {
+                    ret += value.hashCode();
+                }
+                else if (isArray(value)) {
+                    ret += arrayHash(value);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Computes the changes which turn the given base DataBundle into this one.
+     * Array values and nested DataBundles are compared by content.
+     *
+     * @param base a DataBundle
+     * @return a DataBundleDelta such that base.applyDelta(delta) makes
+     *     base equal to this DataBundle
+     */
+    public DataBundleDelta diff(DataBundle base) {
+        DataBundleDelta ret = new DataBundleDelta();
+        for (Map.Entry<String, Object> entry : mMap.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (!base.mMap.containsKey(key)) {
+                ret.added(key, value);
+            }
+            else if (!valueEquals(value, base.mMap.get(key))) {
+                ret.changed(key, value);
+            }
+        }
+        for (String key : base.mMap.keySet()) {
+            if (!mMap.containsKey(key)) {
+                ret.removed(key);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Applies the given changes to this DataBundle.
+     *
+     * @param delta a DataBundleDelta
+     */
+    public void applyDelta(DataBundleDelta delta) {
+        for (Map.Entry<String, Object> entry : delta.getAdded().entrySet()) {
+            putValue(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Object> entry : delta.getChanged().entrySet()) {
+            putValue(entry.getKey(), entry.getValue());
+        }
+        for (String key : delta.getRemoved()) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Turns tracking of changed keys on or off. While tracking is on,
+     * takeDelta() returns the changes since the previous call in time
+     * proportional to the number of changed keys. Turning tracking on
+     * starts from an empty set of changes.
+     *
+     * @param track true to track changes
+     */
+    public void setTrackChanges(boolean track) {
+        mDirty = track ? new HashMap<String, Boolean>() : null;
+    }
+
+    /**
+     * @return true if change tracking is on
+     */
+    public boolean isTrackingChanges() {
+        return mDirty != null;
+    }
+
+    /**
+     * Returns the changes made since change tracking was turned on or since
+     * the previous call, and starts a new set of changes. A key which was
+     * overwritten is reported as changed even if the new value is equal.
+     * <p>
+     * Changes made inside a nested DataBundle are not seen by this one, so
+     * every key holding a nested DataBundle is reported as changed, whether
+     * or not its content changed, and the delta always carries its current
+     * content.
+     *
+     * @return a DataBundleDelta
+     * @throws IllegalStateException if change tracking is off
+     */
+    public DataBundleDelta takeDelta() {
+        if (mDirty == null) {
+            throw new IllegalStateException("Change tracking is not enabled");
+        }
+        DataBundleDelta ret = new DataBundleDelta();
+        for (Map.Entry<String, Boolean> entry : mDirty.entrySet()) {
+            String key = entry.getKey();
+            boolean existed = entry.getValue();
+            if (mMap.containsKey(key)) {
+                if (existed) {
+                    ret.changed(key, mMap.get(key));
+                }
+                else {
+                    ret.added(key, mMap.get(key));
+                }
+            }
+            else if (existed) {
+                ret.removed(key);
+            }
+        }
+        if (mNestedCount > 0) {
+            for (Map.Entry<String, Object> entry : mMap.entrySet()) {
+                if (entry.getValue() instanceof DataBundle && !mDirty.containsKey(entry.getKey())) {
+                    ret.changed(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        mDirty.clear();
+        return ret;
+    }
+
+    /**
+     * Registers a listener which is notified of changes made by the put
+     * methods, remove(), putAll(), clear() and applyDelta(). Changes are
+     * collected and delivered asynchronously in batches on the given
+     * Executor, and a listener is never called again before its previous
+     * call has returned.
+     * <p>
+     * Listeners must be registered and removed on the thread which modifies
+     * the DataBundle. A DataBundle without listeners has no notification cost.
+     *
+     * @param listener a DataBundleListener
+     * @param executor the Executor to call the listener on
+     */
+    public void addChangeListener(DataBundleListener listener, Executor executor) {
+        if (mNotifier == null) {
+            mNotifier = new DataBundleNotifier(this);
+        }
+        mNotifier.add(listener, executor);
+    }
+
+    /**
+     * Registers a listener which is called on a shared daemon thread.
+     *
+     * @param listener a DataBundleListener
+     * @see #addChangeListener(DataBundleListener, Executor)
+     */
+    public void addChangeListener(DataBundleListener listener) {
+        addChangeListener(listener, DataBundleNotifier.defaultExecutor());
+    }
+
+    /**
+     * Unregisters a listener. Changes not yet delivered to it are dropped.
+     *
+     * @param listener a DataBundleListener
+     */
+    public void removeChangeListener(DataBundleListener listener) {
+        if (mNotifier != null && mNotifier.remove(listener) && mNotifier.isEmpty()) {
+            mNotifier = null;
+        }
     }
 
     /**
      * Returns a Set containing the Strings used as keys in this DataBundle.
+     * The Set is a read-only view, use remove() to remove mappings.
      *
      * @return a Set of String keys
      */
     public Set<String> getKeySet() {
-        return mMap.keySet();
+        return Collections.unmodifiableSet(mMap.keySet());
     }
 
     /**
      * Returns an array containing the Strings used as keys in this DataBundle.
+     * The order of the keys matches the order of the codes in getTypeArray().
      *
      * @return an array of String keys
      */
     @NativeCallable
     public String[] getKeyArray() {
-        String[] ret = new String[mMap.size()];
-        return mMap.keySet().toArray(ret);
+        if (mKeyCache == null) {
+            buildSignature();
+        }
+        return mKeyCache.clone();
     }
 
     /**
-     * Returns an array containing the Strings used as keys in this DataBundle.
+     * Returns the keys which start with the given prefix, in sorted order.
+     * The null key is never returned.
      *
-     * @return an array of type
+     * @param prefix a prefix such as "sensor.", or "" for all keys
+     * @return a new array of String keys
      */
-    @NativeCallable
-    public String getTypeArray() {
-        StringBuilder ret = new StringBuilder();
-        for (String key : getKeyArray()) {
-            Class clazz = get(key).getClass();
-            if (clazz == Boolean.class) {
-                ret.append('z');
+    public String[] keysWithPrefix(String prefix) {
+        String[] keys = sortedKeys();
+        int from = lowerBound(keys, prefix);
+        int to = prefixEnd(keys, from, prefix);
+        String[] ret = new String[to - from];
+        System.arraycopy(keys, from, ret, 0, ret.length);
+        return ret;
+    }
+
+    /**
+     * Returns the keys from fromKey, inclusive, to toKey, exclusive, in
+     * sorted order. The null key is never returned.
+     *
+     * @param fromKey the lowest key
+     * @param toKey the key after the highest key
+     * @return a new array of String keys
+     */
+    public String[] keysInRange(String fromKey, String toKey) {
+        String[] keys = sortedKeys();
+        int from = lowerBound(keys, fromKey);
+        int to = Math.max(from, lowerBound(keys, toKey));
+        String[] ret = new String[to - from];
+        System.arraycopy(keys, from, ret, 0, ret.length);
+        return ret;
+    }
+
+    /**
+     * Returns an Iterator over the keys which start with the given prefix,
+     * in sorted order, without copying them. The Iterator reflects the keys
+     * at the time it was created, and does not support remove().
+     *
+     * @param prefix a prefix, or "" for all keys
+     * @return an Iterator of String keys
+     */
+    public Iterator<String> keyIterator(String prefix) {
+        final String[] keys = sortedKeys();
+        final int from = lowerBound(keys, prefix);
+        final int to = prefixEnd(keys, from, prefix);
+        return new Iterator<String>() {
+            private int mNext = from;
+
+            public boolean hasNext() {
+                return mNext < to;
             }
-            else if (clazz == Character.class) {
-                ret.append('c');
+
+            public String next() {
+                if (mNext >= to) {
+                    throw new NoSuchElementException();
+                }
+                return keys[mNext++];
             }
-            else if (clazz == String.class) {
-                ret.append('x');
+
+            public void remove() {
+                throw new UnsupportedOperationException();
             }
-            if (clazz == Byte.class) {
-                ret.append('b');
+        };
+    }
+
+    /**
+     * Returns a new DataBundle holding the entries whose keys start with the
+     * given prefix, with the prefix removed from the keys, so that the
+     * sub-bundle of "sensor." maps "temp" to the value of "sensor.temp".
+     * Values are copied by reference.
+     *
+     * @param prefix a prefix
+     * @return a new DataBundle
+     */
+    public DataBundle subBundle(String prefix) {
+        String[] keys = sortedKeys();
+        int from = lowerBound(keys, prefix);
+        int to = prefixEnd(keys, from, prefix);
+        DataBundle ret = new DataBundle(DataBundleCodec.capacityFor(to - from));
+        ret.mDictionary = mDictionary;
+        for (int i = from; i < to; i++) {
+            ret.putValue(keys[i].substring(prefix.length()), mMap.get(keys[i]));
+        }
+        return ret;
+    }
+
+    /**
+     * Returns a String with one type code per key of this DataBundle, in the
+     * same order as getKeyArray(). See the TYPE_CODE_* constants, null values
+     * and values of other types are reported as TYPE_CODE_OBJECT.
+     * <p>
+     * The result is cached until the set of keys or the type of a value changes.
+     *
+     * @return a String of type codes
+     */
+    @NativeCallable
+    public String getTypeArray() {
+        if (mTypeCache == null) {
+            buildSignature();
+        }
+        return mTypeCache;
+    }
+
+    /**
+     * Returns the type code for the given value.
+     *
+     * @param value an Object, or null
+     * @return one of the TYPE_CODE_* constants
+     */
+    static char typeCodeOf(Object value) {
+        if (value == null) {
+            return TYPE_CODE_OBJECT;
+        }
+        Class clazz = value.getClass();
+        if (clazz == Boolean.class) {
+            return TYPE_CODE_BOOLEAN;
+        }
+        else if (clazz == Character.class) {
+            return TYPE_CODE_CHAR;
+        }
+        else if (clazz == String.class) {
+            return TYPE_CODE_STRING;
+        }
+        else if (clazz == Byte.class) {
+            return TYPE_CODE_BYTE;
+        }
+        else if (clazz == Short.class) {
+            return TYPE_CODE_SHORT;
+        }
+        else if (clazz == Integer.class) {
+            return TYPE_CODE_INT;
+        }
+        else if (clazz == Long.class) {
+            return TYPE_CODE_LONG;
+        }
+        else if (clazz == Float.class) {
+            return TYPE_CODE_FLOAT;
+        }
+        else if (clazz == Double.class) {
+            return TYPE_CODE_DOUBLE;
+        }
+        else if (clazz == byte[].class) {
+            return TYPE_CODE_BYTE_ARRAY;
+        }
+        else if (clazz == int[].class) {
+            return TYPE_CODE_INT_ARRAY;
+        }
+        else if (clazz == long[].class) {
+            return TYPE_CODE_LONG_ARRAY;
+        }
+        else if (clazz == double[].class) {
+            return TYPE_CODE_DOUBLE_ARRAY;
+        }
+        return TYPE_CODE_OBJECT;
+    }
+
+    private String[] sortedKeys() {
+        if (mSortedKeys == null) {
+            String[] keys = new String[mMap.size()];
+            int n = 0;
+            for (String key : mMap.keySet()) {
+                if (key != null) {
+                    keys[n++] = key;
+                }
             }
-            else if (clazz == Short.class) {
-                ret.append('s');
+            if (n < keys.length) {
+                keys = Arrays.copyOf(keys, n);
             }
-            else if (clazz == Integer.class) {
-                ret.append('i');
+            Arrays.sort(keys);
+            mSortedKeys = keys;
+        }
+        return mSortedKeys;
+    }
+
+    // The index of the first key not less than the given key
+    private static int lowerBound(String[] keys, String key) {
+        int i = Arrays.binarySearch(keys, key);
+        return (i >= 0) ? i : -(i + 1);
+    }
+
+    // The index after the last key starting with the prefix, the keys
+    // starting with it follow each other from the lower bound of the prefix
+    private static int prefixEnd(String[] keys, int from, String prefix) {
+        int lo = from;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].startsWith(prefix)) {
+                lo = mid + 1;
             }
-            else if (clazz == Long.class) {
-                ret.append('l');
+            else {
+                hi = mid;
             }
-            else if (clazz == Float.class) {
-                ret.append('f');
+        }
+        return lo;
+    }
+
+    // Build the key and type signature in a single pass over the entries
+    private void buildSignature() {
+        String[] keys = new String[mMap.size()];
+        char[] types = new char[keys.length];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : mMap.entrySet()) {
+            keys[i] = entry.getKey();
+            types[i] = typeCodeOf(entry.getValue());
+            i++;
+        }
+        mKeyCache = keys;
+        mTypeCache = new String(types);
+    }
+
+    // Add or subtract the estimated size of an entry
+    private void accountEntry(String key, Object value, int sign) {
+        mEntriesSize += sign * DataBundleSizeEstimator.entrySize(key, null);
+        mContentHash += sign * entryHash(key, value);
+        accountValue(value, sign);
+    }
+
+    // The hash of an entry, not counting the contents of a nested
+    // DataBundle or an array
+    private static int entryHash(String key, Object value) {
+        int ret = (key == null) ? 0 : key.hashCode();
+        if (value == null || value instanceof DataBundle || isArray(value)) {
+            return ret;
+        }
+        return ret ^ value.hashCode();
+    }
+
+    private static boolean isArray(Object value) {
+        return value instanceof byte[] || value instanceof int[]
+                || value instanceof long[] || value instanceof double[];
+    }
+
+    private static int arrayHash(Object value) {
+        if (value instanceof byte[]) {
+            return Arrays.hashCode((byte[]) value);
+        }
+        if (value instanceof int[]) {
+            return Arrays.hashCode((int[]) value);
+        }
+        if (value instanceof long[]) {
+            return Arrays.hashCode((long[]) value);
+        }
+        return Arrays.hashCode((double[]) value);
+    }
+
+    // Add or subtract the estimated size of a value, nested
+    // DataBundles are only counted
+    private void accountValue(Object value, int sign) {
+        if (value instanceof DataBundle) {
+            mNestedCount += sign;
+        }
+        else {
+            mEntriesSize += sign * DataBundleSizeEstimator.valueSize(value);
+            if (isArray(value)) {
+                mArrayCount += sign;
             }
-            else if (clazz == Double.class) {
-                ret.append('d');
+        }
+    }
+
+    // Rebuild the transient size accounting after deserialization
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        for (Map.Entry<String, Object> entry : mMap.entrySet()) {
+            accountEntry(entry.getKey(), entry.getValue(), 1);
+        }
+    }
+
+    // Remember whether the key was present before its first change
+    private void markDirty(String key) {
+        if (!mDirty.containsKey(key)) {
+            mDirty.put(key, mMap.containsKey(key));
+        }
+    }
+
+    /**
+     * Compares two values as held by a DataBundle. Arrays and nested
+     * DataBundles are compared by content.
+     *
+     * @param a a value, or null
+     * @param b a value, or null
+     * @return true if the values are equal
+     */
+    static boolean valueEquals(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null || a.getClass() != b.getClass()) {
+            return false;
+        }
+        if (a instanceof DataBundle) {
+            HashMap<String, Object> ma = ((DataBundle) a).mMap;
+            HashMap<String, Object> mb = ((DataBundle) b).mMap;
+            if (ma.size() != mb.size()) {
+                return false;
             }
-            else {
-                ret.append('o');
+            for (Map.Entry<String, Object> entry : ma.entrySet()) {
+                Object other = mb.get(entry.getKey());
+                if (other == null && !mb.containsKey(entry.getKey())) {
+                    return false;
+                }
+                if (!valueEquals(entry.getValue(), other)) {
+                    return false;
+                }
             }
+            return true;
+        }
+        if (a instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        }
+        if (a instanceof int[]) {
+            return Arrays.equals((int[]) a, (int[]) b);
+        }
+        if (a instanceof long[]) {
+            return Arrays.equals((long[]) a, (long[]) b);
+        }
+        if (a instanceof double[]) {
+            return Arrays.equals((double[]) a, (double[]) b);
+        }
+        return a.equals(b);
+    }
+
+    // Direct access to the entries for codecs in this package
+    Set<Map.Entry<String, Object>> entrySet() {
+        return mMap.entrySet();
+    }
+
+    // Lookup without statistics, for DataBundlePath
+    Object lookup(String key) {
+        return mMap.get(key);
+    }
+
+    private void invalidateSignature() {
+        mKeyCache = null;
+        mTypeCache = null;
+    }
+
+    // Insert a value, keeping the cached signature when an existing
+    // value is replaced by one of the same class
+    void putValue(String key, Object value) {
+        if (mDirty != null) markDirty(key);
+        int size = mMap.size();
+        Object old = mMap.put(key, value);
+        if (mMap.size() != size) {
+            accountEntry(key, value, 1);
+            mSortedKeys = null;
+            if (DataBundleStats.ENABLED) DataBundleStats.recordGrowth(size + 1);
+        }
+        else {
+            accountValue(old, -1);
+            accountValue(value, 1);
+            mContentHash += entryHash(key, value) - entryHash(key, old);
         }
-        return ret.toString();
+        if (old == null || value == null || old.getClass() != value.getClass()) {
+            invalidateSignature();
+        }
+        if (mNotifier != null) mNotifier.changed(key, value, mMap.size() == size);
     }
 
     /**
@@ -233,7 +882,8 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public void putBoolean(String key, boolean value) {
-        mMap.put(key, value);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_BOOLEAN, key);
+        putValue(key, value);
     }
 
     /**
@@ -245,7 +895,8 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public void putByte(String key, byte value) {
-        mMap.put(key, value);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_BYTE, key);
+        putValue(key, value);
     }
 
     /**
@@ -257,7 +908,8 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public void putChar(String key, char value) {
-        mMap.put(key, value);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_CHAR, key);
+        putValue(key, value);
     }
 
     /**
@@ -269,7 +921,8 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public void putShort(String key, short value) {
-        mMap.put(key, value);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_SHORT, key);
+        putValue(key, value);
     }
 
     /**
@@ -281,7 +934,8 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public void putInt(String key, int value) {
-        mMap.put(key, value);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_INT, key);
+        putValue(key, value);
     }
 
     /**
@@ -293,7 +947,8 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public void putLong(String key, long value) {
-        mMap.put(key, value);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_LONG, key);
+        putValue(key, value);
     }
 
     /**
@@ -305,7 +960,8 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public void putFloat(String key, float value) {
-        mMap.put(key, value);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_FLOAT, key);
+        putValue(key, value);
     }
 
     /**
@@ -317,30 +973,59 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public void putDouble(String key, double value) {
-        mMap.put(key, value);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_DOUBLE, key);
+        putValue(key, value);
     }
 
     /**
      * Inserts a String value into the mapping of this DataBundle, replacing
      * any existing value for the given key.  Either key or value may be null.
+     * With a StringDictionary set, the dictionary's canonical instance of
+     * the value is stored.
      *
      * @param key a String, or null
      * @param value a String, or null
      */
     @NativeCallable
     public void putString(String key, String value) {
-        mMap.put(key, value);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_STRING, key);
+        putValue(key, (mDictionary == null) ? value : mDictionary.intern(value));
     }
 
     /**
      * Inserts a CharSequence value into the mapping of this DataBundle, replacing
      * any existing value for the given key.  Either key or value may be null.
+     * The CharSequence is stored by reference, unless a StringDictionary is
+     * set, in which case the canonical String equal to its current content
+     * is stored.
      *
      * @param key a String, or null
      * @param value a CharSequence, or null
      */
     public void putCharSequence(String key, CharSequence value) {
-        mMap.put(key, value);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_CHAR_SEQUENCE, key);
+        if (mDictionary != null && value != null) {
+            value = mDictionary.intern(value.toString());
+        }
+        putValue(key, value);
+    }
+
+    /**
+     * Sets a StringDictionary used to canonicalize String and CharSequence
+     * values from now on. Values already present are not changed. Copies
+     * made with the copy constructor or clone() share the dictionary.
+     *
+     * @param dictionary a StringDictionary, or null to store values as given
+     */
+    public void setStringDictionary(StringDictionary dictionary) {
+        mDictionary = dictionary;
+    }
+
+    /**
+     * @return the StringDictionary, or null
+     */
+    public StringDictionary getStringDictionary() {
+        return mDictionary;
     }
 
     /**
@@ -352,7 +1037,81 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public void putDataBundle(String key, DataBundle value) {
-        mMap.put(key, value);
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_BUNDLE, key);
+        putValue(key, value);
+    }
+
+    /**
+     * Inserts a byte array value into the mapping of this DataBundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     * The array is stored by reference, not copied.
+     *
+     * @param key a String, or null
+     * @param value a byte array, or null
+     */
+    @NativeCallable
+    public void putByteArray(String key, byte[] value) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_BYTE_ARRAY, key);
+        putValue(key, value);
+    }
+
+    /**
+     * Inserts an int array value into the mapping of this DataBundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     * The array is stored by reference, not copied.
+     *
+     * @param key a String, or null
+     * @param value an int array, or null
+     */
+    @NativeCallable
+    public void putIntArray(String key, int[] value) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_INT_ARRAY, key);
+        putValue(key, value);
+    }
+
+    /**
+     * Inserts a long array value into the mapping of this DataBundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     * The array is stored by reference, not copied.
+     *
+     * @param key a String, or null
+     * @param value a long array, or null
+     */
+    @NativeCallable
+    public void putLongArray(String key, long[] value) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_LONG_ARRAY, key);
+        putValue(key, value);
+    }
+
+    /**
+     * Inserts a double array value into the mapping of this DataBundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     * The array is stored by reference, not copied.
+     *
+     * @param key a String, or null
+     * @param value a double array, or null
+     */
+    @NativeCallable
+    public void putDoubleArray(String key, double[] value) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordPut(DataBundleStats.TYPE_DOUBLE_ARRAY, key);
+        putValue(key, value);
+    }
+
+    /**
+     * Inserts the remaining bytes of a ByteBuffer into the mapping of this
+     * DataBundle as a byte array, replacing any existing value for the given key.
+     * The bytes are copied and the position of the buffer is not changed.
+     *
+     * @param key a String, or null
+     * @param value a ByteBuffer, or null
+     */
+    public void putByteBuffer(String key, ByteBuffer value) {
+        byte[] b = null;
+        if (value != null) {
+            b = new byte[value.remaining()];
+            value.duplicate().get(b);
+        }
+        putByteArray(key, b);
     }
 
     /**
@@ -372,6 +1131,7 @@ public final class DataBundle implements Cloneable, Serializable {
     // Log a message if the value was non-null but not of the expected type
     private void typeWarning(String key, Object value, String className,
         Object defaultValue, ClassCastException e) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordTypeMismatch();
         StringBuilder sb = new StringBuilder();
         sb.append("Key ");
         sb.append(key);
@@ -403,6 +1163,7 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public boolean getBoolean(String key, boolean defaultValue) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_BOOLEAN, key);
         Object o = mMap.get(key);
         if (o == null) {
             return defaultValue;
@@ -437,6 +1198,7 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public Byte getByte(String key, byte defaultValue) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_BYTE, key);
         Object o = mMap.get(key);
         if (o == null) {
             return defaultValue;
@@ -471,6 +1233,7 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public char getChar(String key, char defaultValue) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_CHAR, key);
         Object o = mMap.get(key);
         if (o == null) {
             return defaultValue;
@@ -505,6 +1268,7 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public short getShort(String key, short defaultValue) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_SHORT, key);
         Object o = mMap.get(key);
         if (o == null) {
             return defaultValue;
@@ -539,6 +1303,7 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public int getInt(String key, int defaultValue) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_INT, key);
         Object o = mMap.get(key);
         if (o == null) {
             return defaultValue;
@@ -573,6 +1338,7 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public long getLong(String key, long defaultValue) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_LONG, key);
         Object o = mMap.get(key);
         if (o == null) {
             return defaultValue;
@@ -607,6 +1373,7 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public float getFloat(String key, float defaultValue) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_FLOAT, key);
         Object o = mMap.get(key);
         if (o == null) {
             return defaultValue;
@@ -641,6 +1408,7 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public double getDouble(String key, double defaultValue) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_DOUBLE, key);
         Object o = mMap.get(key);
         if (o == null) {
             return defaultValue;
@@ -663,6 +1431,7 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public String getString(String key) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_STRING, key);
         final Object o = mMap.get(key);
         try {
             return (String) o;
@@ -696,6 +1465,7 @@ public final class DataBundle implements Cloneable, Serializable {
      * @return a CharSequence value, or null
      */
     public CharSequence getCharSequence(String key) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_CHAR_SEQUENCE, key);
         final Object o = mMap.get(key);
         try {
             return (CharSequence) o;
@@ -729,6 +1499,7 @@ public final class DataBundle implements Cloneable, Serializable {
      */
     @NativeCallable
     public DataBundle getBundle(String key) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_BUNDLE, key);
         Object o = mMap.get(key);
         if (o == null) {
             return null;
@@ -741,6 +1512,150 @@ public final class DataBundle implements Cloneable, Serializable {
         }
     }
 
+    /**
+     * Returns the value associated with the given key, or null if
+     * no mapping of the desired type exists for the given key or a null
+     * value is explicitly associated with the key.
+     *
+     * @param key a String, or null
+     * @return a byte[] value, or null
+     */
+    @NativeCallable
+    public byte[] getByteArray(String key) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_BYTE_ARRAY, key);
+        Object o = mMap.get(key);
+        if (o == null) {
+            return null;
+        }
+        try {
+            return (byte[]) o;
+        } catch (ClassCastException e) {
+            typeWarning(key, o, "byte[]", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a ByteBuffer view of the byte[] value associated with the given
+     * key, or null if no mapping of the desired type exists for the given key.
+     * Changes through the buffer are visible in the stored array.
+     *
+     * @param key a String, or null
+     * @return a ByteBuffer, or null
+     */
+    public ByteBuffer getByteBuffer(String key) {
+        byte[] a = getByteArray(key);
+        return (a == null) ? null : ByteBuffer.wrap(a);
+    }
+
+    /**
+     * Returns the value associated with the given key, or null if
+     * no mapping of the desired type exists for the given key or a null
+     * value is explicitly associated with the key.
+     *
+     * @param key a String, or null
+     * @return an int[] value, or null
+     */
+    @NativeCallable
+    public int[] getIntArray(String key) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_INT_ARRAY, key);
+        Object o = mMap.get(key);
+        if (o == null) {
+            return null;
+        }
+        try {
+            return (int[]) o;
+        } catch (ClassCastException e) {
+            typeWarning(key, o, "int[]", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a IntBuffer view of the int[] value associated with the given
+     * key, or null if no mapping of the desired type exists for the given key.
+     * Changes through the buffer are visible in the stored array.
+     *
+     * @param key a String, or null
+     * @return a IntBuffer, or null
+     */
+    public IntBuffer getIntBuffer(String key) {
+        int[] a = getIntArray(key);
+        return (a == null) ? null : IntBuffer.wrap(a);
+    }
+
+    /**
+     * Returns the value associated with the given key, or null if
+     * no mapping of the desired type exists for the given key or a null
+     * value is explicitly associated with the key.
+     *
+     * @param key a String, or null
+     * @return a long[] value, or null
+     */
+    @NativeCallable
+    public long[] getLongArray(String key) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_LONG_ARRAY, key);
+        Object o = mMap.get(key);
+        if (o == null) {
+            return null;
+        }
+        try {
+            return (long[]) o;
+        } catch (ClassCastException e) {
+            typeWarning(key, o, "long[]", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a LongBuffer view of the long[] value associated with the given
+     * key, or null if no mapping of the desired type exists for the given key.
+     * Changes through the buffer are visible in the stored array.
+     *
+     * @param key a String, or null
+     * @return a LongBuffer, or null
+     */
+    public LongBuffer getLongBuffer(String key) {
+        long[] a = getLongArray(key);
+        return (a == null) ? null : LongBuffer.wrap(a);
+    }
+
+    /**
+     * Returns the value associated with the given key, or null if
+     * no mapping of the desired type exists for the given key or a null
+     * value is explicitly associated with the key.
+     *
+     * @param key a String, or null
+     * @return a double[] value, or null
+     */
+    @NativeCallable
+    public double[] getDoubleArray(String key) {
+        if (DataBundleStats.ENABLED) DataBundleStats.recordGet(DataBundleStats.TYPE_DOUBLE_ARRAY, key);
+        Object o = mMap.get(key);
+        if (o == null) {
+            return null;
+        }
+        try {
+            return (double[]) o;
+        } catch (ClassCastException e) {
+            typeWarning(key, o, "double[]", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a DoubleBuffer view of the double[] value associated with the given
+     * key, or null if no mapping of the desired type exists for the given key.
+     * Changes through the buffer are visible in the stored array.
+     *
+     * @param key a String, or null
+     * @return a DoubleBuffer, or null
+     */
+    public DoubleBuffer getDoubleBuffer(String key) {
+        double[] a = getDoubleArray(key);
+        return (a == null) ? null : DoubleBuffer.wrap(a);
+    }
+
     @Override
     @NativeCallable
     public synchronized String toString() {
@@ -0,0 +1,439 @@
+package com.luxvelocitas.tinydatautils;
+
+/**
+ * DataBundleCache
+ *
+ * A concurrent cache of DataBundles keyed by primitive long ids, bounded by
+ * the total weight of its entries rather than their number.
+ * <p>
+ * Eviction is segmented LRU: new entries enter a probationary segment and
+ * are promoted to a protected segment, which takes up to 80% of the weight
+ * budget, when they are read again. Entries are evicted from the LRU end of
+ * the probationary segment first, so a scan of entries which are read only
+ * once cannot flush the frequently read ones.
+ * <p>
+ * The cache is split into independently locked shards by key hash, each
+ * with an equal share of the weight budget. Entries are held in parallel
+ * arrays indexed through a LongLongHashMap, so neither keys nor list
+ * nodes are allocated per entry. An entry heavier than a shard's budget
+ * is not cached.
+ * <p>
+ * Cached bundles are shared with callers and must not be modified.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public class DataBundleCache {
+    private final Shard[] mShards;
+    private final int mShardMask;
+    private final DataBundleWeigher mWeigher;
+    private final long mMaxWeight;
+
+    private final StripedCounter mHits = new StripedCounter();
+    private final StripedCounter mMisses = new StripedCounter();
+    private final StripedCounter mEvictions = new StripedCounter();
+    private final StripedCounter mEvictedWeight = new StripedCounter();
+    private final StripedCounter mRejections = new StripedCounter();
+
+    /**
+     * Constructs a new DataBundleCache which weighs bundles by their
+     * estimated retained size.
+     *
+     * @param maxBytes the total estimated size of all cached bundles
+     */
+    public DataBundleCache(long maxBytes) {
+        this(maxBytes, DataBundleWeigher.RETAINED_SIZE);
+    }
+
+    /**
+     * Constructs a new DataBundleCache.
+     *
+     * @param maxWeight the total weight of all cached bundles
+     * @param weigher the DataBundleWeigher
+     */
+    public DataBundleCache(long maxWeight, DataBundleWeigher weigher) {
+        this(maxWeight, weigher, defaultShardCount(maxWeight));
+    }
+
+    /**
+     * Constructs a new DataBundleCache.
+     *
+     * @param maxWeight the total weight of all cached bundles
+     * @param weigher the DataBundleWeigher
+     * @param shards the number of shards, rounded up to a power of two
+     */
+    public DataBundleCache(long maxWeight, DataBundleWeigher weigher, int shards) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight must be positive: " + maxWeight);
+        }
+        int n = 1;
+        while (n < shards) {
+            n <<= 1;
+        }
+        mShards = new Shard[n];
+        for (int i = 0; i < n; i++) {
+            mShards[i] = new Shard(Math.max(1L, maxWeight / n));
+        }
+        mShardMask = n - 1;
+        mWeigher = weigher;
+        mMaxWeight = maxWeight;
+    }
+
+    /**
+     * Returns the cached DataBundle for the given key and records a hit,
+     * or records a miss.
+     *
+     * @param key a key
+     * @return the DataBundle, or null
+     */
+    public DataBundle get(long key) {
+        DataBundle ret = shardFor(key).get(key);
+        if (ret == null) {
+            mMisses.increment();
+        }
+        else {
+            mHits.increment();
+        }
+        return ret;
+    }
+
+    /**
+     * Caches a DataBundle under the given key, replacing any existing entry,
+     * and evicts entries as needed to stay within the weight budget.
+     *
+     * @param key a key
+     * @param bundle a DataBundle
+     * @return true if the bundle was cached, false if it was too heavy
+     */
+    public boolean put(long key, DataBundle bundle) {
+        if (bundle == null) {
+            throw new NullPointerException("bundle");
+        }
+        return shardFor(key).put(key, bundle, mWeigher.weigh(bundle));
+    }
+
+    /**
+     * Removes the entry for the given key.
+     *
+     * @param key a key
+     * @return the removed DataBundle, or null
+     */
+    public DataBundle invalidate(long key) {
+        return shardFor(key).remove(key);
+    }
+
+    /**
+     * Removes all entries. Statistics are kept.
+     */
+    public void invalidateAll() {
+        for (Shard shard : mShards) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    public int size() {
+        int ret = 0;
+        for (Shard shard : mShards) {
+            ret += shard.size();
+        }
+        return ret;
+    }
+
+    /**
+     * @return the total weight of the cached entries
+     */
+    public long weightedSize() {
+        long ret = 0L;
+        for (Shard shard : mShards) {
+            ret += shard.weight();
+        }
+        return ret;
+    }
+
+    /**
+     * @return the total weight budget
+     */
+    public long maxWeight() {
+        return mMaxWeight;
+    }
+
+    /**
+     * @return a point-in-time copy of the cache statistics
+     */
+    public Stats stats() {
+        return new Stats(mHits.sum(), mMisses.sum(), mEvictions.sum(),
+                mEvictedWeight.sum(), mRejections.sum());
+    }
+
+    private Shard shardFor(long key) {
+        return mShards[LongLongHashMap.mix(key) >>> 16 & mShardMask];
+    }
+
+    // Enough shards for concurrency, but not so many that a shard's
+    // budget becomes too small for typical bundles
+    private static int defaultShardCount(long maxWeight) {
+        int n = StripedCounter.STRIPES * 4;
+        while (n > 1 && maxWeight / n < 64 * 1024) {
+            n >>= 1;
+        }
+        return n;
+    }
+
+    /**
+     * Cache statistics.
+     */
+    public static final class Stats {
+        private final long mHits;
+        private final long mMisses;
+        private final long mEvictions;
+        private final long mEvictedWeight;
+        private final long mRejections;
+
+        Stats(long hits, long misses, long evictions, long evictedWeight, long rejections) {
+            mHits = hits;
+            mMisses = misses;
+            mEvictions = evictions;
+            mEvictedWeight = evictedWeight;
+            mRejections = rejections;
+        }
+
+        public long getHitCount() {
+            return mHits;
+        }
+
+        public long getMissCount() {
+            return mMisses;
+        }
+
+        /**
+         * @return hits divided by requests, or 1.0 if there were no requests
+         */
+        public double getHitRate() {
+            long requests = mHits + mMisses;
+            return (requests == 0) ? 1.0 : (double) mHits / requests;
+        }
+
+        public long getEvictionCount() {
+            return mEvictions;
+        }
+
+        public long getEvictedWeight() {
+            return mEvictedWeight;
+        }
+
+        /**
+         * @return the number of bundles not cached because they were too heavy
+         */
+        public long getRejectionCount() {
+            return mRejections;
+        }
+
+        @Override
+        public String toString() {
+            return "DataBundleCache.Stats[hits=" + mHits + " misses=" + mMisses
+                    + " hitRate=" + getHitRate() + " evictions=" + mEvictions
+                    + " evictedWeight=" + mEvictedWeight + " rejections=" + mRejections + "]";
+        }
+    }
+
+    /**
+     * One independently locked part of the cache. Entries live in slots of
+     * parallel arrays, linked into two doubly linked lists by slot index.
+     */
+    private final class Shard {
+        private static final int NONE = -1;
+        private static final byte PROBATION = 0;
+        private static final byte PROTECTED = 1;
+
+        private final long mMaxWeight;
+        private final long mMaxProtectedWeight;
+        private final LongLongHashMap mIndex = new LongLongHashMap(NONE);
+
+        private long[] mKeys = new long[16];
+        private DataBundle[] mValues = new DataBundle[16];
+        private long[] mWeights = new long[16];
+        private int[] mPrev = new int[16];
+        private int[] mNext = new int[16];
+        private byte[] mQueue = new byte[16];
+        private int mUsed;
+        private int mFree = NONE;
+
+        // Head is most recently used, tail least recently used
+        private final int[] mHead = { NONE, NONE };
+        private final int[] mTail = { NONE, NONE };
+        private final long[] mQueueWeight = new long[2];
+
+        Shard(long maxWeight) {
+            mMaxWeight = maxWeight;
+            mMaxProtectedWeight = maxWeight * 4 / 5;
+        }
+
+        synchronized DataBundle get(long key) {
+            int slot = (int) mIndex.get(key);
+            if (slot == NONE) {
+                return null;
+            }
+            if (mQueue[slot] == PROBATION) {
+                unlink(slot);
+                link(slot, PROTECTED);
+                // Demote the least recently used protected entries
+                while (mQueueWeight[PROTECTED] > mMaxProtectedWeight) {
+                    int victim = mTail[PROTECTED];
+                    unlink(victim);
+                    link(victim, PROBATION);
+                }
+            }
+            else {
+                unlink(slot);
+                link(slot, PROTECTED);
+            }
+            return mValues[slot];
+        }
+
+        synchronized boolean put(long key, DataBundle bundle, long weight) {
+            int slot = (int) mIndex.get(key);
+            if (weight > mMaxWeight) {
+                if (slot != NONE) {
+                    release(slot);
+                }
+                mRejections.increment();
+                return false;
+            }
+            if (slot != NONE) {
+                byte queue = mQueue[slot];
+                unlink(slot);
+                mValues[slot] = bundle;
+                mWeights[slot] = weight;
+                link(slot, queue);
+            }
+            else {
+                slot = allocate();
+                mKeys[slot] = key;
+                mValues[slot] = bundle;
+                mWeights[slot] = weight;
+                mIndex.put(key, slot);
+                link(slot, PROBATION);
+            }
+            evict();
+            return true;
+        }
+
+        synchronized DataBundle remove(long key) {
+            int slot = (int) mIndex.get(key);
+            if (slot == NONE) {
+                return null;
+            }
+            DataBundle ret = mValues[slot];
+            release(slot);
+            return ret;
+        }
+
+        synchronized void clear() {
+            while (mTail[PROBATION] != NONE) {
+                release(mTail[PROBATION]);
+            }
+            while (mTail[PROTECTED] != NONE) {
+                release(mTail[PROTECTED]);
+            }
+        }
+
+        synchronized int size() {
+            return mIndex.size();
+        }
+
+        synchronized long weight() {
+            return mQueueWeight[PROBATION] + mQueueWeight[PROTECTED];
+        }
+
+        private void evict() {
+            while (mQueueWeight[PROBATION] + mQueueWeight[PROTECTED] > mMaxWeight) {
+                int victim = mTail[PROBATION];
+                if (victim == NONE) {
+                    victim = mTail[PROTECTED];
+                }
+                mEvictions.increment();
+                mEvictedWeight.add(mWeights[victim]);
+                release(victim);
+            }
+        }
+
+        private void release(int slot) {
+            unlink(slot);
+            mIndex.remove(mKeys[slot]);
+            mValues[slot] = null;
+            mNext[slot] = mFree;
+            mFree = slot;
+        }
+
+        private int allocate() {
+            if (mFree != NONE) {
+                int ret = mFree;
+                mFree = mNext[ret];
+                return ret;
+            }
+            if (mUsed == mKeys.length) {
+                grow();
+            }
+            return mUsed++;
+        }
+
+        private void grow() {
+            int n = mKeys.length << 1;
+            long[] keys = new long[n];
+            DataBundle[] values = new DataBundle[n];
+            long[] weights = new long[n];
+            int[] prev = new int[n];
+            int[] next = new int[n];
+            byte[] queue = new byte[n];
+            System.arraycopy(mKeys, 0, keys, 0, mUsed);
+            System.arraycopy(mValues, 0, values, 0, mUsed);
+            System.arraycopy(mWeights, 0, weights, 0, mUsed);
+            System.arraycopy(mPrev, 0, prev, 0, mUsed);
+            System.arraycopy(mNext, 0, next, 0, mUsed);
+            System.arraycopy(mQueue, 0, queue, 0, mUsed);
+            mKeys = keys;
+            mValues = values;
+            mWeights = weights;
+            mPrev = prev;
+            mNext = next;
+            mQueue = queue;
+        }
+
+        // Insert at the head of the given queue
+        private void link(int slot, byte queue) {
+            mQueue[slot] = queue;
+            mPrev[slot] = NONE;
+            mNext[slot] = mHead[queue];
+            if (mHead[queue] != NONE) {
+                mPrev[mHead[queue]] = slot;
+            }
+            else {
+                mTail[queue] = slot;
+            }
+            mHead[queue] = slot;
+            mQueueWeight[queue] += mWeights[slot];
+        }
+
+        private void unlink(int slot) {
+            byte queue = mQueue[slot];
+            int prev = mPrev[slot];
+            int next = mNext[slot];
+            if (prev != NONE) {
+                mNext[prev] = next;
+            }
+            else {
+                mHead[queue] = next;
+            }
+            if (next != NONE) {
+                mPrev[next] = prev;
+            }
+            else {
+                mTail[queue] = prev;
+            }
+            mQueueWeight[queue] -= mWeights[slot];
+        }
+    }
+}
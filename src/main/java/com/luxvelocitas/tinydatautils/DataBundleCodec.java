@@ -0,0 +1,450 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * DataBundleCodec
+ *
+ * A compact binary encoding of DataBundles.
+ * <p>
+ * A bundle is encoded as a varint entry count, followed by each entry as
+ * a key String, a one byte tag and the value. Tags are the type codes
+ * returned by DataBundle.getTypeArray(), plus TAG_NULL for null values and
+ * TAG_BUNDLE for nested DataBundles. Integral values are zigzag varints,
+ * floating point values are fixed width, arrays are prefixed by their length.
+ * <p>
+ * CharSequence values are encoded as Strings. Values of any other type
+ * cannot be encoded and cause an IllegalArgumentException.
+ * <p>
+ * When encoding with a StringDictionary, String values found in the
+ * dictionary are written as TAG_DICTIONARY_STRING and their varint code.
+ * Decoding them requires a dictionary with the same codes, and returns the
+ * dictionary's canonical instances.
+ * <p>
+ * Decoding is safe on untrusted input: bundles nested deeper than MAX_DEPTH
+ * and stream records longer than the given maximum are rejected with an
+ * IOException rather than exhausting the stack or the heap.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public final class DataBundleCodec {
+    public static final byte TAG_NULL = 'n';
+    public static final byte TAG_BUNDLE = 'm';
+    public static final byte TAG_DICTIONARY_STRING = 'y';
+
+    /** The deepest nesting of DataBundles which can be encoded and decoded. */
+    public static final int MAX_DEPTH = 256;
+
+    /** The default limit on the length of a record read by readFrom(). */
+    public static final int DEFAULT_MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    private DataBundleCodec() { }
+
+    /**
+     * Encodes the given DataBundle.
+     *
+     * @param bundle a DataBundle
+     * @return the encoded bytes
+     */
+    public static byte[] encode(DataBundle bundle) {
+        BinaryWriter w = new BinaryWriter();
+        encode(bundle, w);
+        return w.toByteArray();
+    }
+
+    /**
+     * Appends the encoding of the given DataBundle to a BinaryWriter.
+     *
+     * @param bundle a DataBundle
+     * @param w a BinaryWriter
+     */
+    public static void encode(DataBundle bundle, BinaryWriter w) {
+        encode(bundle, w, null);
+    }
+
+    /**
+     * Appends the encoding of the given DataBundle to a BinaryWriter,
+     * writing the codes of String values which are in the dictionary.
+     * Values are looked up but not added.
+     *
+     * @param bundle a DataBundle
+     * @param w a BinaryWriter
+     * @param dictionary a StringDictionary, or null
+     * @throws IllegalArgumentException if a value cannot be encoded, or the
+     *     DataBundles are nested deeper than MAX_DEPTH
+     */
+    public static void encode(DataBundle bundle, BinaryWriter w, StringDictionary dictionary) {
+        int start = w.size();
+        writeBundle(bundle, w, dictionary, 0);
+        DataBundleStats.recordSerializedBytes(w.size() - start);
+    }
+
+    /**
+     * Writes the given DataBundle to a stream as a length-prefixed record,
+     * which can be read back with readFrom().
+     *
+     * @param bundle a DataBundle
+     * @param out an OutputStream
+     * @param w a BinaryWriter used as scratch space, it is reset before use
+     * @throws IOException if the stream throws
+     */
+    public static void writeTo(DataBundle bundle, OutputStream out, BinaryWriter w) throws IOException {
+        w.reset();
+        encode(bundle, w);
+        writeVarInt(out, w.size());
+        w.writeTo(out);
+    }
+
+    /**
+     * Decodes a DataBundle from the given bytes.
+     *
+     * @param data the encoded bytes
+     * @return a new DataBundle
+     * @throws IOException if the data is malformed
+     */
+    public static DataBundle decode(byte[] data) throws IOException {
+        return decode(new BinaryReader(data));
+    }
+
+    /**
+     * Decodes a DataBundle from a range of the given bytes.
+     *
+     * @param data the encoded bytes
+     * @param off the offset of the encoding
+     * @param len the length of the encoding
+     * @return a new DataBundle
+     * @throws IOException if the data is malformed
+     */
+    public static DataBundle decode(byte[] data, int off, int len) throws IOException {
+        return decode(new BinaryReader(data, off, len));
+    }
+
+    /**
+     * Decodes the next DataBundle from a BinaryReader.
+     *
+     * @param r a BinaryReader
+     * @return a new DataBundle
+     * @throws IOException if the data is malformed
+     */
+    public static DataBundle decode(BinaryReader r) throws IOException {
+        return decode(r, null);
+    }
+
+    /**
+     * Decodes the next DataBundle from a BinaryReader, resolving dictionary
+     * encoded String values with the given dictionary.
+     *
+     * @param r a BinaryReader
+     * @param dictionary the StringDictionary used for encoding, or null
+     * @return a new DataBundle
+     * @throws IOException if the data is malformed or refers to an unknown code
+     */
+    public static DataBundle decode(BinaryReader r, StringDictionary dictionary) throws IOException {
+        return decode(r, dictionary, 0);
+    }
+
+    private static DataBundle decode(BinaryReader r, StringDictionary dictionary, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("DataBundles nested too deeply");
+        }
+        int count = r.readVarInt();
+        if (count < 0 || count > r.remaining()) {
+            throw new IOException("Malformed entry count " + count);
+        }
+        DataBundle ret = new DataBundle(capacityFor(count));
+        for (int i = 0; i < count; i++) {
+            String key = r.readString();
+            ret.putValue(key, readValue(r.readByte(), r, dictionary, depth));
+        }
+        return ret;
+    }
+
+    /**
+     * Reads a length-prefixed record written by writeTo(), of at most
+     * DEFAULT_MAX_RECORD_SIZE bytes.
+     *
+     * @param in an InputStream
+     * @return a new DataBundle, or null at the end of the stream
+     * @throws IOException if the stream throws or the record is malformed
+     */
+    public static DataBundle readFrom(InputStream in) throws IOException {
+        return readFrom(in, DEFAULT_MAX_RECORD_SIZE);
+    }
+
+    /**
+     * Reads a length-prefixed record written by writeTo().
+     *
+     * @param in an InputStream
+     * @param maxRecordSize the largest record length to accept, the length
+     *     is checked before the record is allocated
+     * @return a new DataBundle, or null at the end of the stream
+     * @throws IOException if the stream throws, the record is malformed or
+     *     it is longer than maxRecordSize
+     */
+    public static DataBundle readFrom(InputStream in, int maxRecordSize) throws IOException {
+        int len = readVarInt(in);
+        if (len < 0) {
+            return null;
+        }
+        if (len > maxRecordSize) {
+            throw new IOException("Record of " + len + " bytes exceeds the maximum of " + maxRecordSize);
+        }
+        byte[] data = new byte[len];
+        readFully(in, data, len);
+        return decode(data);
+    }
+
+    /**
+     * Writes an unsigned varint directly to a stream.
+     *
+     * @param out an OutputStream
+     * @param v the value, treated as unsigned
+     * @throws IOException if the stream throws
+     */
+    static void writeVarInt(OutputStream out, int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    /**
+     * Reads a non-negative varint directly from a stream.
+     *
+     * @param in an InputStream
+     * @return the value, or -1 if the stream ended before the first byte
+     * @throws IOException if the stream throws or the varint is malformed
+     */
+    static int readVarInt(InputStream in) throws IOException {
+        int ret = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return -1;
+                }
+                throw new EOFException("Truncated varint");
+            }
+            if (shift > 28) {
+                throw new IOException("Malformed varint");
+            }
+            ret |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (ret < 0) {
+            throw new IOException("Malformed varint");
+        }
+        return ret;
+    }
+
+    /**
+     * Reads exactly len bytes from a stream.
+     *
+     * @param in an InputStream
+     * @param b the destination array
+     * @param len the number of bytes to read
+     * @throws IOException if the stream throws or ends early
+     */
+    static void readFully(InputStream in, byte[] b, int len) throws IOException {
+        int off = 0;
+        while (off < len) {
+            int n = in.read(b, off, len - off);
+            if (n < 0) {
+                throw new EOFException("Truncated record");
+            }
+            off += n;
+        }
+    }
+
+    /**
+     * Returns the HashMap capacity which holds n entries without resizing.
+     *
+     * @param n the number of entries
+     * @return a capacity
+     */
+    static int capacityFor(int n) {
+        return (int) (n / 0.75f) + 1;
+    }
+
+    private static void writeBundle(DataBundle bundle, BinaryWriter w, StringDictionary dictionary, int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("DataBundles nested too deeply to encode");
+        }
+        w.writeVarInt(bundle.size());
+        for (Map.Entry<String, Object> entry : bundle.entrySet()) {
+            w.writeString(entry.getKey());
+            writeValue(entry.getValue(), w, dictionary, depth);
+        }
+    }
+
+    /**
+     * Writes a single tagged value.
+     *
+     * @param value a value as held by a DataBundle
+     * @param w a BinaryWriter
+     */
+    static void writeValue(Object value, BinaryWriter w) {
+        writeValue(value, w, null, 0);
+    }
+
+    // The depth is that of the DataBundle holding the value
+    private static void writeValue(Object value, BinaryWriter w, StringDictionary dictionary, int depth) {
+        if (value == null) {
+            w.writeByte(TAG_NULL);
+            return;
+        }
+        char code = DataBundle.typeCodeOf(value);
+        switch (code) {
+            case DataBundle.TYPE_CODE_BOOLEAN:
+                w.writeByte(code);
+                w.writeBoolean((Boolean) value);
+                break;
+            case DataBundle.TYPE_CODE_BYTE:
+                w.writeByte(code);
+                w.writeByte((Byte) value);
+                break;
+            case DataBundle.TYPE_CODE_CHAR:
+                w.writeByte(code);
+                w.writeChar((Character) value);
+                break;
+            case DataBundle.TYPE_CODE_SHORT:
+                w.writeByte(code);
+                w.writeZigZagInt((Short) value);
+                break;
+            case DataBundle.TYPE_CODE_INT:
+                w.writeByte(code);
+                w.writeZigZagInt((Integer) value);
+                break;
+            case DataBundle.TYPE_CODE_LONG:
+                w.writeByte(code);
+                w.writeZigZagLong((Long) value);
+                break;
+            case DataBundle.TYPE_CODE_FLOAT:
+                w.writeByte(code);
+                w.writeFloat((Float) value);
+                break;
+            case DataBundle.TYPE_CODE_DOUBLE:
+                w.writeByte(code);
+                w.writeDouble((Double) value);
+                break;
+            case DataBundle.TYPE_CODE_STRING: {
+                int dictionaryCode = (dictionary == null) ? -1 : dictionary.codeOf((String) value);
+                if (dictionaryCode >= 0) {
+                    w.writeByte(TAG_DICTIONARY_STRING);
+                    w.writeVarInt(dictionaryCode);
+                }
+                else {
+                    w.writeByte(code);
+                    w.writeString((String) value);
+                }
+                break;
+            }
+            case DataBundle.TYPE_CODE_BYTE_ARRAY:
+                w.writeByte(code);
+                w.writeByteArray((byte[]) value);
+                break;
+            case DataBundle.TYPE_CODE_INT_ARRAY:
+                w.writeByte(code);
+                w.writeIntArray((int[]) value);
+                break;
+            case DataBundle.TYPE_CODE_LONG_ARRAY:
+                w.writeByte(code);
+                w.writeLongArray((long[]) value);
+                break;
+            case DataBundle.TYPE_CODE_DOUBLE_ARRAY:
+                w.writeByte(code);
+                w.writeDoubleArray((double[]) value);
+                break;
+            default:
+                if (value instanceof DataBundle) {
+                    w.writeByte(TAG_BUNDLE);
+                    writeBundle((DataBundle) value, w, dictionary, depth + 1);
+                }
+                else if (value instanceof CharSequence) {
+                    w.writeByte(DataBundle.TYPE_CODE_STRING);
+                    w.writeString(value.toString());
+                }
+                else {
+                    throw new IllegalArgumentException("Cannot encode value of type "
+                            + value.getClass().getName());
+                }
+        }
+    }
+
+    /**
+     * Reads a single tagged value written by writeValue().
+     *
+     * @param r a BinaryReader
+     * @return the value, or null
+     * @throws IOException if the data is malformed
+     */
+    static Object readValue(BinaryReader r) throws IOException {
+        return readValue(r.readByte(), r);
+    }
+
+    /**
+     * Reads the value for a tag which has already been read.
+     *
+     * @param tag the value tag
+     * @param r a BinaryReader
+     * @return the value, or null
+     * @throws IOException if the data is malformed
+     */
+    static Object readValue(byte tag, BinaryReader r) throws IOException {
+        return readValue(tag, r, null, 0);
+    }
+
+    // The depth is that of the DataBundle holding the value
+    private static Object readValue(byte tag, BinaryReader r, StringDictionary dictionary, int depth)
+            throws IOException {
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_BUNDLE:
+                return decode(r, dictionary, depth + 1);
+            case TAG_DICTIONARY_STRING: {
+                int dictionaryCode = r.readVarInt();
+                if (dictionary == null || dictionaryCode < 0 || dictionaryCode >= dictionary.size()) {
+                    throw new IOException("Unknown dictionary code " + dictionaryCode);
+                }
+                return dictionary.get(dictionaryCode);
+            }
+            case DataBundle.TYPE_CODE_BOOLEAN:
+                return r.readBoolean();
+            case DataBundle.TYPE_CODE_BYTE:
+                return r.readByte();
+            case DataBundle.TYPE_CODE_CHAR:
+                return r.readChar();
+            case DataBundle.TYPE_CODE_SHORT:
+                return (short) r.readZigZagInt();
+            case DataBundle.TYPE_CODE_INT:
+                return r.readZigZagInt();
+            case DataBundle.TYPE_CODE_LONG:
+                return r.readZigZagLong();
+            case DataBundle.TYPE_CODE_FLOAT:
+                return r.readFloat();
+            case DataBundle.TYPE_CODE_DOUBLE:
+                return r.readDouble();
+            case DataBundle.TYPE_CODE_STRING:
+                return r.readString();
+            case DataBundle.TYPE_CODE_BYTE_ARRAY:
+                return r.readByteArray();
+            case DataBundle.TYPE_CODE_INT_ARRAY:
+                return r.readIntArray();
+            case DataBundle.TYPE_CODE_LONG_ARRAY:
+                return r.readLongArray();
+            case DataBundle.TYPE_CODE_DOUBLE_ARRAY:
+                return r.readDoubleArray();
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DataBundleDelta
+ *
+ * The difference between two states of a DataBundle: keys which were
+ * added, keys whose value changed, and keys which were removed.
+ * <p>
+ * A delta is produced by DataBundle.diff() or, when change tracking is
+ * enabled, by DataBundle.takeDelta(), and is applied with
+ * DataBundle.applyDelta(). Values are held by reference.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public final class DataBundleDelta {
+    private final LinkedHashMap<String, Object> mAdded;
+    private final LinkedHashMap<String, Object> mChanged;
+    private final ArrayList<String> mRemoved;
+
+    DataBundleDelta() {
+        mAdded = new LinkedHashMap<String, Object>();
+        mChanged = new LinkedHashMap<String, Object>();
+        mRemoved = new ArrayList<String>();
+    }
+
+    void added(String key, Object value) {
+        mAdded.put(key, value);
+    }
+
+    void changed(String key, Object value) {
+        mChanged.put(key, value);
+    }
+
+    void removed(String key) {
+        mRemoved.add(key);
+    }
+
+    /**
+     * @return a read-only view of the keys and values which were added
+     */
+    public Map<String, Object> getAdded() {
+        return Collections.unmodifiableMap(mAdded);
+    }
+
+    /**
+     * @return a read-only view of the keys and new values which were changed
+     */
+    public Map<String, Object> getChanged() {
+        return Collections.unmodifiableMap(mChanged);
+    }
+
+    /**
+     * @return a read-only view of the keys which were removed
+     */
+    public List<String> getRemoved() {
+        return Collections.unmodifiableList(mRemoved);
+    }
+
+    /**
+     * @return true if this delta contains no changes
+     */
+    public boolean isEmpty() {
+        return mAdded.isEmpty() && mChanged.isEmpty() && mRemoved.isEmpty();
+    }
+
+    /**
+     * @return the total number of added, changed and removed keys
+     */
+    public int size() {
+        return mAdded.size() + mChanged.size() + mRemoved.size();
+    }
+
+    /**
+     * Encodes this delta. The added and changed sections use the entry
+     * encoding of DataBundleCodec, the removed section is a list of keys.
+     *
+     * @return the encoded bytes
+     */
+    public byte[] encode() {
+        BinaryWriter w = new BinaryWriter();
+        encode(w);
+        return w.toByteArray();
+    }
+
+    /**
+     * Appends the encoding of this delta to a BinaryWriter.
+     *
+     * @param w a BinaryWriter
+     */
+    public void encode(BinaryWriter w) {
+        writeEntries(mAdded, w);
+        writeEntries(mChanged, w);
+        w.writeVarInt(mRemoved.size());
+        for (String key : mRemoved) {
+            w.writeString(key);
+        }
+    }
+
+    /**
+     * Decodes a delta from the given bytes.
+     *
+     * @param data the encoded bytes
+     * @return a new DataBundleDelta
+     * @throws IOException if the data is malformed
+     */
+    public static DataBundleDelta decode(byte[] data) throws IOException {
+        return decode(new BinaryReader(data));
+    }
+
+    /**
+     * Decodes the next delta from a BinaryReader.
+     *
+     * @param r a BinaryReader
+     * @return a new DataBundleDelta
+     * @throws IOException if the data is malformed
+     */
+    public static DataBundleDelta decode(BinaryReader r) throws IOException {
+        DataBundleDelta ret = new DataBundleDelta();
+        readEntries(ret.mAdded, r);
+        readEntries(ret.mChanged, r);
+        int count = readCount(r);
+        for (int i = 0; i < count; i++) {
+            ret.mRemoved.add(r.readString());
+        }
+        return ret;
+    }
+
+    private static void writeEntries(Map<String, Object> entries, BinaryWriter w) {
+        w.writeVarInt(entries.size());
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            w.writeString(entry.getKey());
+            DataBundleCodec.writeValue(entry.getValue(), w);
+        }
+    }
+
+    private static void readEntries(Map<String, Object> entries, BinaryReader r) throws IOException {
+        int count = readCount(r);
+        for (int i = 0; i < count; i++) {
+            String key = r.readString();
+            entries.put(key, DataBundleCodec.readValue(r));
+        }
+    }
+
+    private static int readCount(BinaryReader r) throws IOException {
+        int count = r.readVarInt();
+        if (count < 0 || count > r.remaining()) {
+            throw new IOException("Malformed entry count " + count);
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "DataBundleDelta[added=" + mAdded.keySet()
+                + " changed=" + mChanged.keySet()
+                + " removed=" + mRemoved + "]";
+    }
+}
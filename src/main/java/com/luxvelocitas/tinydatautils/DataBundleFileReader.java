@@ -0,0 +1,329 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * DataBundleFileReader
+ *
+ * Reads a file written by DataBundleFileWriter, either in one pass or split
+ * into byte ranges which are decoded concurrently.
+ * <p>
+ * Each Split memory-maps its part of the file and decodes the records of
+ * every block, from the header or a sync entry to the next sync entry,
+ * which starts within its range. Together the splits of a file return each
+ * record exactly once. readParallel() decodes the splits on a thread pool
+ * and hands every DataBundle to a Handler.
+ * <p>
+ * A DataBundleFileReader is thread-safe, each Split should be read by one
+ * thread at a time.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public class DataBundleFileReader implements Closeable {
+    // Splits are kept small enough that a split and the rest of its last
+    // block always fit in one mapping
+    static final long MAX_SPLIT = 256L * 1024 * 1024;
+
+    private final File mFile;
+    private final RandomAccessFile mRaf;
+    private final FileChannel mChannel;
+    private final long mLength;
+    private final byte[] mSync;
+
+    /**
+     * Receives the DataBundles decoded by readParallel(), possibly from
+     * several threads at once.
+     */
+    public interface Handler {
+        void handle(DataBundle bundle) throws IOException;
+    }
+
+    /**
+     * Constructs a new DataBundleFileReader and reads the file header.
+     *
+     * @param file the file to read
+     * @throws IOException if the file cannot be opened or is not recognized
+     */
+    public DataBundleFileReader(File file) throws IOException {
+        mFile = file;
+        mRaf = new RandomAccessFile(file, "r");
+        mChannel = mRaf.getChannel();
+        try {
+            mLength = mChannel.size();
+            ByteBuffer header = ByteBuffer.allocate(DataBundleFileWriter.HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (mChannel.read(header, header.position()) < 0) {
+                    throw new IOException("Not a DataBundle file: " + file);
+                }
+            }
+            header.flip();
+            if (header.getInt() != DataBundleFileWriter.MAGIC) {
+                throw new IOException("Not a DataBundle file: " + file);
+            }
+            int version = header.get();
+            if (version != DataBundleFileWriter.VERSION) {
+                throw new IOException("Unsupported DataBundle file version " + version);
+            }
+            mSync = new byte[DataBundleFileWriter.SYNC_SIZE];
+            header.get(mSync);
+        }
+        catch (IOException e) {
+            mRaf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the length of the file in bytes
+     */
+    public long length() {
+        return mLength;
+    }
+
+    /**
+     * Splits the file into byte ranges of nearly equal length. More splits
+     * are returned if needed to keep each one below 256MB.
+     *
+     * @param parts the number of ranges wanted
+     * @return an array of Splits which together cover the file
+     */
+    public Split[] split(int parts) {
+        if (parts <= 0) {
+            throw new IllegalArgumentException("parts must be positive: " + parts);
+        }
+        long n = Math.max(parts, (mLength + MAX_SPLIT - 1) / MAX_SPLIT);
+        n = Math.max(1L, Math.min(n, mLength));
+        Split[] ret = new Split[(int) n];
+        long from = 0;
+        for (int i = 0; i < n; i++) {
+            long to = (i == n - 1) ? mLength : mLength * (i + 1) / n;
+            ret[i] = new Split(from, to);
+            from = to;
+        }
+        return ret;
+    }
+
+    /**
+     * Decodes the whole file on a pool of threads, in no particular order.
+     *
+     * @param threads the number of threads
+     * @param handler receives each DataBundle, and must be thread-safe
+     * @return the number of DataBundles read
+     * @throws IOException if the file is malformed or the handler throws
+     */
+    public long readParallel(int threads, final Handler handler) throws IOException {
+        // A few splits per thread even out the differences between them
+        Split[] splits = split(threads * 4);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "DataBundleFileReader-" + mFile.getName());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            ArrayList<Future<Long>> results = new ArrayList<Future<Long>>(splits.length);
+            for (final Split split : splits) {
+                results.add(pool.submit(new Callable<Long>() {
+                    public Long call() throws IOException {
+                        long ret = 0L;
+                        DataBundle bundle;
+                        while ((bundle = split.read()) != null) {
+                            handler.handle(bundle);
+                            ret++;
+                        }
+                        return ret;
+                    }
+                }));
+            }
+            long ret = 0L;
+            for (Future<Long> result : results) {
+                ret += result.get();
+            }
+            return ret;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted reading " + mFile);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Failed reading " + mFile + ": " + cause);
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Closes the file. Splits which are already mapped stay readable.
+     *
+     * @throws IOException if closing the file fails
+     */
+    public void close() throws IOException {
+        mRaf.close();
+    }
+
+    /**
+     * A byte range of the file, which reads the records of the blocks
+     * starting within it.
+     */
+    public final class Split {
+        private final long mStart;
+        private final long mEnd;
+        private MappedByteBuffer mBuffer;
+        private byte[] mScratch = new byte[256];
+        private boolean mDone;
+
+        Split(long start, long end) {
+            mStart = start;
+            mEnd = end;
+        }
+
+        public long getStart() {
+            return mStart;
+        }
+
+        public long getEnd() {
+            return mEnd;
+        }
+
+        /**
+         * Reads the next DataBundle of this split.
+         *
+         * @return a new DataBundle, or null at the end of the split
+         * @throws IOException if the file is malformed
+         */
+        public DataBundle read() throws IOException {
+            if (mDone) {
+                return null;
+            }
+            if (mBuffer == null && !open()) {
+                mDone = true;
+                return null;
+            }
+            ByteBuffer buf = mBuffer;
+            while (true) {
+                if (!buf.hasRemaining()) {
+                    checkEndOfFile();
+                    mDone = true;
+                    return null;
+                }
+                int entryStart = buf.position();
+                int len = readVarInt(buf);
+                if (len == 0) {
+                    // A sync entry ends this split's last block if it is past the range
+                    if (mStart + entryStart >= mEnd) {
+                        mDone = true;
+                        return null;
+                    }
+                    skipSync(buf);
+                    continue;
+                }
+                if (len < 0) {
+                    throw new IOException("Malformed record length at " + (mStart + entryStart));
+                }
+                if (len > buf.remaining()) {
+                    checkEndOfFile();
+                    throw new IOException("Record at " + (mStart + entryStart)
+                            + " extends beyond the mapped region");
+                }
+                if (mScratch.length < len) {
+                    mScratch = new byte[Math.max(len, mScratch.length * 2)];
+                }
+                buf.get(mScratch, 0, len);
+                return DataBundleCodec.decode(mScratch, 0, len);
+            }
+        }
+
+        // Map the range and the rest of the file after it, and move to
+        // the first block starting within the range
+        private boolean open() throws IOException {
+            long size = Math.min(mLength - mStart, Integer.MAX_VALUE);
+            mBuffer = mChannel.map(FileChannel.MapMode.READ_ONLY, mStart, size);
+            if (mStart == 0) {
+                mBuffer.position(DataBundleFileWriter.HEADER_SIZE);
+                return true;
+            }
+            int limit = (int) Math.min(mEnd - mStart, size);
+            int pos = findSync(mBuffer, limit);
+            if (pos < 0) {
+                return false;
+            }
+            mBuffer.position(pos + 1 + DataBundleFileWriter.SYNC_SIZE);
+            return true;
+        }
+
+        // The position of the first sync entry starting before limit, or -1
+        private int findSync(ByteBuffer buf, int limit) {
+            int last = buf.limit() - 1 - DataBundleFileWriter.SYNC_SIZE;
+            for (int i = 0, n = Math.min(limit, last + 1); i < n; i++) {
+                if (buf.get(i) == 0 && buf.get(i + 1) == mSync[0] && matchesSync(buf, i + 1)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean matchesSync(ByteBuffer buf, int pos) {
+            for (int i = 0; i < DataBundleFileWriter.SYNC_SIZE; i++) {
+                if (buf.get(pos + i) != mSync[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void skipSync(ByteBuffer buf) throws IOException {
+            if (buf.remaining() < DataBundleFileWriter.SYNC_SIZE || !matchesSync(buf, buf.position())) {
+                throw new IOException("Malformed sync entry at " + (mStart + buf.position() - 1));
+            }
+            buf.position(buf.position() + DataBundleFileWriter.SYNC_SIZE);
+        }
+
+        // The mapping is capped at 2GB, running off it before the end of
+        // the file means a record is too large rather than truncated
+        private void checkEndOfFile() throws IOException {
+            if (mStart + mBuffer.limit() < mLength) {
+                throw new IOException("Record too large to map at " + (mStart + mBuffer.position()));
+            }
+        }
+
+        private int readVarInt(ByteBuffer buf) throws IOException {
+            int ret = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (!buf.hasRemaining()) {
+                    checkEndOfFile();
+                    throw new EOFException("Truncated record length at " + (mStart + buf.position()));
+                }
+                byte b = buf.get();
+                ret |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return ret;
+                }
+            }
+            throw new IOException("Malformed record length at " + (mStart + buf.position()));
+        }
+    }
+}
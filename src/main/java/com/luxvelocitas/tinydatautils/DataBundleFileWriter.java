@@ -0,0 +1,123 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * DataBundleFileWriter
+ *
+ * Writes a file of DataBundles which DataBundleFileReader can split into
+ * ranges and decode in parallel.
+ * <p>
+ * The file starts with a header holding a random 16 byte sync marker, and
+ * continues with DataBundleCodec length-prefixed records. After about every
+ * syncInterval bytes a sync entry is written: a zero length followed by the
+ * sync marker. A reader can start anywhere in the file, scan forward to the
+ * next sync entry and decode records from there, since a record never has a
+ * length of zero.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public class DataBundleFileWriter implements Closeable, Flushable {
+    static final int MAGIC = 0x54444246; // "TDBF"
+    static final int VERSION = 1;
+    static final int SYNC_SIZE = 16;
+    static final int HEADER_SIZE = 4 + 1 + SYNC_SIZE;
+
+    public static final int DEFAULT_SYNC_INTERVAL = 1024 * 1024;
+
+    private final CountingOutputStream mOut;
+    private final int mSyncInterval;
+    private final byte[] mSync;
+    private final BinaryWriter mScratch;
+    private long mLastSync;
+    private boolean mClosed;
+
+    /**
+     * Constructs a new DataBundleFileWriter which creates or truncates the
+     * given file.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be opened or the header written
+     */
+    public DataBundleFileWriter(File file) throws IOException {
+        this(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024), DEFAULT_SYNC_INTERVAL);
+    }
+
+    /**
+     * Constructs a new DataBundleFileWriter.
+     *
+     * @param out the stream to write to, which should be buffered
+     * @param syncInterval the number of bytes after which a sync entry is
+     *     written, which bounds the amount of data a reader has to scan
+     * @throws IOException if writing the header fails
+     */
+    public DataBundleFileWriter(OutputStream out, int syncInterval) throws IOException {
+        if (syncInterval <= 0) {
+            throw new IllegalArgumentException("syncInterval must be positive: " + syncInterval);
+        }
+        mOut = new CountingOutputStream(out);
+        mSyncInterval = syncInterval;
+        mScratch = new BinaryWriter();
+
+        UUID uuid = UUID.randomUUID();
+        BinaryWriter header = new BinaryWriter(HEADER_SIZE);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeLong(uuid.getMostSignificantBits());
+        header.writeLong(uuid.getLeastSignificantBits());
+        mSync = new byte[SYNC_SIZE];
+        System.arraycopy(header.array(), 5, mSync, 0, SYNC_SIZE);
+        header.writeTo(mOut);
+        mLastSync = mOut.getCount();
+    }
+
+    /**
+     * Appends a DataBundle to the file.
+     *
+     * @param bundle a DataBundle
+     * @throws IOException if the stream throws
+     */
+    public void write(DataBundle bundle) throws IOException {
+        if (mClosed) {
+            throw new IOException("Writer closed");
+        }
+        if (mOut.getCount() - mLastSync >= mSyncInterval) {
+            mOut.write(0);
+            mOut.write(mSync, 0, SYNC_SIZE);
+            mLastSync = mOut.getCount();
+        }
+        DataBundleCodec.writeTo(bundle, mOut, mScratch);
+    }
+
+    /**
+     * @return the number of bytes written so far, including the header
+     */
+    public long getLength() {
+        return mOut.getCount();
+    }
+
+    public void flush() throws IOException {
+        mOut.flush();
+    }
+
+    /**
+     * Flushes and closes the underlying stream.
+     *
+     * @throws IOException if the stream throws
+     */
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mOut.close();
+    }
+}
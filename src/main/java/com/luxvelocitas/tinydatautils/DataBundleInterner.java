@@ -0,0 +1,127 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * DataBundleInterner
+ *
+ * Collapses DataBundles with equal content to one shared canonical
+ * instance, in the way that String.intern() does for Strings.
+ * <p>
+ * Canonical instances are only weakly referenced, so they are dropped once
+ * no caller holds them any more. Lookups use the content hash which
+ * DataBundle maintains as it is modified, so interning a DataBundle costs
+ * one hash lookup plus one content comparison on a match.
+ * <p>
+ * The table is split into independently locked shards by hash. Interned
+ * DataBundles are shared with callers and must not be modified.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public class DataBundleInterner {
+    private final WeakHashMap<DataBundle, WeakReference<DataBundle>>[] mShards;
+    private final int mShardMask;
+
+    private final StripedCounter mHits = new StripedCounter();
+    private final StripedCounter mMisses = new StripedCounter();
+
+    /**
+     * Constructs a new, empty DataBundleInterner.
+     */
+    public DataBundleInterner() {
+        this(StripedCounter.STRIPES * 4);
+    }
+
+    /**
+     * Constructs a new, empty DataBundleInterner.
+     *
+     * @param shards the number of shards, rounded up to a power of two
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public DataBundleInterner(int shards) {
+        int n = 1;
+        while (n < shards) {
+            n <<= 1;
+        }
+        mShards = new WeakHashMap[n];
+        for (int i = 0; i < n; i++) {
+            mShards[i] = new WeakHashMap<DataBundle, WeakReference<DataBundle>>();
+        }
+        mShardMask = n - 1;
+    }
+
+    /**
+     * Returns the canonical instance of the given DataBundle. If an equal
+     * DataBundle has been interned and is still referenced, it is returned,
+     * otherwise the given DataBundle becomes the canonical instance.
+     *
+     * @param bundle a DataBundle
+     * @return the canonical DataBundle equal to bundle
+     */
+    public DataBundle intern(DataBundle bundle) {
+        if (bundle == null) {
+            throw new NullPointerException("bundle");
+        }
+        WeakHashMap<DataBundle, WeakReference<DataBundle>> shard = shardFor(bundle.hashCode());
+        synchronized (shard) {
+            WeakReference<DataBundle> ref = shard.get(bundle);
+            DataBundle ret = (ref == null) ? null : ref.get();
+            if (ret != null) {
+                mHits.increment();
+                return ret;
+            }
+            // The value must not strongly refer to the key, or the
+            // entry would never be cleared
+            shard.put(bundle, new WeakReference<DataBundle>(bundle));
+            mMisses.increment();
+            return bundle;
+        }
+    }
+
+    /**
+     * @return the number of canonical instances which are still referenced
+     */
+    public int size() {
+        int ret = 0;
+        for (WeakHashMap<DataBundle, WeakReference<DataBundle>> shard : mShards) {
+            synchronized (shard) {
+                ret += shard.size();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Forgets all canonical instances. DataBundles interned before are not
+     * affected, but will not be returned by intern() again.
+     */
+    public void clear() {
+        for (WeakHashMap<DataBundle, WeakReference<DataBundle>> shard : mShards) {
+            synchronized (shard) {
+                shard.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the number of intern() calls which returned an existing instance
+     */
+    public long getHitCount() {
+        return mHits.sum();
+    }
+
+    /**
+     * @return the number of intern() calls which made a new canonical instance
+     */
+    public long getMissCount() {
+        return mMisses.sum();
+    }
+
+    private WeakHashMap<DataBundle, WeakReference<DataBundle>> shardFor(int hash) {
+        // WeakHashMap uses the low bits of the hash, so pick shards by the high bits
+        int h = hash * 0x9E3779B9;
+        return mShards[(h >>> 16) & mShardMask];
+    }
+}
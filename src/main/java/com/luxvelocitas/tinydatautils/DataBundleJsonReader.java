@@ -0,0 +1,405 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * DataBundleJsonReader
+ *
+ * Parses JSON objects into DataBundles, streaming from a Reader.
+ * <p>
+ * Types are inferred from the JSON values and mapped onto the typed put
+ * methods of DataBundle: true/false become booleans, integers become ints
+ * or, if they do not fit, longs, numbers with a fraction or exponent become
+ * doubles, strings become Strings, objects become nested DataBundles and null
+ * becomes a null value. Arrays of numbers become int[], long[] or double[]
+ * by the same rules, an empty array becomes an empty int[]. A null element
+ * makes the array a double[] and is read as NaN, which is how the writer
+ * represents NaN and infinite values. Arrays of other values are not supported.
+ * <p>
+ * A DataBundleJsonReader is not thread-safe.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public class DataBundleJsonReader {
+    private static final int MAX_DEPTH = 256;
+
+    private final Reader mIn;
+    private final char[] mBuf;
+    private int mPos;
+    private int mLimit;
+    private final StringBuilder mScratch = new StringBuilder();
+
+    // The result of the last readNumber()
+    private long mLong;
+    private double mDouble;
+
+    // Numeric array elements are collected here before being copied
+    private long[] mLongs = new long[16];
+    private double[] mDoubles = new double[16];
+
+    /**
+     * Parses a single JSON object from the given String.
+     *
+     * @param json a JSON String
+     * @return a new DataBundle
+     * @throws IOException if the JSON is malformed
+     */
+    public static DataBundle fromJson(String json) throws IOException {
+        return new DataBundleJsonReader(new StringReader(json)).read();
+    }
+
+    /**
+     * Constructs a new DataBundleJsonReader.
+     *
+     * @param in the Reader to parse from, buffering is done internally
+     */
+    public DataBundleJsonReader(Reader in) {
+        mIn = in;
+        mBuf = new char[8192];
+    }
+
+    /**
+     * Parses the next JSON object. Several objects may follow each other
+     * in the input, separated by whitespace.
+     *
+     * @return a new DataBundle, or null at the end of the input
+     * @throws IOException if the Reader throws or the JSON is malformed
+     */
+    public DataBundle read() throws IOException {
+        int c = skipWhitespace();
+        if (c < 0) {
+            return null;
+        }
+        expect('{');
+        return readObject(0);
+    }
+
+    // The opening brace has been consumed
+    private DataBundle readObject(int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw syntaxError("Objects nested too deeply");
+        }
+        DataBundle ret = new DataBundle();
+        if (skipWhitespace() == '}') {
+            mPos++;
+            return ret;
+        }
+        while (true) {
+            skipWhitespace();
+            expect('"');
+            String key = readString();
+            skipWhitespace();
+            expect(':');
+            readValue(ret, key, depth);
+            int c = skipWhitespace();
+            mPos++;
+            if (c == '}') {
+                return ret;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private void readValue(DataBundle bundle, String key, int depth) throws IOException {
+        int c = skipWhitespace();
+        switch (c) {
+            case '{':
+                mPos++;
+                bundle.putDataBundle(key, readObject(depth + 1));
+                break;
+            case '[':
+                mPos++;
+                readArray(bundle, key);
+                break;
+            case '"':
+                mPos++;
+                bundle.putString(key, readString());
+                break;
+            case 't':
+                readLiteral("true");
+                bundle.putBoolean(key, true);
+                break;
+            case 'f':
+                readLiteral("false");
+                bundle.putBoolean(key, false);
+                break;
+            case 'n':
+                readLiteral("null");
+                bundle.put(key, null);
+                break;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    if (readNumber()) {
+                        bundle.putDouble(key, mDouble);
+                    }
+                    else if (mLong == (int) mLong) {
+                        bundle.putInt(key, (int) mLong);
+                    }
+                    else {
+                        bundle.putLong(key, mLong);
+                    }
+                }
+                else {
+                    throw syntaxError("Unexpected character");
+                }
+        }
+    }
+
+    // The opening bracket has been consumed
+    private void readArray(DataBundle bundle, String key) throws IOException {
+        int n = 0;
+        boolean fractional = false;
+        boolean wide = false;
+        if (skipWhitespace() == ']') {
+            mPos++;
+        }
+        else {
+            while (true) {
+                int c = skipWhitespace();
+                boolean isDouble;
+                if (c == 'n') {
+                    // How DataBundleJsonWriter writes NaN and infinite elements
+                    readLiteral("null");
+                    mDouble = Double.NaN;
+                    isDouble = true;
+                }
+                else if (c == '-' || (c >= '0' && c <= '9')) {
+                    isDouble = readNumber();
+                }
+                else {
+                    throw syntaxError("Only arrays of numbers are supported");
+                }
+                if (n == mLongs.length) {
+                    growElements();
+                }
+                if (isDouble) {
+                    if (!fractional) {
+                        // Promote the elements read so far
+                        for (int i = 0; i < n; i++) {
+                            mDoubles[i] = mLongs[i];
+                        }
+                        fractional = true;
+                    }
+                    mDoubles[n] = mDouble;
+                }
+                else {
+                    if (fractional) {
+                        mDoubles[n] = mLong;
+                    }
+                    else {
+                        mLongs[n] = mLong;
+                    }
+                    wide |= (mLong != (int) mLong);
+                }
+                n++;
+                c = skipWhitespace();
+                mPos++;
+                if (c == ']') {
+                    break;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+            }
+        }
+        if (fractional) {
+            double[] a = new double[n];
+            System.arraycopy(mDoubles, 0, a, 0, n);
+            bundle.putDoubleArray(key, a);
+        }
+        else if (wide) {
+            long[] a = new long[n];
+            System.arraycopy(mLongs, 0, a, 0, n);
+            bundle.putLongArray(key, a);
+        }
+        else {
+            int[] a = new int[n];
+            for (int i = 0; i < n; i++) {
+                a[i] = (int) mLongs[i];
+            }
+            bundle.putIntArray(key, a);
+        }
+    }
+
+    private void growElements() {
+        long[] longs = new long[mLongs.length << 1];
+        double[] doubles = new double[mDoubles.length << 1];
+        System.arraycopy(mLongs, 0, longs, 0, mLongs.length);
+        System.arraycopy(mDoubles, 0, doubles, 0, mDoubles.length);
+        mLongs = longs;
+        mDoubles = doubles;
+    }
+
+    /**
+     * Reads a number into mLong or mDouble. Integers are accumulated
+     * directly, only numbers with a fraction or exponent, or integers which
+     * overflow a long, go through Double.parseDouble().
+     *
+     * @return true if the number was read as a double
+     */
+    private boolean readNumber() throws IOException {
+        mScratch.setLength(0);
+        boolean negative = false;
+        boolean overflow = false;
+        long value = 0L;
+        int c = peek();
+        if (c == '-') {
+            negative = true;
+            mScratch.append('-');
+            mPos++;
+            c = peek();
+        }
+        if (c < '0' || c > '9') {
+            throw syntaxError("Expected digit");
+        }
+        while (c >= '0' && c <= '9') {
+            int digit = c - '0';
+            // Accumulate negatively to cover Long.MIN_VALUE
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                overflow = true;
+            }
+            value = value * 10 - digit;
+            mScratch.append((char) c);
+            mPos++;
+            c = peek();
+        }
+        boolean isDouble = overflow;
+        if (c == '.' || c == 'e' || c == 'E') {
+            isDouble = true;
+            while (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-'
+                    || (c >= '0' && c <= '9')) {
+                mScratch.append((char) c);
+                mPos++;
+                c = peek();
+            }
+        }
+        if (isDouble) {
+            try {
+                mDouble = Double.parseDouble(mScratch.toString());
+            }
+            catch (NumberFormatException e) {
+                throw syntaxError("Malformed number " + mScratch);
+            }
+            return true;
+        }
+        if (!negative && value == Long.MIN_VALUE) {
+            mDouble = -(double) Long.MIN_VALUE;
+            return true;
+        }
+        mLong = negative ? value : -value;
+        return false;
+    }
+
+    // The opening quote has been consumed
+    private String readString() throws IOException {
+        StringBuilder sb = mScratch;
+        sb.setLength(0);
+        while (true) {
+            if (mPos == mLimit && !fill()) {
+                throw syntaxError("Unterminated string");
+            }
+            // Copy runs of plain characters straight from the buffer
+            int start = mPos;
+            while (mPos < mLimit) {
+                char c = mBuf[mPos];
+                if (c == '"' || c == '\\') {
+                    break;
+                }
+                mPos++;
+            }
+            sb.append(mBuf, start, mPos - start);
+            if (mPos == mLimit) {
+                continue;
+            }
+            char c = mBuf[mPos++];
+            if (c == '"') {
+                return sb.toString();
+            }
+            sb.append(readEscape());
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = next();
+        switch (c) {
+            case '"': return '"';
+            case '\\': return '\\';
+            case '/': return '/';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u': {
+                int v = 0;
+                for (int i = 0; i < 4; i++) {
+                    int d = Character.digit(next(), 16);
+                    if (d < 0) {
+                        throw syntaxError("Malformed unicode escape");
+                    }
+                    v = (v << 4) | d;
+                }
+                return (char) v;
+            }
+            default:
+                throw syntaxError("Malformed escape");
+        }
+    }
+
+    private void readLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (next() != literal.charAt(i)) {
+                throw syntaxError("Expected " + literal);
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (next() != expected) {
+            throw syntaxError("Expected '" + expected + "'");
+        }
+    }
+
+    // Returns the next non-whitespace character without consuming it, or -1
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                mPos++;
+            }
+            else {
+                return c;
+            }
+        }
+    }
+
+    private int peek() throws IOException {
+        if (mPos == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuf[mPos];
+    }
+
+    private int next() throws IOException {
+        if (mPos == mLimit && !fill()) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return mBuf[mPos++];
+    }
+
+    private boolean fill() throws IOException {
+        int n = mIn.read(mBuf, 0, mBuf.length);
+        mPos = 0;
+        mLimit = Math.max(n, 0);
+        return n > 0;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message);
+    }
+}
@@ -0,0 +1,413 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * DataBundleJsonWriter
+ *
+ * Writes DataBundles as JSON objects directly to an Appendable, a Writer
+ * or a ByteBuffer (as UTF-8), without building intermediate Strings.
+ * <p>
+ * Booleans, integral and floating point values are written as JSON literals
+ * and numbers, floating point values always with a fraction or exponent so
+ * that they are read back as doubles. Chars, Strings and CharSequences are
+ * written as JSON strings, nested DataBundles as JSON objects and primitive
+ * arrays as JSON arrays. NaN and infinite values have no JSON representation
+ * and are written as null, which DataBundleJsonReader reads back as NaN
+ * within an array. JSON has no null member name, so a DataBundle
+ * with a null key cannot be written.
+ * <p>
+ * Integral values are formatted into a scratch buffer without allocating.
+ * Non-integral floats are formatted with Float.toString() and doubles with
+ * Double.toString(), so that each is written with the digits of its own
+ * precision.
+ * <p>
+ * A DataBundleJsonWriter is not thread-safe, but can be reused.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public class DataBundleJsonWriter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Largest magnitude for which every integral double is exact
+    private static final double MAX_EXACT_DOUBLE = 9007199254740992.0;
+
+    private final char[] mScratch = new char[24];
+
+    /**
+     * Returns the JSON representation of the given DataBundle.
+     *
+     * @param bundle a DataBundle
+     * @return a JSON String
+     */
+    public static String toJson(DataBundle bundle) {
+        StringBuilder sb = new StringBuilder(16 * bundle.size() + 2);
+        try {
+            new DataBundleJsonWriter().write(bundle, sb);
+        }
+        catch (IOException e) {
+            // StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the given DataBundle as a JSON object.
+     *
+     * @param bundle a DataBundle
+     * @param out an Appendable, such as a Writer or StringBuilder
+     * @throws IOException if the Appendable throws
+     */
+    public void write(DataBundle bundle, Appendable out) throws IOException {
+        Sink sink;
+        if (out instanceof Writer) {
+            sink = new WriterSink((Writer) out);
+        }
+        else if (out instanceof StringBuilder) {
+            sink = new StringBuilderSink((StringBuilder) out);
+        }
+        else {
+            sink = new AppendableSink(out);
+        }
+        writeBundle(bundle, sink);
+    }
+
+    /**
+     * Writes the given DataBundle as a UTF-8 encoded JSON object.
+     *
+     * @param bundle a DataBundle
+     * @param out a ByteBuffer
+     * @throws java.nio.BufferOverflowException if the buffer is too small
+     */
+    public void write(DataBundle bundle, ByteBuffer out) {
+        try {
+            writeBundle(bundle, new ByteBufferSink(out));
+        }
+        catch (IOException e) {
+            // ByteBufferSink does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeBundle(DataBundle bundle, Sink out) throws IOException {
+        out.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : bundle.entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            if (entry.getKey() == null) {
+                throw new IllegalArgumentException("Cannot write a null key as JSON");
+            }
+            writeString(entry.getKey(), out);
+            out.append(':');
+            writeValue(entry.getValue(), out);
+        }
+        out.append('}');
+    }
+
+    private void writeValue(Object value, Sink out) throws IOException {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        switch (DataBundle.typeCodeOf(value)) {
+            case DataBundle.TYPE_CODE_BOOLEAN:
+                out.append(((Boolean) value) ? "true" : "false");
+                break;
+            case DataBundle.TYPE_CODE_BYTE:
+            case DataBundle.TYPE_CODE_SHORT:
+            case DataBundle.TYPE_CODE_INT:
+            case DataBundle.TYPE_CODE_LONG:
+                writeLong(((Number) value).longValue(), out);
+                break;
+            case DataBundle.TYPE_CODE_FLOAT:
+                writeFloat((Float) value, out);
+                break;
+            case DataBundle.TYPE_CODE_DOUBLE:
+                writeDouble((Double) value, out);
+                break;
+            case DataBundle.TYPE_CODE_CHAR:
+                writeString(String.valueOf((char) (Character) value), out);
+                break;
+            case DataBundle.TYPE_CODE_STRING:
+                writeString((String) value, out);
+                break;
+            case DataBundle.TYPE_CODE_BYTE_ARRAY: {
+                byte[] a = (byte[]) value;
+                out.append('[');
+                for (int i = 0; i < a.length; i++) {
+                    if (i > 0) out.append(',');
+                    writeLong(a[i], out);
+                }
+                out.append(']');
+                break;
+            }
+            case DataBundle.TYPE_CODE_INT_ARRAY: {
+                int[] a = (int[]) value;
+                out.append('[');
+                for (int i = 0; i < a.length; i++) {
+                    if (i > 0) out.append(',');
+                    writeLong(a[i], out);
+                }
+                out.append(']');
+                break;
+            }
+            case DataBundle.TYPE_CODE_LONG_ARRAY: {
+                long[] a = (long[]) value;
+                out.append('[');
+                for (int i = 0; i < a.length; i++) {
+                    if (i > 0) out.append(',');
+                    writeLong(a[i], out);
+                }
+                out.append(']');
+                break;
+            }
+            case DataBundle.TYPE_CODE_DOUBLE_ARRAY: {
+                double[] a = (double[]) value;
+                out.append('[');
+                for (int i = 0; i < a.length; i++) {
+                    if (i > 0) out.append(',');
+                    writeDouble(a[i], out);
+                }
+                out.append(']');
+                break;
+            }
+            default:
+                if (value instanceof DataBundle) {
+                    writeBundle((DataBundle) value, out);
+                }
+                else if (value instanceof CharSequence) {
+                    writeString((CharSequence) value, out);
+                }
+                else {
+                    throw new IllegalArgumentException("Cannot write value of type "
+                            + value.getClass().getName() + " as JSON");
+                }
+        }
+    }
+
+    // Format the digits right-aligned in the scratch buffer
+    private void writeLong(long v, Sink out) throws IOException {
+        if (v == Long.MIN_VALUE) {
+            out.append("-9223372036854775808");
+            return;
+        }
+        char[] buf = mScratch;
+        int pos = buf.length;
+        boolean negative = v < 0;
+        if (negative) {
+            v = -v;
+        }
+        do {
+            buf[--pos] = (char) ('0' + (int) (v % 10));
+            v /= 10;
+        } while (v != 0);
+        if (negative) {
+            buf[--pos] = '-';
+        }
+        out.append(buf, pos, buf.length - pos);
+    }
+
+    private void writeDouble(double v, Sink out) throws IOException {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            out.append("null");
+        }
+        else if (v == Math.rint(v) && Math.abs(v) < MAX_EXACT_DOUBLE
+                && !(v == 0.0 && Double.doubleToRawLongBits(v) != 0L)) {
+            writeLong((long) v, out);
+            out.append(".0");
+        }
+        else {
+            out.append(Double.toString(v));
+        }
+    }
+
+    // Widening to double would write the float's binary error as digits,
+    // e.g. 1.1f as 1.100000023841858
+    private void writeFloat(float v, Sink out) throws IOException {
+        if (v == Math.rint(v) || Float.isNaN(v) || Float.isInfinite(v)) {
+            writeDouble(v, out);
+        }
+        else {
+            out.append(Float.toString(v));
+        }
+    }
+
+    private void writeString(CharSequence s, Sink out) throws IOException {
+        out.append('"');
+        int len = s.length();
+        int run = 0;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.append(s, run, i);
+            run = i + 1;
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                case '\b': out.append("\\b"); break;
+                case '\f': out.append("\\f"); break;
+                default:
+                    out.append("\\u00");
+                    out.append(HEX[c >> 4]);
+                    out.append(HEX[c & 0xF]);
+            }
+        }
+        out.append(s, run, len);
+        out.append('"');
+    }
+
+    /**
+     * The output primitives used by the writer, implemented for each
+     * supported destination to avoid intermediate copies.
+     */
+    abstract static class Sink {
+        abstract void append(char c) throws IOException;
+
+        abstract void append(char[] buf, int off, int len) throws IOException;
+
+        abstract void append(CharSequence s, int start, int end) throws IOException;
+
+        void append(String s) throws IOException {
+            append(s, 0, s.length());
+        }
+    }
+
+    static final class WriterSink extends Sink {
+        private final Writer mOut;
+
+        WriterSink(Writer out) {
+            mOut = out;
+        }
+
+        void append(char c) throws IOException {
+            mOut.write(c);
+        }
+
+        void append(char[] buf, int off, int len) throws IOException {
+            mOut.write(buf, off, len);
+        }
+
+        void append(CharSequence s, int start, int end) throws IOException {
+            if (s instanceof String) {
+                mOut.write((String) s, start, end - start);
+            }
+            else {
+                for (int i = start; i < end; i++) {
+                    mOut.write(s.charAt(i));
+                }
+            }
+        }
+    }
+
+    static final class StringBuilderSink extends Sink {
+        private final StringBuilder mOut;
+
+        StringBuilderSink(StringBuilder out) {
+            mOut = out;
+        }
+
+        void append(char c) {
+            mOut.append(c);
+        }
+
+        void append(char[] buf, int off, int len) {
+            mOut.append(buf, off, len);
+        }
+
+        void append(CharSequence s, int start, int end) {
+            mOut.append(s, start, end);
+        }
+    }
+
+    static final class AppendableSink extends Sink {
+        private final Appendable mOut;
+
+        AppendableSink(Appendable out) {
+            mOut = out;
+        }
+
+        void append(char c) throws IOException {
+            mOut.append(c);
+        }
+
+        void append(char[] buf, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                mOut.append(buf[i]);
+            }
+        }
+
+        void append(CharSequence s, int start, int end) throws IOException {
+            mOut.append(s, start, end);
+        }
+    }
+
+    // Encodes chars as UTF-8, combining surrogate pairs
+    static final class ByteBufferSink extends Sink {
+        private final ByteBuffer mOut;
+        private char mHighSurrogate;
+
+        ByteBufferSink(ByteBuffer out) {
+            mOut = out;
+        }
+
+        void append(char c) {
+            if (mHighSurrogate != 0 && !Character.isLowSurrogate(c)) {
+                // Unpaired surrogate
+                mHighSurrogate = 0;
+                mOut.put((byte) '?');
+            }
+            if (c < 0x80) {
+                mOut.put((byte) c);
+            }
+            else if (c < 0x800) {
+                mOut.put((byte) (0xC0 | (c >> 6)));
+                mOut.put((byte) (0x80 | (c & 0x3F)));
+            }
+            else if (Character.isHighSurrogate(c)) {
+                mHighSurrogate = c;
+            }
+            else if (Character.isLowSurrogate(c) && mHighSurrogate != 0) {
+                int cp = Character.toCodePoint(mHighSurrogate, c);
+                mHighSurrogate = 0;
+                mOut.put((byte) (0xF0 | (cp >> 18)));
+                mOut.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                mOut.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                mOut.put((byte) (0x80 | (cp & 0x3F)));
+            }
+            else if (Character.isLowSurrogate(c)) {
+                // Unpaired surrogate
+                mOut.put((byte) '?');
+            }
+            else {
+                mOut.put((byte) (0xE0 | (c >> 12)));
+                mOut.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                mOut.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+
+        void append(char[] buf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                append(buf[i]);
+            }
+        }
+
+        void append(CharSequence s, int start, int end) {
+            for (int i = start; i < end; i++) {
+                append(s.charAt(i));
+            }
+        }
+    }
+}
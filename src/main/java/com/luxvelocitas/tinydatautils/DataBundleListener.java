@@ -0,0 +1,17 @@
+package com.luxvelocitas.tinydatautils;
+
+/**
+ * Receives batches of changes made to a DataBundle, see
+ * DataBundle.addChangeListener().
+ */
+public interface DataBundleListener {
+    /**
+     * Called on the listener's Executor with the changes made since the
+     * previous call. Changes to the same key are coalesced, so only the
+     * latest value of each key is reported.
+     *
+     * @param bundle the DataBundle which changed
+     * @param changes the added, changed and removed keys, never empty
+     */
+    void onChanged(DataBundle bundle, DataBundleDelta changes);
+}
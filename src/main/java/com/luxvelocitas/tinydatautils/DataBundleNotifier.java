@@ -0,0 +1,170 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Collects the changes made to a DataBundle and delivers them in batches to
+ * its DataBundleListeners.
+ * <p>
+ * Each listener has its own pending batch, and at most one delivery queued
+ * or running on its Executor. Changes made while a delivery is pending are
+ * merged into the next batch, so a burst of changes, or a slow listener,
+ * results in a few large batches rather than many small ones, and the
+ * pending state never grows beyond one entry per key.
+ */
+final class DataBundleNotifier {
+    // Marks a removed key in a pending batch
+    static final Object REMOVED = new Object();
+
+    private static ExecutorService sDefaultExecutor;
+
+    private final DataBundle mBundle;
+    private final CopyOnWriteArrayList<Subscription> mSubscriptions;
+
+    DataBundleNotifier(DataBundle bundle) {
+        mBundle = bundle;
+        mSubscriptions = new CopyOnWriteArrayList<Subscription>();
+    }
+
+    static synchronized Executor defaultExecutor() {
+        if (sDefaultExecutor == null) {
+            sDefaultExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "DataBundle-notifier");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return sDefaultExecutor;
+    }
+
+    void add(DataBundleListener listener, Executor executor) {
+        mSubscriptions.add(new Subscription(listener, executor));
+    }
+
+    /**
+     * @return true if the listener was registered
+     */
+    boolean remove(DataBundleListener listener) {
+        for (Subscription s : mSubscriptions) {
+            if (s.mListener == listener) {
+                return mSubscriptions.remove(s);
+            }
+        }
+        return false;
+    }
+
+    boolean isEmpty() {
+        return mSubscriptions.isEmpty();
+    }
+
+    /**
+     * Records a change to a key.
+     *
+     * @param key the key
+     * @param value the new value, or REMOVED
+     * @param existed true if the key was present before the change
+     */
+    void changed(String key, Object value, boolean existed) {
+        for (Subscription s : mSubscriptions) {
+            s.record(key, value, existed);
+        }
+    }
+
+    private final class Subscription implements Runnable {
+        private final DataBundleListener mListener;
+        private final Executor mExecutor;
+
+        // Guarded by this
+        private LinkedHashMap<String, Object> mPending = new LinkedHashMap<String, Object>();
+        private HashMap<String, Boolean> mExisted = new HashMap<String, Boolean>();
+        private boolean mScheduled;
+
+        Subscription(DataBundleListener listener, Executor executor) {
+            mListener = listener;
+            mExecutor = executor;
+        }
+
+        void record(String key, Object value, boolean existed) {
+            synchronized (this) {
+                // Whether the key existed before the first change in the batch
+                if (!mExisted.containsKey(key)) {
+                    mExisted.put(key, existed);
+                }
+                mPending.put(key, value);
+                if (mScheduled) {
+                    return;
+                }
+                mScheduled = true;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            try {
+                mExecutor.execute(this);
+            }
+            catch (RejectedExecutionException e) {
+                // Keep the batch, delivery is attempted again on the next change
+                synchronized (this) {
+                    mScheduled = false;
+                }
+            }
+        }
+
+        public void run() {
+            LinkedHashMap<String, Object> pending;
+            HashMap<String, Boolean> existed;
+            synchronized (this) {
+                pending = mPending;
+                existed = mExisted;
+                mPending = new LinkedHashMap<String, Object>();
+                mExisted = new HashMap<String, Boolean>();
+            }
+            DataBundleDelta delta = new DataBundleDelta();
+            for (Map.Entry<String, Object> entry : pending.entrySet()) {
+                String key = entry.getKey();
+                boolean before = existed.get(key);
+                if (entry.getValue() == REMOVED) {
+                    if (before) {
+                        delta.removed(key);
+                    }
+                }
+                else if (before) {
+                    delta.changed(key, entry.getValue());
+                }
+                else {
+                    delta.added(key, entry.getValue());
+                }
+            }
+            try {
+                if (!delta.isEmpty() && mSubscriptions.contains(this)) {
+                    mListener.onChanged(mBundle, delta);
+                }
+            }
+            catch (RuntimeException e) {
+                /*[FIXME: logging]*/
+                System.err.println("DataBundleListener " + mListener + " threw: " + e);
+            }
+            finally {
+                boolean again;
+                synchronized (this) {
+                    again = !mPending.isEmpty();
+                    mScheduled = again;
+                }
+                if (again) {
+                    schedule();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * DataBundlePath
+ *
+ * A path through nested DataBundles, such as "device.sensor.temp", which is
+ * parsed once and can then be evaluated against many DataBundles.
+ * <p>
+ * Evaluating a path walks the intermediate DataBundles directly, without
+ * the statistics, casts and type warnings of chained getBundle() calls, and
+ * then reads the last key with the typed getter of the innermost DataBundle,
+ * so the result and any type warning are the same as for the chained calls.
+ * A path which runs into a missing value or a value which is not a
+ * DataBundle resolves to the default value.
+ * <p>
+ * A DataBundlePath is immutable and can be shared between threads.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public final class DataBundlePath {
+    public static final char SEPARATOR = '.';
+
+    private final String[] mKeys;
+    private final String mLeaf;
+
+    private DataBundlePath(String[] keys) {
+        mKeys = keys;
+        mLeaf = keys[keys.length - 1];
+    }
+
+    /**
+     * Parses a path of keys separated by dots.
+     *
+     * @param path a path such as "device.sensor.temp"
+     * @return a new DataBundlePath
+     * @throws IllegalArgumentException if the path or any of its keys is empty
+     */
+    public static DataBundlePath compile(String path) {
+        ArrayList<String> keys = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i <= path.length(); i++) {
+            if (i == path.length() || path.charAt(i) == SEPARATOR) {
+                if (i == start) {
+                    throw new IllegalArgumentException("Empty key in path: \"" + path + "\"");
+                }
+                keys.add(path.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return new DataBundlePath(keys.toArray(new String[keys.size()]));
+    }
+
+    /**
+     * Builds a path from the given keys, which may themselves contain dots.
+     *
+     * @param keys one or more keys
+     * @return a new DataBundlePath
+     * @throws IllegalArgumentException if there are no keys or any key is null
+     */
+    public static DataBundlePath of(String... keys) {
+        if (keys.length == 0) {
+            throw new IllegalArgumentException("Empty path");
+        }
+        for (String key : keys) {
+            if (key == null) {
+                throw new IllegalArgumentException("Null key in path");
+            }
+        }
+        return new DataBundlePath(keys.clone());
+    }
+
+    /**
+     * @return the number of keys in this path
+     */
+    public int length() {
+        return mKeys.length;
+    }
+
+    /**
+     * @param index the index of a key
+     * @return the key at the given index
+     */
+    public String getKey(int index) {
+        return mKeys[index];
+    }
+
+    /**
+     * Returns the DataBundle which holds the last key of this path.
+     *
+     * @param bundle a DataBundle, or null
+     * @return the innermost DataBundle, or null if the path does not resolve
+     */
+    public DataBundle getParent(DataBundle bundle) {
+        for (int i = 0; i < mKeys.length - 1 && bundle != null; i++) {
+            Object o = bundle.lookup(mKeys[i]);
+            bundle = (o instanceof DataBundle) ? (DataBundle) o : null;
+        }
+        return bundle;
+    }
+
+    /**
+     * @param bundle a DataBundle, or null
+     * @return true if the path resolves to a key which is present
+     */
+    public boolean exists(DataBundle bundle) {
+        DataBundle parent = getParent(bundle);
+        return parent != null && parent.containsKey(mLeaf);
+    }
+
+    /**
+     * Returns the value at this path as an object.
+     *
+     * @param bundle a DataBundle, or null
+     * @return an Object, or null if the path does not resolve
+     */
+    public Object get(DataBundle bundle) {
+        DataBundle parent = getParent(bundle);
+        return (parent == null) ? null : parent.get(mLeaf);
+    }
+
+    /**
+     * Returns the value at this path, or defaultValue if the path does not
+     * resolve or no mapping of the desired type exists for the last key.
+     *
+     * @param bundle a DataBundle, or null
+     * @param defaultValue Value to return if the path does not resolve
+     * @return a boolean value
+     */
+    public boolean getBoolean(DataBundle bundle, boolean defaultValue) {
+        DataBundle parent = getParent(bundle);
+        return (parent == null) ? defaultValue : parent.getBoolean(mLeaf, defaultValue);
+    }
+
+    /**
+     * Returns the value at this path, or 0 if the path does not resolve
+     * or no mapping of the desired type exists for the last key.
+     *
+     * @param bundle a DataBundle, or null
+     * @return an int value
+     */
+    public int getInt(DataBundle bundle) {
+        return getInt(bundle, 0);
+    }
+
+    /**
+     * Returns the value at this path, or defaultValue if the path does not
+     * resolve or no mapping of the desired type exists for the last key.
+     *
+     * @param bundle a DataBundle, or null
+     * @param defaultValue Value to return if the path does not resolve
+     * @return an int value
+     */
+    public int getInt(DataBundle bundle, int defaultValue) {
+        DataBundle parent = getParent(bundle);
+        return (parent == null) ? defaultValue : parent.getInt(mLeaf, defaultValue);
+    }
+
+    /**
+     * Returns the value at this path, or 0L if the path does not resolve
+     * or no mapping of the desired type exists for the last key.
+     *
+     * @param bundle a DataBundle, or null
+     * @return a long value
+     */
+    public long getLong(DataBundle bundle) {
+        return getLong(bundle, 0L);
+    }
+
+    /**
+     * Returns the value at this path, or defaultValue if the path does not
+     * resolve or no mapping of the desired type exists for the last key.
+     *
+     * @param bundle a DataBundle, or null
+     * @param defaultValue Value to return if the path does not resolve
+     * @return a long value
+     */
+    public long getLong(DataBundle bundle, long defaultValue) {
+        DataBundle parent = getParent(bundle);
+        return (parent == null) ? defaultValue : parent.getLong(mLeaf, defaultValue);
+    }
+
+    /**
+     * Returns the value at this path, or 0.0 if the path does not resolve
+     * or no mapping of the desired type exists for the last key.
+     *
+     * @param bundle a DataBundle, or null
+     * @return a double value
+     */
+    public double getDouble(DataBundle bundle) {
+        return getDouble(bundle, 0.0);
+    }
+
+    /**
+     * Returns the value at this path, or defaultValue if the path does not
+     * resolve or no mapping of the desired type exists for the last key.
+     *
+     * @param bundle a DataBundle, or null
+     * @param defaultValue Value to return if the path does not resolve
+     * @return a double value
+     */
+    public double getDouble(DataBundle bundle, double defaultValue) {
+        DataBundle parent = getParent(bundle);
+        return (parent == null) ? defaultValue : parent.getDouble(mLeaf, defaultValue);
+    }
+
+    /**
+     * Returns the value at this path, or null if the path does not resolve
+     * or no mapping of the desired type exists for the last key.
+     *
+     * @param bundle a DataBundle, or null
+     * @return a String value, or null
+     */
+    public String getString(DataBundle bundle) {
+        DataBundle parent = getParent(bundle);
+        return (parent == null) ? null : parent.getString(mLeaf);
+    }
+
+    /**
+     * Returns the DataBundle at this path, or null if the path does not
+     * resolve or no DataBundle is mapped to the last key.
+     *
+     * @param bundle a DataBundle, or null
+     * @return a DataBundle value, or null
+     */
+    public DataBundle getBundle(DataBundle bundle) {
+        DataBundle parent = getParent(bundle);
+        return (parent == null) ? null : parent.getBundle(mLeaf);
+    }
+
+    /**
+     * Evaluates this path against each of the given DataBundles.
+     *
+     * @param bundles an array of DataBundles, elements may be null
+     * @param defaultValue the value for bundles where the path does not resolve
+     * @param dest an array at least as long as bundles, or null to allocate one
+     * @return dest, holding the value for each bundle
+     */
+    public int[] getInts(DataBundle[] bundles, int defaultValue, int[] dest) {
+        if (dest == null) {
+            dest = new int[bundles.length];
+        }
+        for (int i = 0; i < bundles.length; i++) {
+            dest[i] = getInt(bundles[i], defaultValue);
+        }
+        return dest;
+    }
+
+    /**
+     * Evaluates this path against each of the given DataBundles.
+     *
+     * @param bundles an array of DataBundles, elements may be null
+     * @param defaultValue the value for bundles where the path does not resolve
+     * @param dest an array at least as long as bundles, or null to allocate one
+     * @return dest, holding the value for each bundle
+     */
+    public long[] getLongs(DataBundle[] bundles, long defaultValue, long[] dest) {
+        if (dest == null) {
+            dest = new long[bundles.length];
+        }
+        for (int i = 0; i < bundles.length; i++) {
+            dest[i] = getLong(bundles[i], defaultValue);
+        }
+        return dest;
+    }
+
+    /**
+     * Evaluates this path against each of the given DataBundles.
+     *
+     * @param bundles an array of DataBundles, elements may be null
+     * @param defaultValue the value for bundles where the path does not resolve
+     * @param dest an array at least as long as bundles, or null to allocate one
+     * @return dest, holding the value for each bundle
+     */
+    public double[] getDoubles(DataBundle[] bundles, double defaultValue, double[] dest) {
+        if (dest == null) {
+            dest = new double[bundles.length];
+        }
+        for (int i = 0; i < bundles.length; i++) {
+            dest[i] = getDouble(bundles[i], defaultValue);
+        }
+        return dest;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof DataBundlePath) && Arrays.equals(mKeys, ((DataBundlePath) o).mKeys);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mKeys);
+    }
+
+    /**
+     * @return the keys of this path joined with dots
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mKeys.length; i++) {
+            if (i > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(mKeys[i]);
+        }
+        return sb.toString();
+    }
+}
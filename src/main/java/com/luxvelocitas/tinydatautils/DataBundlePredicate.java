@@ -0,0 +1,562 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * DataBundlePredicate
+ *
+ * A condition on the values of a DataBundle, usually compiled from an
+ * expression such as:
+ * <pre>
+ *     temp &gt; 30 &amp;&amp; name == "x" || !(device.active)
+ * </pre>
+ * An expression compares keys, or dotted paths into nested DataBundles,
+ * with literals using ==, !=, &lt;, &lt;=, &gt; and &gt;=, and combines the
+ * comparisons with &amp;&amp;, || and !, grouped by parentheses. Literals
+ * are integers, decimals, double quoted strings, true, false and null. A key
+ * on its own tests that a Boolean value is true.
+ * <p>
+ * Each comparison is compiled to a node specialized for the type of its
+ * literal, holding the literal unboxed and the key as a DataBundlePath.
+ * Integral values are compared as longs and floating point values as
+ * doubles. A comparison with a missing value, or a value of another type,
+ * is false, except that "key == null" is true for a missing or null value
+ * and "key != null" is its negation.
+ * <p>
+ * Compiled with a StringDictionary, string literals found in the dictionary
+ * are replaced by its canonical instances, so that comparisons with values
+ * canonicalized by the same dictionary are decided by reference. Values
+ * which are not canonical, for example those stored before the dictionary
+ * was set, are still compared by their characters.
+ * <p>
+ * DataBundlePredicates are immutable and can be shared between threads.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public abstract class DataBundlePredicate {
+    static final int EQ = 0;
+    static final int NE = 1;
+    static final int LT = 2;
+    static final int LE = 3;
+    static final int GT = 4;
+    static final int GE = 5;
+
+    private static final String[] OPERATORS = { "==", "!=", "<", "<=", ">", ">=" };
+
+    DataBundlePredicate() { }
+
+    /**
+     * @param bundle a DataBundle, or null
+     * @return true if the DataBundle satisfies this predicate
+     */
+    public abstract boolean test(DataBundle bundle);
+
+    /**
+     * Evaluates this predicate for each of the given DataBundles.
+     *
+     * @param bundles an array of DataBundles, elements may be null
+     * @return a BitSet with bit i set if bundles[i] satisfies this predicate
+     */
+    public BitSet filter(DataBundle[] bundles) {
+        BitSet ret = new BitSet(bundles.length);
+        for (int i = 0; i < bundles.length; i++) {
+            if (test(bundles[i])) {
+                ret.set(i);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Evaluates this predicate for each of the given DataBundles.
+     *
+     * @param bundles a List of DataBundles, elements may be null
+     * @return a BitSet with bit i set if the bundle at index i satisfies this predicate
+     */
+    public BitSet filter(List<? extends DataBundle> bundles) {
+        BitSet ret = new BitSet(bundles.size());
+        int i = 0;
+        for (DataBundle bundle : bundles) {
+            if (test(bundle)) {
+                ret.set(i);
+            }
+            i++;
+        }
+        return ret;
+    }
+
+    /**
+     * Compiles an expression into a DataBundlePredicate.
+     *
+     * @param expression an expression
+     * @return a new DataBundlePredicate
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    public static DataBundlePredicate compile(String expression) {
+        return compile(expression, null);
+    }
+
+    /**
+     * Compiles an expression into a DataBundlePredicate, using the canonical
+     * instances of string literals found in the given dictionary. Literals
+     * are looked up but not added.
+     *
+     * @param expression an expression
+     * @param dictionary the StringDictionary of the DataBundles to be tested, or null
+     * @return a new DataBundlePredicate
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    public static DataBundlePredicate compile(String expression, StringDictionary dictionary) {
+        Parser parser = new Parser(expression, dictionary);
+        DataBundlePredicate ret = parser.parseOr();
+        parser.skipSpace();
+        if (parser.mPos < expression.length()) {
+            throw parser.error("Unexpected input");
+        }
+        return ret;
+    }
+
+    static boolean holds(int op, int cmp) {
+        switch (op) {
+            case EQ: return cmp == 0;
+            case NE: return cmp != 0;
+            case LT: return cmp < 0;
+            case LE: return cmp <= 0;
+            case GT: return cmp > 0;
+            default: return cmp >= 0;
+        }
+    }
+
+    // The value at the path, or null if it is missing
+    static Object valueAt(DataBundlePath path, DataBundle bundle) {
+        DataBundle parent = path.getParent(bundle);
+        return (parent == null) ? null : parent.lookup(path.getKey(path.length() - 1));
+    }
+
+    private static final class And extends DataBundlePredicate {
+        private final DataBundlePredicate mLeft;
+        private final DataBundlePredicate mRight;
+
+        And(DataBundlePredicate left, DataBundlePredicate right) {
+            mLeft = left;
+            mRight = right;
+        }
+
+        @Override
+        public boolean test(DataBundle bundle) {
+            return mLeft.test(bundle) && mRight.test(bundle);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + mLeft + " && " + mRight + ")";
+        }
+    }
+
+    private static final class Or extends DataBundlePredicate {
+        private final DataBundlePredicate mLeft;
+        private final DataBundlePredicate mRight;
+
+        Or(DataBundlePredicate left, DataBundlePredicate right) {
+            mLeft = left;
+            mRight = right;
+        }
+
+        @Override
+        public boolean test(DataBundle bundle) {
+            return mLeft.test(bundle) || mRight.test(bundle);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + mLeft + " || " + mRight + ")";
+        }
+    }
+
+    private static final class Not extends DataBundlePredicate {
+        private final DataBundlePredicate mOperand;
+
+        Not(DataBundlePredicate operand) {
+            mOperand = operand;
+        }
+
+        @Override
+        public boolean test(DataBundle bundle) {
+            return !mOperand.test(bundle);
+        }
+
+        @Override
+        public String toString() {
+            return "!" + mOperand;
+        }
+    }
+
+    private static final class Constant extends DataBundlePredicate {
+        private final boolean mValue;
+
+        Constant(boolean value) {
+            mValue = value;
+        }
+
+        @Override
+        public boolean test(DataBundle bundle) {
+            return mValue;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(mValue);
+        }
+    }
+
+    // Compares integral values as longs and floating point values as doubles
+    private static final class LongCompare extends DataBundlePredicate {
+        private final DataBundlePath mPath;
+        private final int mOp;
+        private final long mValue;
+
+        LongCompare(DataBundlePath path, int op, long value) {
+            mPath = path;
+            mOp = op;
+            mValue = value;
+        }
+
+        @Override
+        public boolean test(DataBundle bundle) {
+            Object o = valueAt(mPath, bundle);
+            if (o instanceof Integer || o instanceof Long || o instanceof Short || o instanceof Byte) {
+                long v = ((Number) o).longValue();
+                return holds(mOp, (v < mValue) ? -1 : ((v == mValue) ? 0 : 1));
+            }
+            if (o instanceof Double || o instanceof Float) {
+                return compareDoubles(mOp, ((Number) o).doubleValue(), mValue);
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return mPath + " " + OPERATORS[mOp] + " " + mValue;
+        }
+    }
+
+    // Compare with the operators rather than Double.compare, so that
+    // 0.0 == -0.0 and comparisons with NaN are false
+    private static boolean compareDoubles(int op, double v, double value) {
+        switch (op) {
+            case EQ: return v == value;
+            case NE: return v != value && !Double.isNaN(v);
+            case LT: return v < value;
+            case LE: return v <= value;
+            case GT: return v > value;
+            default: return v >= value;
+        }
+    }
+
+    private static final class DoubleCompare extends DataBundlePredicate {
+        private final DataBundlePath mPath;
+        private final int mOp;
+        private final double mValue;
+
+        DoubleCompare(DataBundlePath path, int op, double value) {
+            mPath = path;
+            mOp = op;
+            mValue = value;
+        }
+
+        @Override
+        public boolean test(DataBundle bundle) {
+            Object o = valueAt(mPath, bundle);
+            if (!(o instanceof Number)) {
+                return false;
+            }
+            return compareDoubles(mOp, ((Number) o).doubleValue(), mValue);
+        }
+
+        @Override
+        public String toString() {
+            return mPath + " " + OPERATORS[mOp] + " " + mValue;
+        }
+    }
+
+    private static final class StringCompare extends DataBundlePredicate {
+        private final DataBundlePath mPath;
+        private final int mOp;
+        private final String mValue;
+
+        StringCompare(DataBundlePath path, int op, String value) {
+            mPath = path;
+            mOp = op;
+            mValue = value;
+        }
+
+        @Override
+        public boolean test(DataBundle bundle) {
+            Object o = valueAt(mPath, bundle);
+            if (o == mValue) {
+                // A canonical value and a canonical literal
+                return holds(mOp, 0);
+            }
+            if (o instanceof String) {
+                if (mOp == EQ) {
+                    return mValue.equals(o);
+                }
+                return holds(mOp, ((String) o).compareTo(mValue));
+            }
+            if (o instanceof CharSequence) {
+                return holds(mOp, o.toString().compareTo(mValue));
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return mPath + " " + OPERATORS[mOp] + " \"" + mValue + "\"";
+        }
+    }
+
+    private static final class BooleanCompare extends DataBundlePredicate {
+        private final DataBundlePath mPath;
+        private final boolean mValue;
+
+        BooleanCompare(DataBundlePath path, boolean value) {
+            mPath = path;
+            mValue = value;
+        }
+
+        @Override
+        public boolean test(DataBundle bundle) {
+            Object o = valueAt(mPath, bundle);
+            return (o instanceof Boolean) && ((Boolean) o).booleanValue() == mValue;
+        }
+
+        @Override
+        public String toString() {
+            return mPath + " == " + mValue;
+        }
+    }
+
+    private static final class IsNull extends DataBundlePredicate {
+        private final DataBundlePath mPath;
+
+        IsNull(DataBundlePath path) {
+            mPath = path;
+        }
+
+        @Override
+        public boolean test(DataBundle bundle) {
+            return valueAt(mPath, bundle) == null;
+        }
+
+        @Override
+        public String toString() {
+            return mPath + " == null";
+        }
+    }
+
+    // A recursive descent parser, building the predicate tree as it goes
+    private static final class Parser {
+        private final String mText;
+        private final StringDictionary mDictionary;
+        private int mPos;
+
+        Parser(String text, StringDictionary dictionary) {
+            mText = text;
+            mDictionary = dictionary;
+        }
+
+        DataBundlePredicate parseOr() {
+            DataBundlePredicate ret = parseAnd();
+            while (consume("||")) {
+                ret = new Or(ret, parseAnd());
+            }
+            return ret;
+        }
+
+        DataBundlePredicate parseAnd() {
+            DataBundlePredicate ret = parseUnary();
+            while (consume("&&")) {
+                ret = new And(ret, parseUnary());
+            }
+            return ret;
+        }
+
+        DataBundlePredicate parseUnary() {
+            skipSpace();
+            if (peek() == '!' && !lookingAt("!=")) {
+                mPos++;
+                return new Not(parseUnary());
+            }
+            if (peek() == '(') {
+                mPos++;
+                DataBundlePredicate ret = parseOr();
+                if (!consume(")")) {
+                    throw error("Expected ')'");
+                }
+                return ret;
+            }
+            return parseComparison();
+        }
+
+        DataBundlePredicate parseComparison() {
+            String name = parseName();
+            if (name.equals("true") || name.equals("false")) {
+                return new Constant(name.equals("true"));
+            }
+            DataBundlePath path = DataBundlePath.compile(name);
+            int op = parseOperator();
+            if (op < 0) {
+                return new BooleanCompare(path, true);
+            }
+            skipSpace();
+            char c = peek();
+            if (c == '"') {
+                return new StringCompare(path, op, canonical(parseString()));
+            }
+            if (c == '-' || c == '+' || c == '.' || (c >= '0' && c <= '9')) {
+                return parseNumber(path, op);
+            }
+            if (!Character.isLetter(c)) {
+                throw error("Expected a literal");
+            }
+            int start = mPos;
+            String word = parseName();
+            if (word.equals("null") && (op == EQ || op == NE)) {
+                DataBundlePredicate ret = new IsNull(path);
+                return (op == EQ) ? ret : new Not(ret);
+            }
+            if ((word.equals("true") || word.equals("false")) && (op == EQ || op == NE)) {
+                return new BooleanCompare(path, word.equals("true") == (op == EQ));
+            }
+            mPos = start;
+            throw error("Expected a literal");
+        }
+
+        String parseName() {
+            skipSpace();
+            int start = mPos;
+            while (mPos < mText.length()) {
+                char c = mText.charAt(mPos);
+                if (Character.isLetterOrDigit(c) || c == '_' || c == '$'
+                        || (c == DataBundlePath.SEPARATOR && mPos > start)) {
+                    mPos++;
+                }
+                else {
+                    break;
+                }
+            }
+            if (mPos == start) {
+                throw error("Expected a key");
+            }
+            return mText.substring(start, mPos);
+        }
+
+        int parseOperator() {
+            skipSpace();
+            // Two character operators first, so that "<=" is not read as "<"
+            for (int i = OPERATORS.length - 1; i >= 0; i--) {
+                if (OPERATORS[i].length() == 2 && lookingAt(OPERATORS[i])) {
+                    mPos += 2;
+                    return i;
+                }
+            }
+            if (peek() == '<') {
+                mPos++;
+                return LT;
+            }
+            if (peek() == '>') {
+                mPos++;
+                return GT;
+            }
+            return -1;
+        }
+
+        String parseString() {
+            StringBuilder sb = new StringBuilder();
+            mPos++;
+            while (mPos < mText.length()) {
+                char c = mText.charAt(mPos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c == '\\') {
+                    if (mPos == mText.length()) {
+                        break;
+                    }
+                    c = mText.charAt(mPos++);
+                    switch (c) {
+                        case 'n': c = '\n'; break;
+                        case 't': c = '\t'; break;
+                        case 'r': c = '\r'; break;
+                        default: break;
+                    }
+                }
+                sb.append(c);
+            }
+            throw error("Unterminated string");
+        }
+
+        DataBundlePredicate parseNumber(DataBundlePath path, int op) {
+            int start = mPos;
+            boolean integral = true;
+            while (mPos < mText.length()) {
+                char c = mText.charAt(mPos);
+                if ((c >= '0' && c <= '9') || ((c == '-' || c == '+') && mPos == start)) {
+                    mPos++;
+                }
+                else if (c == '.' || c == 'e' || c == 'E'
+                        || ((c == '-' || c == '+') && !integral)) {
+                    integral = false;
+                    mPos++;
+                }
+                else {
+                    break;
+                }
+            }
+            String text = mText.substring(start, mPos);
+            try {
+                if (integral) {
+                    return new LongCompare(path, op, Long.parseLong(text.startsWith("+") ? text.substring(1) : text));
+                }
+                return new DoubleCompare(path, op, Double.parseDouble(text));
+            } catch (NumberFormatException e) {
+                mPos = start;
+                throw error("Malformed number");
+            }
+        }
+
+        String canonical(String literal) {
+            int code = (mDictionary == null) ? -1 : mDictionary.codeOf(literal);
+            return (code < 0) ? literal : mDictionary.get(code);
+        }
+
+        boolean consume(String token) {
+            skipSpace();
+            if (lookingAt(token)) {
+                mPos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        boolean lookingAt(String token) {
+            return mText.startsWith(token, mPos);
+        }
+
+        char peek() {
+            return (mPos < mText.length()) ? mText.charAt(mPos) : '\0';
+        }
+
+        void skipSpace() {
+            while (mPos < mText.length() && Character.isWhitespace(mText.charAt(mPos))) {
+                mPos++;
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + mPos + " in \"" + mText + "\"");
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.Map;
+
+/**
+ * DataBundleSizeEstimator
+ *
+ * Estimates the number of heap bytes retained by a DataBundle, including
+ * its HashMap, keys, boxed values, arrays and nested DataBundles.
+ * <p>
+ * The estimate follows a fixed model of a 64-bit JVM with compressed
+ * references: 12 byte object headers, 4 byte references and 8 byte
+ * alignment. It is deterministic rather than exact, so the same bundle
+ * always has the same estimate on every JVM. Boxed values which the JVM
+ * caches (Booleans, Bytes and small integers) are counted as shared.
+ * <p>
+ * estimate() walks the whole bundle, DataBundle.estimateRetainedSize() gives
+ * the same result from sizes maintained on put and remove, and breakdown()
+ * reports where the bytes go.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public final class DataBundleSizeEstimator {
+    static final int OBJECT_HEADER = 12;
+    static final int ARRAY_HEADER = 16;
+    static final int REFERENCE = 4;
+
+    // DataBundle: header, seven reference fields, one long and three ints
+    static final int BUNDLE_SHALLOW = align(OBJECT_HEADER + 7 * REFERENCE + 8 + 3 * 4);
+    // HashMap: header, three references and four ints/floats
+    static final int MAP_SHALLOW = 48;
+    // HashMap entry: header, hash, key, value and next
+    static final int ENTRY = 32;
+    // String: header, value reference and hash
+    static final int STRING_SHALLOW = 24;
+    static final int BOXED_SMALL = 16;
+    static final int BOXED_WIDE = 24;
+    static final int UNKNOWN_OBJECT = 16;
+
+    private DataBundleSizeEstimator() { }
+
+    /**
+     * Returns the estimated retained size of the given DataBundle, counting
+     * nested DataBundles recursively.
+     *
+     * @param bundle a DataBundle
+     * @return an estimate in bytes
+     */
+    public static long estimate(DataBundle bundle) {
+        long ret = shallowSize(bundle.size());
+        for (Map.Entry<String, Object> entry : bundle.entrySet()) {
+            ret += entrySize(entry.getKey(), entry.getValue());
+        }
+        return ret;
+    }
+
+    /**
+     * Walks the given DataBundle and its nested DataBundles and reports the
+     * estimated size split into structure, keys and values of each type.
+     *
+     * @param bundle a DataBundle
+     * @return a new Breakdown
+     */
+    public static Breakdown breakdown(DataBundle bundle) {
+        Breakdown ret = new Breakdown();
+        walk(bundle, ret);
+        return ret;
+    }
+
+    private static void walk(DataBundle bundle, Breakdown out) {
+        out.mBundles++;
+        out.mStructure += shallowSize(bundle.size());
+        for (Map.Entry<String, Object> entry : bundle.entrySet()) {
+            Object value = entry.getValue();
+            out.mStructure += ENTRY;
+            out.mKeys += stringSize(entry.getKey());
+            if (value instanceof DataBundle) {
+                walk((DataBundle) value, out);
+            }
+            else if (value != null) {
+                int type = typeIndexOf(value);
+                out.mValueCounts[type]++;
+                out.mValues[type] += valueSize(value);
+            }
+        }
+    }
+
+    /**
+     * Returns the DataBundleStats type index for a non-null value.
+     *
+     * @param value a value
+     * @return one of the DataBundleStats.TYPE_* indexes
+     */
+    static int typeIndexOf(Object value) {
+        switch (DataBundle.typeCodeOf(value)) {
+            case DataBundle.TYPE_CODE_BOOLEAN: return DataBundleStats.TYPE_BOOLEAN;
+            case DataBundle.TYPE_CODE_BYTE: return DataBundleStats.TYPE_BYTE;
+            case DataBundle.TYPE_CODE_CHAR: return DataBundleStats.TYPE_CHAR;
+            case DataBundle.TYPE_CODE_SHORT: return DataBundleStats.TYPE_SHORT;
+            case DataBundle.TYPE_CODE_INT: return DataBundleStats.TYPE_INT;
+            case DataBundle.TYPE_CODE_LONG: return DataBundleStats.TYPE_LONG;
+            case DataBundle.TYPE_CODE_FLOAT: return DataBundleStats.TYPE_FLOAT;
+            case DataBundle.TYPE_CODE_DOUBLE: return DataBundleStats.TYPE_DOUBLE;
+            case DataBundle.TYPE_CODE_STRING: return DataBundleStats.TYPE_STRING;
+            case DataBundle.TYPE_CODE_BYTE_ARRAY: return DataBundleStats.TYPE_BYTE_ARRAY;
+            case DataBundle.TYPE_CODE_INT_ARRAY: return DataBundleStats.TYPE_INT_ARRAY;
+            case DataBundle.TYPE_CODE_LONG_ARRAY: return DataBundleStats.TYPE_LONG_ARRAY;
+            case DataBundle.TYPE_CODE_DOUBLE_ARRAY: return DataBundleStats.TYPE_DOUBLE_ARRAY;
+            default:
+                if (value instanceof DataBundle) {
+                    return DataBundleStats.TYPE_BUNDLE;
+                }
+                if (value instanceof CharSequence) {
+                    return DataBundleStats.TYPE_CHAR_SEQUENCE;
+                }
+                return DataBundleStats.TYPE_OBJECT;
+        }
+    }
+
+    /**
+     * Returns the estimated size of an empty DataBundle holding the given
+     * number of entries: the bundle, its HashMap and the HashMap table.
+     *
+     * @param entries the number of entries
+     * @return an estimate in bytes
+     */
+    static long shallowSize(int entries) {
+        return BUNDLE_SHALLOW + MAP_SHALLOW + align(ARRAY_HEADER + (long) REFERENCE * tableSize(entries));
+    }
+
+    /**
+     * Returns the estimated size of one entry: the HashMap entry, the key
+     * and the value.
+     *
+     * @param key a key, or null
+     * @param value a value, or null
+     * @return an estimate in bytes
+     */
+    static long entrySize(String key, Object value) {
+        return ENTRY + stringSize(key) + valueSize(value);
+    }
+
+    static long stringSize(CharSequence s) {
+        if (s == null) {
+            return 0L;
+        }
+        return STRING_SHALLOW + align(ARRAY_HEADER + 2L * s.length());
+    }
+
+    static long valueSize(Object value) {
+        if (value == null) {
+            return 0L;
+        }
+        switch (DataBundle.typeCodeOf(value)) {
+            case DataBundle.TYPE_CODE_BOOLEAN:
+            case DataBundle.TYPE_CODE_BYTE:
+                return 0L;
+            case DataBundle.TYPE_CODE_CHAR:
+                return ((Character) value) <= 127 ? 0L : BOXED_SMALL;
+            case DataBundle.TYPE_CODE_SHORT:
+            case DataBundle.TYPE_CODE_INT:
+            case DataBundle.TYPE_CODE_LONG: {
+                long v = ((Number) value).longValue();
+                if (v >= -128 && v <= 127) {
+                    return 0L;
+                }
+                return (value instanceof Long) ? BOXED_WIDE : BOXED_SMALL;
+            }
+            case DataBundle.TYPE_CODE_FLOAT:
+                return BOXED_SMALL;
+            case DataBundle.TYPE_CODE_DOUBLE:
+                return BOXED_WIDE;
+            case DataBundle.TYPE_CODE_STRING:
+                return stringSize((String) value);
+            case DataBundle.TYPE_CODE_BYTE_ARRAY:
+                return align(ARRAY_HEADER + (long) ((byte[]) value).length);
+            case DataBundle.TYPE_CODE_INT_ARRAY:
+                return align(ARRAY_HEADER + 4L * ((int[]) value).length);
+            case DataBundle.TYPE_CODE_LONG_ARRAY:
+                return align(ARRAY_HEADER + 8L * ((long[]) value).length);
+            case DataBundle.TYPE_CODE_DOUBLE_ARRAY:
+                return align(ARRAY_HEADER + 8L * ((double[]) value).length);
+            default:
+                if (value instanceof DataBundle) {
+                    return estimate((DataBundle) value);
+                }
+                if (value instanceof CharSequence) {
+                    return stringSize((CharSequence) value);
+                }
+                return UNKNOWN_OBJECT;
+        }
+    }
+
+    // The HashMap table length for the given number of entries
+    static int tableSize(int entries) {
+        int ret = 16;
+        while (ret * 0.75f < entries) {
+            ret <<= 1;
+        }
+        return ret;
+    }
+
+    static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * The estimated size of a DataBundle tree, split by what the bytes are used for.
+     * Value types are indexed by the DataBundleStats.TYPE_* constants.
+     */
+    public static final class Breakdown {
+        private long mStructure;
+        private long mKeys;
+        private int mBundles;
+        private final long[] mValues = new long[DataBundleStats.TYPE_COUNT];
+        private final int[] mValueCounts = new int[DataBundleStats.TYPE_COUNT];
+
+        Breakdown() { }
+
+        /**
+         * @return the estimated total size in bytes
+         */
+        public long getTotalBytes() {
+            long ret = mStructure + mKeys;
+            for (long v : mValues) {
+                ret += v;
+            }
+            return ret;
+        }
+
+        /**
+         * @return the bytes used by DataBundles, HashMaps, tables and entries
+         */
+        public long getStructureBytes() {
+            return mStructure;
+        }
+
+        /**
+         * @return the bytes used by key Strings
+         */
+        public long getKeyBytes() {
+            return mKeys;
+        }
+
+        /**
+         * @param type one of the DataBundleStats.TYPE_* indexes
+         * @return the bytes used by values of the type
+         */
+        public long getValueBytes(int type) {
+            return mValues[type];
+        }
+
+        /**
+         * @param type one of the DataBundleStats.TYPE_* indexes
+         * @return the number of values of the type
+         */
+        public int getValueCount(int type) {
+            return mValueCounts[type];
+        }
+
+        /**
+         * @return the number of DataBundles, including the root
+         */
+        public int getBundleCount() {
+            return mBundles;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Breakdown[total=").append(getTotalBytes());
+            sb.append(" bundles=").append(mBundles);
+            sb.append(" structure=").append(mStructure);
+            sb.append(" keys=").append(mKeys);
+            for (int i = 0; i < DataBundleStats.TYPE_COUNT; i++) {
+                if (mValueCounts[i] > 0) {
+                    sb.append(' ').append(DataBundleStats.TYPE_NAMES[i]);
+                    sb.append('=').append(mValues[i]);
+                    sb.append('(').append(mValueCounts[i]).append(')');
+                }
+            }
+            return sb.append(']').toString();
+        }
+    }
+}
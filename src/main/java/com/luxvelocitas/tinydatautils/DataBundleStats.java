@@ -0,0 +1,492 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * DataBundleStats
+ *
+ * Opt-in instrumentation of DataBundle operations.
+ * <p>
+ * Instrumentation is enabled by starting the JVM with
+ * <code>-Dtinydatautils.stats=true</code>. The flag is read once into a
+ * static final field, so when it is off the JIT removes the guarded
+ * recording calls entirely.
+ * <p>
+ * Counters are striped so that recording from many threads does not
+ * contend. A consistent-enough view is obtained with snapshot(), or
+ * remotely through the DataBundleStatsMBean once registerMBean() has
+ * been called.
+ * <p>
+ * Hot keys are found by sampling one in HOT_KEY_SAMPLE typed puts and gets
+ * on each thread into a Space-Saving table of HOT_KEY_CAPACITY keys, so
+ * only the sampled accesses take a lock. Resizes are counted when an
+ * insert grows a DataBundle past the load factor of its HashMap table,
+ * using the table model of DataBundleSizeEstimator. DataBundles created
+ * with an explicit capacity or copied may start with a larger table, so
+ * for those the count is an upper bound.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public final class DataBundleStats {
+    public static final boolean ENABLED = Boolean.getBoolean("tinydatautils.stats");
+
+    public static final String OBJECT_NAME = "com.luxvelocitas.tinydatautils:type=DataBundleStats";
+
+    // Value type indexes
+    public static final int TYPE_BOOLEAN = 0;
+    public static final int TYPE_BYTE = 1;
+    public static final int TYPE_CHAR = 2;
+    public static final int TYPE_SHORT = 3;
+    public static final int TYPE_INT = 4;
+    public static final int TYPE_LONG = 5;
+    public static final int TYPE_FLOAT = 6;
+    public static final int TYPE_DOUBLE = 7;
+    public static final int TYPE_STRING = 8;
+    public static final int TYPE_CHAR_SEQUENCE = 9;
+    public static final int TYPE_BUNDLE = 10;
+    public static final int TYPE_BYTE_ARRAY = 11;
+    public static final int TYPE_INT_ARRAY = 12;
+    public static final int TYPE_LONG_ARRAY = 13;
+    public static final int TYPE_DOUBLE_ARRAY = 14;
+    public static final int TYPE_OBJECT = 15;
+    public static final int TYPE_COUNT = 16;
+
+    // One in this many typed puts and gets per thread is sampled for hot keys
+    static final int HOT_KEY_SAMPLE = 64;
+
+    // The number of keys tracked as hot keys
+    static final int HOT_KEY_CAPACITY = 32;
+
+    static final String[] TYPE_NAMES = {
+        "Boolean", "Byte", "Character", "Short", "Integer", "Long",
+        "Float", "Double", "String", "CharSequence", "Bundle",
+        "byte[]", "int[]", "long[]", "double[]", "Object"
+    };
+
+    private static final StripedCounter[] sPuts = newCounters(TYPE_COUNT);
+    private static final StripedCounter[] sGets = newCounters(TYPE_COUNT);
+    private static final StripedCounter sTypeMismatches = new StripedCounter();
+    private static final StripedCounter sCreates = new StripedCounter();
+    private static final StripedCounter sRemoves = new StripedCounter();
+    private static final StripedHistogram sCopySizes = new StripedHistogram();
+    private static final StripedHistogram sPutAllSizes = new StripedHistogram();
+    private static final StripedHistogram sSerializedBytes = new StripedHistogram();
+    private static final StripedCounter sResizes = new StripedCounter();
+    private static final HotKeys sHotKeys = new HotKeys(HOT_KEY_CAPACITY);
+
+    // Per-stripe sampling ticks, 16 ints apart so that stripes do not
+    // share a cache line. Updates are racy, which only perturbs the rate.
+    private static final int TICK_SPACING = 16;
+    private static final int[] sTicks = new int[StripedCounter.STRIPES * TICK_SPACING];
+
+    private DataBundleStats() { }
+
+    static void recordCreate() {
+        sCreates.increment();
+    }
+
+    static void recordPut(int type, String key) {
+        sPuts[type].increment();
+        sampleKey(key);
+    }
+
+    static void recordGet(int type, String key) {
+        sGets[type].increment();
+        sampleKey(key);
+    }
+
+    /**
+     * Records that a new key was inserted into a DataBundle.
+     *
+     * @param size the number of entries after the insert
+     */
+    static void recordGrowth(int size) {
+        if (DataBundleSizeEstimator.tableSize(size) != DataBundleSizeEstimator.tableSize(size - 1)) {
+            sResizes.increment();
+        }
+    }
+
+    private static void sampleKey(String key) {
+        int i = StripedCounter.stripe() * TICK_SPACING;
+        if ((++sTicks[i] & (HOT_KEY_SAMPLE - 1)) == 0) {
+            sHotKeys.record(key);
+        }
+    }
+
+    static void recordRemove() {
+        sRemoves.increment();
+    }
+
+    static void recordTypeMismatch() {
+        sTypeMismatches.increment();
+    }
+
+    static void recordCopy(int size) {
+        sCopySizes.record(size);
+    }
+
+    static void recordPutAll(int size) {
+        sPutAllSizes.record(size);
+    }
+
+    /**
+     * Records the size of a serialized DataBundle. Intended to be called by
+     * encoders after each bundle has been written.
+     *
+     * @param bytes the number of bytes written
+     */
+    public static void recordSerializedBytes(long bytes) {
+        if (ENABLED) {
+            sSerializedBytes.record(bytes);
+        }
+    }
+
+    /**
+     * @return a point-in-time copy of all counters
+     */
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    /**
+     * Resets all counters to zero.
+     */
+    public static void reset() {
+        for (int i = 0; i < TYPE_COUNT; i++) {
+            sPuts[i].reset();
+            sGets[i].reset();
+        }
+        sTypeMismatches.reset();
+        sCreates.reset();
+        sRemoves.reset();
+        sCopySizes.reset();
+        sPutAllSizes.reset();
+        sSerializedBytes.reset();
+        sResizes.reset();
+        sHotKeys.reset();
+    }
+
+    /**
+     * Registers the DataBundleStatsMBean with the platform MBean server
+     * under OBJECT_NAME. Calling this more than once has no further effect.
+     *
+     * @throws JMException if the registration fails
+     */
+    public static synchronized void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+            // The implementing class is not named DataBundleStats, so it
+            // must be wrapped to be a compliant standard MBean
+            server.registerMBean(new StandardMBean(new MBean(), DataBundleStatsMBean.class), name);
+        }
+    }
+
+    private static StripedCounter[] newCounters(int n) {
+        StripedCounter[] ret = new StripedCounter[n];
+        for (int i = 0; i < n; i++) {
+            ret[i] = new StripedCounter();
+        }
+        return ret;
+    }
+
+    private static long[] sums(StripedCounter[] counters) {
+        long[] ret = new long[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            ret[i] = counters[i].sum();
+        }
+        return ret;
+    }
+
+    private static long total(long[] values) {
+        long ret = 0L;
+        for (long v : values) {
+            ret += v;
+        }
+        return ret;
+    }
+
+    /**
+     * An immutable copy of the DataBundle counters.
+     */
+    public static final class Snapshot {
+        private final long[] mPuts;
+        private final long[] mGets;
+        private final long mTypeMismatches;
+        private final long mCreates;
+        private final long mRemoves;
+        private final StripedHistogram.Snapshot mCopySizes;
+        private final StripedHistogram.Snapshot mPutAllSizes;
+        private final StripedHistogram.Snapshot mSerializedBytes;
+        private final long mResizes;
+        private final Map<String, Long> mHotKeys;
+
+        Snapshot() {
+            mPuts = sums(sPuts);
+            mGets = sums(sGets);
+            mTypeMismatches = sTypeMismatches.sum();
+            mCreates = sCreates.sum();
+            mRemoves = sRemoves.sum();
+            mCopySizes = sCopySizes.snapshot();
+            mPutAllSizes = sPutAllSizes.snapshot();
+            mSerializedBytes = sSerializedBytes.snapshot();
+            mResizes = sResizes.sum();
+            mHotKeys = sHotKeys.top();
+        }
+
+        /**
+         * @param type one of the TYPE_* indexes
+         * @return the number of puts of the given type
+         */
+        public long getPutCount(int type) {
+            return mPuts[type];
+        }
+
+        /**
+         * @param type one of the TYPE_* indexes
+         * @return the number of typed gets of the given type
+         */
+        public long getGetCount(int type) {
+            return mGets[type];
+        }
+
+        public long getTotalPutCount() {
+            return total(mPuts);
+        }
+
+        public long getTotalGetCount() {
+            return total(mGets);
+        }
+
+        public long getTypeMismatchCount() {
+            return mTypeMismatches;
+        }
+
+        public long getCreateCount() {
+            return mCreates;
+        }
+
+        public long getRemoveCount() {
+            return mRemoves;
+        }
+
+        /**
+         * @return the distribution of bundle sizes when copied or cloned
+         */
+        public StripedHistogram.Snapshot getCopySizes() {
+            return mCopySizes;
+        }
+
+        /**
+         * @return the distribution of bundle sizes passed to putAll
+         */
+        public StripedHistogram.Snapshot getPutAllSizes() {
+            return mPutAllSizes;
+        }
+
+        /**
+         * @return the distribution of serialized bundle sizes in bytes
+         */
+        public StripedHistogram.Snapshot getSerializedBytes() {
+            return mSerializedBytes;
+        }
+
+        /**
+         * @return the number of inserts which grew a DataBundle's table
+         */
+        public long getResizeCount() {
+            return mResizes;
+        }
+
+        /**
+         * Returns the most frequently put and got keys, most frequent first,
+         * with their estimated number of accesses. The estimates are
+         * extrapolated from samples, and may overcount keys which entered
+         * the table late.
+         *
+         * @return an unmodifiable map from key to estimated accesses
+         */
+        public Map<String, Long> getHotKeys() {
+            return mHotKeys;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("DataBundleStats[creates=").append(mCreates);
+            sb.append(" removes=").append(mRemoves);
+            sb.append(" typeMismatches=").append(mTypeMismatches);
+            for (int i = 0; i < TYPE_COUNT; i++) {
+                if (mPuts[i] != 0 || mGets[i] != 0) {
+                    sb.append(' ').append(TYPE_NAMES[i]);
+                    sb.append("(put=").append(mPuts[i]);
+                    sb.append(" get=").append(mGets[i]).append(')');
+                }
+            }
+            sb.append(" copies{").append(mCopySizes).append('}');
+            sb.append(" putAll{").append(mPutAllSizes).append('}');
+            sb.append(" serialized{").append(mSerializedBytes).append('}');
+            sb.append(" resizes=").append(mResizes);
+            sb.append(" hotKeys=").append(mHotKeys).append(']');
+            return sb.toString();
+        }
+    }
+
+    // Standard MBean implementation, each attribute takes a fresh snapshot
+    static final class MBean implements DataBundleStatsMBean {
+        public boolean isEnabled() {
+            return ENABLED;
+        }
+
+        public long getCreateCount() {
+            return sCreates.sum();
+        }
+
+        public long getRemoveCount() {
+            return sRemoves.sum();
+        }
+
+        public long getTypeMismatchCount() {
+            return sTypeMismatches.sum();
+        }
+
+        public long getTotalPutCount() {
+            return total(sums(sPuts));
+        }
+
+        public long getTotalGetCount() {
+            return total(sums(sGets));
+        }
+
+        public long[] getPutCounts() {
+            return sums(sPuts);
+        }
+
+        public long[] getGetCounts() {
+            return sums(sGets);
+        }
+
+        public String[] getTypeNames() {
+            return TYPE_NAMES.clone();
+        }
+
+        public long getCopyCount() {
+            return sCopySizes.snapshot().getCount();
+        }
+
+        public double getMeanCopySize() {
+            return sCopySizes.snapshot().getMean();
+        }
+
+        public long getPutAllCount() {
+            return sPutAllSizes.snapshot().getCount();
+        }
+
+        public double getMeanPutAllSize() {
+            return sPutAllSizes.snapshot().getMean();
+        }
+
+        public long getSerializedBundleCount() {
+            return sSerializedBytes.snapshot().getCount();
+        }
+
+        public long getSerializedBytes() {
+            return sSerializedBytes.snapshot().getSum();
+        }
+
+        public long getResizeCount() {
+            return sResizes.sum();
+        }
+
+        public String[] getHotKeys() {
+            Map<String, Long> top = sHotKeys.top();
+            String[] ret = new String[top.size()];
+            int i = 0;
+            for (Map.Entry<String, Long> entry : top.entrySet()) {
+                ret[i++] = entry.getKey() + "=" + entry.getValue();
+            }
+            return ret;
+        }
+
+        public String getSummary() {
+            return snapshot().toString();
+        }
+
+        public void reset() {
+            DataBundleStats.reset();
+        }
+    }
+
+    /**
+     * The Space-Saving algorithm over sampled keys: a table of at most
+     * capacity keys, where a key which is not in a full table replaces the
+     * least frequent one and inherits its count plus one. Any key sampled
+     * more often than 1/capacity of the time is guaranteed to be present.
+     */
+    static final class HotKeys {
+        private final int mCapacity;
+        private final HashMap<String, long[]> mCounts = new HashMap<String, long[]>();
+
+        HotKeys(int capacity) {
+            mCapacity = capacity;
+        }
+
+        synchronized void record(String key) {
+            long[] count = mCounts.get(key);
+            if (count == null) {
+                if (mCounts.size() < mCapacity) {
+                    count = new long[1];
+                }
+                else {
+                    String victim = null;
+                    long min = Long.MAX_VALUE;
+                    for (Map.Entry<String, long[]> entry : mCounts.entrySet()) {
+                        if (entry.getValue()[0] < min) {
+                            min = entry.getValue()[0];
+                            victim = entry.getKey();
+                        }
+                    }
+                    count = mCounts.remove(victim);
+                }
+                mCounts.put(key, count);
+            }
+            count[0]++;
+        }
+
+        /**
+         * @return the keys by descending count, with counts scaled up by
+         *     the sampling rate
+         */
+        synchronized Map<String, Long> top() {
+            List<Map.Entry<String, long[]>> entries = new ArrayList<Map.Entry<String, long[]>>(mCounts.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+                public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+                    long x = a.getValue()[0];
+                    long y = b.getValue()[0];
+                    return (x > y) ? -1 : ((x == y) ? 0 : 1);
+                }
+            });
+            LinkedHashMap<String, Long> ret = new LinkedHashMap<String, Long>();
+            for (Map.Entry<String, long[]> entry : entries) {
+                ret.put(entry.getKey(), entry.getValue()[0] * HOT_KEY_SAMPLE);
+            }
+            return Collections.unmodifiableMap(ret);
+        }
+
+        synchronized void reset() {
+            mCounts.clear();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.luxvelocitas.tinydatautils;
+
+/**
+ * JMX management interface for DataBundleStats.
+ *
+ * Array attributes are indexed by the DataBundleStats.TYPE_* constants,
+ * the matching names are given by getTypeNames().
+ */
+public interface DataBundleStatsMBean {
+    boolean isEnabled();
+
+    long getCreateCount();
+
+    long getRemoveCount();
+
+    long getTypeMismatchCount();
+
+    long getTotalPutCount();
+
+    long getTotalGetCount();
+
+    long[] getPutCounts();
+
+    long[] getGetCounts();
+
+    String[] getTypeNames();
+
+    long getCopyCount();
+
+    double getMeanCopySize();
+
+    long getPutAllCount();
+
+    double getMeanPutAllSize();
+
+    long getSerializedBundleCount();
+
+    long getSerializedBytes();
+
+    long getResizeCount();
+
+    /**
+     * @return the hottest keys, most frequent first, as "key=estimated accesses"
+     */
+    String[] getHotKeys();
+
+    String getSummary();
+
+    void reset();
+}
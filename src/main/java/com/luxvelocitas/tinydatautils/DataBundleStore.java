@@ -0,0 +1,682 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * DataBundleStore
+ *
+ * An embedded, append-only store of DataBundles keyed by long id, such as
+ * the metadata of MetadataObjects.
+ * <p>
+ * Records are appended to memory-mapped segment files in a directory. An
+ * in-memory index maps each id to the location of its latest record, and
+ * is rebuilt on open by scanning the segments in order. Every record
+ * carries a CRC32, so a record torn by a crash ends the scan of its segment.
+ * <p>
+ * Writes only reach the page cache. sync() makes all preceding writes
+ * durable. Concurrent callers of sync() are group-committed: one caller
+ * forces the dirty segments on behalf of all of them.
+ * <p>
+ * Overwritten and removed records leave garbage behind. compact() copies the
+ * live records of mostly-garbage segments to the end of the log and deletes
+ * the old segments, optionally on a background thread.
+ * <p>
+ * A DataBundleStore is thread-safe. Only one store may use a directory at a
+ * time, which is enforced with a lock on a LOCK file in the directory.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public class DataBundleStore implements Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String LOCK_FILE = "LOCK";
+
+    // Record layout: int size, int crc, byte type, long id, payload.
+    // The crc covers everything after itself.
+    static final int HEADER_SIZE = 17;
+    private static final int CRC_OFFSET = 4;
+    private static final int TYPE_OFFSET = 8;
+    private static final int ID_OFFSET = 9;
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_DELETE = 2;
+
+    private static final long MISSING = -1L;
+
+    private final File mDir;
+    private final int mSegmentSize;
+    private final RandomAccessFile mLockFile;
+    private final FileLock mDirLock;
+
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, Segment> mSegments = new TreeMap<Integer, Segment>();
+    private final LongLongHashMap mIndex = new LongLongHashMap(MISSING);
+    private final HashSet<Segment> mDirty = new HashSet<Segment>();
+    private final BinaryWriter mScratch = new BinaryWriter(1024);
+    private final CRC32 mCrc = new CRC32();
+    private Segment mActive;
+    private long mAppended;
+    private boolean mClosed;
+
+    // Group commit state, guarded by mSyncMonitor
+    private final Object mSyncMonitor = new Object();
+    private long mSynced;
+    private boolean mSyncing;
+
+    private ScheduledExecutorService mCompactor;
+
+    /**
+     * Opens a store with the default segment size, creating the directory
+     * if it does not exist and recovering the index from existing segments.
+     *
+     * @param dir the directory holding the segment files
+     * @throws IOException if the directory cannot be used or recovery fails
+     */
+    public DataBundleStore(File dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a store, creating the directory if it does not exist and
+     * recovering the index from existing segments.
+     *
+     * @param dir the directory holding the segment files
+     * @param segmentSize the size in bytes of new segment files
+     * @throws IOException if the directory cannot be used, is in use by
+     *     another store, or recovery fails
+     */
+    public DataBundleStore(File dir, int segmentSize) throws IOException {
+        if (segmentSize < HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create store directory " + dir);
+        }
+        mDir = dir;
+        mSegmentSize = segmentSize;
+        mLockFile = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+        boolean ok = false;
+        try {
+            mDirLock = lockDirectory(mLockFile, dir);
+            try {
+                recover();
+                ok = true;
+            }
+            finally {
+                if (!ok) {
+                    mDirLock.release();
+                }
+            }
+        }
+        finally {
+            if (!ok) {
+                mLockFile.close();
+            }
+        }
+    }
+
+    // Another process holding the lock makes tryLock() return null, another
+    // store in this process makes it throw
+    private static FileLock lockDirectory(RandomAccessFile file, File dir) throws IOException {
+        FileLock ret;
+        try {
+            ret = file.getChannel().tryLock();
+        }
+        catch (OverlappingFileLockException e) {
+            ret = null;
+        }
+        if (ret == null) {
+            throw new IOException("Store directory is in use: " + dir);
+        }
+        return ret;
+    }
+
+    /**
+     * Stores a DataBundle under the given id, replacing any previous one.
+     *
+     * @param id the id
+     * @param bundle a DataBundle
+     * @throws IOException if a new segment cannot be created
+     */
+    public void put(long id, DataBundle bundle) throws IOException {
+        mLock.writeLock().lock();
+        try {
+            ensureOpen();
+            BinaryWriter w = startRecord(TYPE_PUT, id);
+            DataBundleCodec.encode(bundle, w);
+            long location = append(finishRecord(w), w.size());
+            release(mIndex.put(id, location));
+            segmentOf(location).mLiveBytes += w.size();
+        }
+        finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the metadata of a MetadataObject under its id.
+     *
+     * @param object a MetadataObject
+     * @throws IOException if a new segment cannot be created
+     */
+    public void put(MetadataObject object) throws IOException {
+        put(object.getId(), object.getMetadata());
+    }
+
+    /**
+     * Reads the DataBundle stored under the given id.
+     *
+     * @param id the id
+     * @return a new DataBundle, or null if there is none
+     * @throws IOException if the record cannot be decoded
+     */
+    public DataBundle get(long id) throws IOException {
+        byte[] record;
+        mLock.readLock().lock();
+        try {
+            ensureOpen();
+            long location = mIndex.get(id);
+            if (location == MISSING) {
+                return null;
+            }
+            record = segmentOf(location).read(offsetOf(location));
+        }
+        finally {
+            mLock.readLock().unlock();
+        }
+        return DataBundleCodec.decode(record, HEADER_SIZE, record.length - HEADER_SIZE);
+    }
+
+    /**
+     * @param id the id
+     * @return true if a DataBundle is stored under the id
+     */
+    public boolean contains(long id) {
+        mLock.readLock().lock();
+        try {
+            return mIndex.containsKey(id);
+        }
+        finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the DataBundle stored under the given id.
+     *
+     * @param id the id
+     * @return true if a DataBundle was stored under the id
+     * @throws IOException if a new segment cannot be created
+     */
+    public boolean remove(long id) throws IOException {
+        mLock.writeLock().lock();
+        try {
+            ensureOpen();
+            if (!mIndex.containsKey(id)) {
+                return false;
+            }
+            BinaryWriter w = startRecord(TYPE_DELETE, id);
+            append(finishRecord(w), w.size());
+            release(mIndex.remove(id));
+            return true;
+        }
+        finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of stored DataBundles
+     */
+    public int size() {
+        mLock.readLock().lock();
+        try {
+            return mIndex.size();
+        }
+        finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Makes all writes which completed before this call durable. If another
+     * thread is already syncing, this waits for it and piggybacks on its
+     * work where possible instead of forcing the segments again.
+     *
+     * @throws IOException if forcing a segment fails
+     */
+    public void sync() throws IOException {
+        long target;
+        mLock.readLock().lock();
+        try {
+            target = mAppended;
+        }
+        finally {
+            mLock.readLock().unlock();
+        }
+
+        synchronized (mSyncMonitor) {
+            while (mSynced < target && mSyncing) {
+                try {
+                    mSyncMonitor.wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for sync");
+                }
+            }
+            if (mSynced >= target) {
+                return;
+            }
+            mSyncing = true;
+        }
+
+        // This thread is the leader for everything appended so far
+        long reached;
+        List<Segment> dirty;
+        mLock.writeLock().lock();
+        try {
+            reached = mAppended;
+            dirty = new ArrayList<Segment>(mDirty);
+            mDirty.clear();
+        }
+        finally {
+            mLock.writeLock().unlock();
+        }
+        boolean done = false;
+        try {
+            for (Segment segment : dirty) {
+                segment.mBuffer.force();
+            }
+            done = true;
+        }
+        finally {
+            synchronized (mSyncMonitor) {
+                mSyncing = false;
+                if (done) {
+                    mSynced = Math.max(mSynced, reached);
+                }
+                else {
+                    // Let a later sync retry these segments
+                    mLock.writeLock().lock();
+                    try {
+                        mDirty.addAll(dirty);
+                    }
+                    finally {
+                        mLock.writeLock().unlock();
+                    }
+                }
+                mSyncMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Compacts every sealed segment whose live records take up no more than
+     * the given fraction of its used size. Live records are copied to the end
+     * of the log, which is synced before the old segments are deleted.
+     *
+     * @param maxLiveRatio a fraction in [0.0, 1.0]
+     * @return the number of segments deleted
+     * @throws IOException if copying or syncing fails
+     */
+    public int compact(double maxLiveRatio) throws IOException {
+        List<Segment> compacted = new ArrayList<Segment>();
+        mLock.writeLock().lock();
+        try {
+            ensureOpen();
+            for (Segment segment : new ArrayList<Segment>(mSegments.values())) {
+                if (segment == mActive || segment.mLiveBytes > maxLiveRatio * segment.mEnd) {
+                    continue;
+                }
+                boolean oldest = (segment.mId == mSegments.firstKey());
+                copyLiveRecords(segment, oldest);
+                mSegments.remove(segment.mId);
+                mDirty.remove(segment);
+                compacted.add(segment);
+            }
+        }
+        finally {
+            mLock.writeLock().unlock();
+        }
+        if (compacted.isEmpty()) {
+            return 0;
+        }
+        sync();
+        for (Segment segment : compacted) {
+            if (!segment.mFile.delete()) {
+                throw new IOException("Cannot delete compacted segment " + segment.mFile);
+            }
+        }
+        return compacted.size();
+    }
+
+    /**
+     * Starts compacting periodically on a daemon thread. Errors are reported
+     * on System.err and the next run is attempted as scheduled.
+     *
+     * @param periodMillis the delay between runs
+     * @param maxLiveRatio passed to compact()
+     */
+    public synchronized void startBackgroundCompaction(long periodMillis, final double maxLiveRatio) {
+        if (mCompactor != null) {
+            return;
+        }
+        mCompactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "DataBundleStore-compactor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mCompactor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    compact(maxLiveRatio);
+                }
+                catch (IOException e) {
+                    /*[FIXME: logging]*/
+                    System.err.println("Background compaction of " + mDir + " failed: " + e);
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops background compaction, syncs and closes the store, and releases
+     * the lock on its directory.
+     *
+     * @throws IOException if the final sync fails
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (mCompactor != null) {
+                mCompactor.shutdownNow();
+                mCompactor = null;
+            }
+        }
+        // Refuse further writes first, so that every acknowledged write
+        // is covered by the final sync
+        mLock.writeLock().lock();
+        try {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+        finally {
+            mLock.writeLock().unlock();
+        }
+        try {
+            sync();
+        }
+        finally {
+            mLock.writeLock().lock();
+            try {
+                mSegments.clear();
+                mIndex.clear();
+                mActive = null;
+            }
+            finally {
+                mLock.writeLock().unlock();
+            }
+            try {
+                mDirLock.release();
+            }
+            finally {
+                mLockFile.close();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("Store closed");
+        }
+    }
+
+    // Callers hold the write lock
+
+    private BinaryWriter startRecord(byte type, long id) {
+        BinaryWriter w = mScratch;
+        w.reset();
+        w.writeInt(0);
+        w.writeInt(0);
+        w.writeByte(type);
+        w.writeLong(id);
+        return w;
+    }
+
+    private byte[] finishRecord(BinaryWriter w) {
+        byte[] b = w.array();
+        w.setInt(0, w.size());
+        mCrc.reset();
+        mCrc.update(b, TYPE_OFFSET, w.size() - TYPE_OFFSET);
+        w.setInt(CRC_OFFSET, (int) mCrc.getValue());
+        return b;
+    }
+
+    // Append a complete record and return its location
+    private long append(byte[] record, int size) throws IOException {
+        if (mActive == null || mActive.mEnd + size > mActive.mBuffer.capacity()) {
+            int id = (mActive == null) ? 1 : mActive.mId + 1;
+            mActive = Segment.create(segmentFile(id), id, Math.max(mSegmentSize, size));
+            mSegments.put(id, mActive);
+        }
+        Segment segment = mActive;
+        int offset = segment.mEnd;
+        segment.mWriteView.position(offset);
+        segment.mWriteView.put(record, 0, size);
+        segment.mEnd += size;
+        mDirty.add(segment);
+        mAppended++;
+        return locationOf(segment.mId, offset);
+    }
+
+    // Account for a record which is no longer live
+    private void release(long location) {
+        if (location != MISSING) {
+            Segment segment = segmentOf(location);
+            segment.mLiveBytes -= segment.mBuffer.getInt(offsetOf(location));
+        }
+    }
+
+    private void copyLiveRecords(Segment segment, boolean oldest) throws IOException {
+        int pos = 0;
+        while (pos < segment.mEnd) {
+            byte[] record = segment.read(pos);
+            long id = segment.mBuffer.getLong(pos + ID_OFFSET);
+            byte type = segment.mBuffer.get(pos + TYPE_OFFSET);
+            if (type == TYPE_PUT) {
+                if (mIndex.get(id) == locationOf(segment.mId, pos)) {
+                    long location = append(record, record.length);
+                    mIndex.put(id, location);
+                    segmentOf(location).mLiveBytes += record.length;
+                }
+            }
+            else if (!oldest && !mIndex.containsKey(id)) {
+                // Still needed to mask puts in older segments
+                append(record, record.length);
+            }
+            pos += record.length;
+        }
+    }
+
+    private Segment segmentOf(long location) {
+        return mSegments.get((int) (location >>> 32));
+    }
+
+    private static long locationOf(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    private File segmentFile(int id) {
+        return new File(mDir, SEGMENT_PREFIX + String.format("%08d", id) + SEGMENT_SUFFIX);
+    }
+
+    private void recover() throws IOException {
+        File[] files = mDir.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Cannot list store directory " + mDir);
+        }
+        for (File file : files) {
+            String name = file.getName();
+            int id;
+            try {
+                id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length()));
+            }
+            catch (NumberFormatException e) {
+                continue;
+            }
+            mSegments.put(id, Segment.open(file, id));
+        }
+        for (Map.Entry<Integer, Segment> entry : mSegments.entrySet()) {
+            Segment segment = entry.getValue();
+            scan(segment);
+            mActive = segment;
+        }
+        if (mActive != null) {
+            mActive.clearTail();
+        }
+    }
+
+    // Replay the records of a segment into the index, stopping at the first
+    // record which is incomplete or fails its checksum
+    private void scan(Segment segment) {
+        MappedByteBuffer buf = segment.mBuffer;
+        int capacity = buf.capacity();
+        byte[] scratch = new byte[256];
+        int pos = 0;
+        while (pos + HEADER_SIZE <= capacity) {
+            int size = buf.getInt(pos);
+            if (size < HEADER_SIZE || size > capacity - pos) {
+                break;
+            }
+            if (scratch.length < size) {
+                scratch = new byte[size];
+            }
+            ByteBuffer view = buf.duplicate();
+            view.position(pos);
+            view.get(scratch, 0, size);
+            mCrc.reset();
+            mCrc.update(scratch, TYPE_OFFSET, size - TYPE_OFFSET);
+            if ((int) mCrc.getValue() != buf.getInt(pos + CRC_OFFSET)) {
+                break;
+            }
+            long id = buf.getLong(pos + ID_OFFSET);
+            if (buf.get(pos + TYPE_OFFSET) == TYPE_PUT) {
+                release(mIndex.put(id, locationOf(segment.mId, pos)));
+                segment.mLiveBytes += size;
+            }
+            else {
+                release(mIndex.remove(id));
+            }
+            pos += size;
+        }
+        segment.mEnd = pos;
+    }
+
+    /**
+     * A segment file, mapped in full.
+     */
+    static final class Segment {
+        final int mId;
+        final File mFile;
+        final MappedByteBuffer mBuffer;
+        // Positioned only under the write lock
+        final ByteBuffer mWriteView;
+        int mEnd;
+        long mLiveBytes;
+
+        private Segment(int id, File file, MappedByteBuffer buffer) {
+            mId = id;
+            mFile = file;
+            mBuffer = buffer;
+            mWriteView = buffer.duplicate();
+        }
+
+        static Segment create(File file, int id, int size) throws IOException {
+            if (file.exists()) {
+                throw new IOException("Segment already exists: " + file);
+            }
+            return new Segment(id, file, map(file, size));
+        }
+
+        static Segment open(File file, int id) throws IOException {
+            return new Segment(id, file, map(file, -1));
+        }
+
+        // The mapping stays valid after the file is closed
+        private static MappedByteBuffer map(File file, int size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                if (size >= 0) {
+                    raf.setLength(size);
+                }
+                FileChannel channel = raf.getChannel();
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            }
+            finally {
+                raf.close();
+            }
+        }
+
+        // Copy the complete record at the given offset
+        byte[] read(int offset) {
+            int size = mBuffer.getInt(offset);
+            byte[] ret = new byte[size];
+            ByteBuffer view = mBuffer.duplicate();
+            view.position(offset);
+            view.get(ret);
+            return ret;
+        }
+
+        // Zero any bytes left after the last valid record by a torn write,
+        // so that they cannot be mistaken for records after later appends
+        void clearTail() {
+            int capacity = mBuffer.capacity();
+            int pos = mEnd;
+            while (pos < capacity && mBuffer.get(pos) == 0) {
+                pos++;
+            }
+            if (pos < capacity) {
+                for (int i = mEnd; i < capacity; i++) {
+                    mBuffer.put(i, (byte) 0);
+                }
+            }
+        }
+    }
+}
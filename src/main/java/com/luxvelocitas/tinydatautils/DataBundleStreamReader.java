@@ -0,0 +1,221 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * DataBundleStreamReader
+ *
+ * Reads a sequence of DataBundles written by DataBundleStreamWriter.
+ * <p>
+ * Block lengths are checked against a maximum block size before any buffer
+ * is allocated, so that a corrupt block header causes an IOException rather
+ * than an OutOfMemoryError. A block holds at least one whole DataBundle, so
+ * streams of DataBundles larger than the default need a larger maximum.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public class DataBundleStreamReader implements Closeable {
+    public static final int DEFAULT_MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+
+    private final InputStream mIn;
+    private final int mMaxBlockSize;
+    private final Inflater mInflater;
+    private byte[] mRaw;
+    private byte[] mCompressed;
+    private BinaryReader mBlock;
+
+    private final ArrayList<String> mKeys;
+    private final DataBundleStreamWriter.ValueHistory mHistory;
+
+    // Last key read in full which did not fit in the dictionary
+    private String mLiteralKey;
+
+    /**
+     * Constructs a new DataBundleStreamReader with the default maximum block
+     * size and reads the stream header.
+     *
+     * @param in the stream to read from
+     * @throws IOException if the header is missing or not recognized
+     */
+    public DataBundleStreamReader(InputStream in) throws IOException {
+        this(in, DEFAULT_MAX_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructs a new DataBundleStreamReader and reads the stream header.
+     *
+     * @param in the stream to read from
+     * @param maxBlockSize the largest uncompressed block length to accept
+     * @throws IOException if the header is missing or not recognized
+     */
+    public DataBundleStreamReader(InputStream in, int maxBlockSize) throws IOException {
+        if (maxBlockSize <= 0) {
+            throw new IllegalArgumentException("maxBlockSize must be positive: " + maxBlockSize);
+        }
+        mIn = in;
+        mMaxBlockSize = maxBlockSize;
+        mInflater = new Inflater();
+        mRaw = new byte[0];
+        mCompressed = new byte[0];
+        mKeys = new ArrayList<String>();
+        mHistory = new DataBundleStreamWriter.ValueHistory();
+
+        byte[] header = new byte[5];
+        DataBundleCodec.readFully(mIn, header, header.length);
+        BinaryReader r = new BinaryReader(header);
+        if (r.readInt() != DataBundleStreamWriter.MAGIC) {
+            throw new IOException("Not a DataBundle stream");
+        }
+        int version = r.readByte();
+        if (version != DataBundleStreamWriter.VERSION) {
+            throw new IOException("Unsupported DataBundle stream version " + version);
+        }
+    }
+
+    /**
+     * Reads the next DataBundle from the stream.
+     *
+     * @return a new DataBundle, or null at the end of the stream
+     * @throws IOException if the stream throws or the data is malformed
+     */
+    public DataBundle read() throws IOException {
+        if (mBlock == null || mBlock.remaining() == 0) {
+            if (!readBlock()) {
+                return null;
+            }
+        }
+        BinaryReader r = mBlock;
+        int count = r.readVarInt();
+        if (count < 0 || count > r.remaining()) {
+            throw new IOException("Malformed entry count " + count);
+        }
+        DataBundle ret = new DataBundle(DataBundleCodec.capacityFor(count));
+        for (int i = 0; i < count; i++) {
+            int index = readKey(r);
+            String key = (index < 0) ? mLiteralKey : mKeys.get(index);
+            ret.putValue(key, readValue(r, index));
+        }
+        return ret;
+    }
+
+    /**
+     * Releases the Inflater and closes the underlying stream.
+     *
+     * @throws IOException if the stream throws
+     */
+    public void close() throws IOException {
+        mInflater.end();
+        mIn.close();
+    }
+
+    private int readKey(BinaryReader r) throws IOException {
+        int ref = r.readVarInt();
+        if (ref != 0) {
+            int index = ref - 1;
+            if (index < 0 || index >= mKeys.size()) {
+                throw new IOException("Unknown key reference " + ref);
+            }
+            return index;
+        }
+        String key = r.readString();
+        if (mKeys.size() < DataBundleStreamWriter.MAX_KEYS) {
+            mKeys.add(key);
+            return mKeys.size() - 1;
+        }
+        mLiteralKey = key;
+        return -1;
+    }
+
+    private Object readValue(BinaryReader r, int index) throws IOException {
+        byte tag = r.readByte();
+        switch (tag) {
+            case DataBundle.TYPE_CODE_SHORT:
+            case DataBundle.TYPE_CODE_INT:
+            case DataBundle.TYPE_CODE_LONG: {
+                char code = (char) tag;
+                long v = mHistory.previous(index, code) + r.readZigZagLong();
+                mHistory.set(index, code, v);
+                if (code == DataBundle.TYPE_CODE_SHORT) {
+                    return (short) v;
+                }
+                return (code == DataBundle.TYPE_CODE_INT) ? (Object) (int) v : (Object) v;
+            }
+            case DataBundle.TYPE_CODE_FLOAT:
+            case DataBundle.TYPE_CODE_DOUBLE: {
+                char code = (char) tag;
+                long bits = mHistory.previous(index, code) ^ r.readVarLong();
+                mHistory.set(index, code, bits);
+                if (code == DataBundle.TYPE_CODE_FLOAT) {
+                    return Float.intBitsToFloat((int) bits);
+                }
+                return Double.longBitsToDouble(bits);
+            }
+            default:
+                return DataBundleCodec.readValue(tag, r);
+        }
+    }
+
+    private boolean readBlock() throws IOException {
+        int rawLength = DataBundleCodec.readVarInt(mIn);
+        if (rawLength < 0) {
+            return false;
+        }
+        int storedLength = DataBundleCodec.readVarInt(mIn);
+        if (storedLength < 0) {
+            throw new IOException("Truncated block header");
+        }
+        if (rawLength > mMaxBlockSize) {
+            throw new IOException("Block of " + rawLength + " bytes exceeds the maximum of " + mMaxBlockSize);
+        }
+        // The writer only stores a block compressed if that makes it smaller
+        if (storedLength >= rawLength && storedLength != 0) {
+            throw new IOException("Malformed block header, " + storedLength
+                    + " compressed bytes for " + rawLength);
+        }
+        if (mRaw.length < rawLength) {
+            mRaw = new byte[rawLength];
+        }
+        if (storedLength == 0) {
+            DataBundleCodec.readFully(mIn, mRaw, rawLength);
+        }
+        else {
+            if (mCompressed.length < storedLength) {
+                mCompressed = new byte[storedLength];
+            }
+            DataBundleCodec.readFully(mIn, mCompressed, storedLength);
+            inflate(storedLength, rawLength);
+        }
+        mBlock = new BinaryReader(mRaw, 0, rawLength);
+        return true;
+    }
+
+    private void inflate(int storedLength, int rawLength) throws IOException {
+        mInflater.reset();
+        mInflater.setInput(mCompressed, 0, storedLength);
+        try {
+            int n = 0;
+            while (n < rawLength && !mInflater.finished()) {
+                int m = mInflater.inflate(mRaw, n, rawLength - n);
+                if (m == 0 && (mInflater.needsInput() || mInflater.needsDictionary())) {
+                    break;
+                }
+                n += m;
+            }
+            if (n != rawLength) {
+                throw new IOException("Corrupt block, expected " + rawLength
+                        + " bytes but inflated " + n);
+            }
+        }
+        catch (DataFormatException e) {
+            IOException ioe = new IOException("Corrupt block");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * DataBundleStreamWriter
+ *
+ * Writes a sequence of DataBundles as a compressed stream, to be read
+ * back with DataBundleStreamReader.
+ * <p>
+ * Three techniques are layered on top of the DataBundleCodec value encoding:
+ * <ul>
+ * <li>Keys are written in full only once per stream, after which they are
+ *     referred to by a small index into a shared key dictionary.</li>
+ * <li>Top-level short, int and long values are written as the zigzag
+ *     difference from the previous value of the same key, float and double
+ *     values as the XOR with the bits of the previous value.</li>
+ * <li>Encoded bundles are collected into blocks of about blockSize bytes,
+ *     and each block is compressed with java.util.zip.Deflater.</li>
+ * </ul>
+ * Larger blocks and higher levels give a better ratio at the expense of
+ * speed, Deflater.NO_COMPRESSION stores blocks as they are.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public class DataBundleStreamWriter implements Closeable, Flushable {
+    static final int MAGIC = 0x54444253; // "TDBS"
+    static final int VERSION = 1;
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    // Keys beyond this many are always written in full
+    static final int MAX_KEYS = 1 << 16;
+
+    private final OutputStream mOut;
+    private final int mBlockSize;
+    private final Deflater mDeflater;
+    private final BinaryWriter mBlock;
+    private byte[] mCompressed;
+
+    private final HashMap<String, Integer> mKeys;
+    private final ValueHistory mHistory;
+    private boolean mClosed;
+
+    /**
+     * Constructs a new DataBundleStreamWriter with the default block size
+     * and compression level.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing the stream header fails
+     */
+    public DataBundleStreamWriter(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructs a new DataBundleStreamWriter.
+     *
+     * @param out the stream to write to
+     * @param blockSize the uncompressed size in bytes after which a block is completed
+     * @param level a Deflater compression level, or Deflater.NO_COMPRESSION
+     * @throws IOException if writing the stream header fails
+     */
+    public DataBundleStreamWriter(OutputStream out, int blockSize, int level) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        mOut = out;
+        mBlockSize = blockSize;
+        mDeflater = (level == Deflater.NO_COMPRESSION) ? null : new Deflater(level);
+        mBlock = new BinaryWriter(blockSize + blockSize / 4);
+        mCompressed = new byte[0];
+        mKeys = new HashMap<String, Integer>();
+        mHistory = new ValueHistory();
+
+        BinaryWriter header = new BinaryWriter(8);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeTo(mOut);
+    }
+
+    /**
+     * Appends a DataBundle to the stream. The bundle may be buffered until
+     * the current block is complete or flush() is called.
+     *
+     * @param bundle a DataBundle
+     * @throws IOException if writing a completed block fails
+     */
+    public void write(DataBundle bundle) throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed");
+        }
+        int start = mBlock.size();
+        mBlock.writeVarInt(bundle.size());
+        for (Map.Entry<String, Object> entry : bundle.entrySet()) {
+            int index = writeKey(entry.getKey());
+            writeValue(index, entry.getValue());
+        }
+        DataBundleStats.recordSerializedBytes(mBlock.size() - start);
+
+        if (mBlock.size() >= mBlockSize) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Completes the current block and flushes the underlying stream.
+     *
+     * @throws IOException if the stream throws
+     */
+    public void flush() throws IOException {
+        if (mBlock.size() > 0) {
+            writeBlock();
+        }
+        mOut.flush();
+    }
+
+    /**
+     * Completes the current block, releases the Deflater and closes the
+     * underlying stream.
+     *
+     * @throws IOException if the stream throws
+     */
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        try {
+            flush();
+        }
+        finally {
+            mClosed = true;
+            if (mDeflater != null) {
+                mDeflater.end();
+            }
+            mOut.close();
+        }
+    }
+
+    // Write a reference to the key and return its index, or -1
+    // if it was written in full and is not in the dictionary
+    private int writeKey(String key) {
+        Integer index = mKeys.get(key);
+        if (index != null) {
+            mBlock.writeVarInt(index + 1);
+            return index;
+        }
+        mBlock.writeVarInt(0);
+        mBlock.writeString(key);
+        if (mKeys.size() < MAX_KEYS) {
+            int ret = mKeys.size();
+            mKeys.put(key, ret);
+            return ret;
+        }
+        return -1;
+    }
+
+    private void writeValue(int index, Object value) {
+        char code = (value == null) ? 0 : DataBundle.typeCodeOf(value);
+        switch (code) {
+            case DataBundle.TYPE_CODE_SHORT:
+            case DataBundle.TYPE_CODE_INT:
+            case DataBundle.TYPE_CODE_LONG: {
+                long v = ((Number) value).longValue();
+                mBlock.writeByte(code);
+                mBlock.writeZigZagLong(v - mHistory.previous(index, code));
+                mHistory.set(index, code, v);
+                break;
+            }
+            case DataBundle.TYPE_CODE_FLOAT:
+            case DataBundle.TYPE_CODE_DOUBLE: {
+                long bits = (code == DataBundle.TYPE_CODE_FLOAT)
+                        ? Float.floatToRawIntBits((Float) value) & 0xFFFFFFFFL
+                        : Double.doubleToRawLongBits((Double) value);
+                mBlock.writeByte(code);
+                mBlock.writeVarLong(bits ^ mHistory.previous(index, code));
+                mHistory.set(index, code, bits);
+                break;
+            }
+            default:
+                DataBundleCodec.writeValue(value, mBlock);
+        }
+    }
+
+    // Block format: varint raw length, varint stored length, stored bytes.
+    // A stored length of zero means the raw bytes follow uncompressed.
+    private void writeBlock() throws IOException {
+        int rawLength = mBlock.size();
+        int storedLength = 0;
+        if (mDeflater != null) {
+            storedLength = deflate(rawLength);
+            if (storedLength >= rawLength) {
+                storedLength = 0;
+            }
+        }
+        DataBundleCodec.writeVarInt(mOut, rawLength);
+        DataBundleCodec.writeVarInt(mOut, storedLength);
+        if (storedLength == 0) {
+            mBlock.writeTo(mOut);
+        }
+        else {
+            mOut.write(mCompressed, 0, storedLength);
+        }
+        mBlock.reset();
+    }
+
+    private int deflate(int rawLength) {
+        mDeflater.reset();
+        mDeflater.setInput(mBlock.array(), 0, rawLength);
+        mDeflater.finish();
+        if (mCompressed.length < rawLength + 64) {
+            mCompressed = new byte[rawLength + 64];
+        }
+        int ret = 0;
+        while (!mDeflater.finished()) {
+            ret += mDeflater.deflate(mCompressed, ret, mCompressed.length - ret);
+            if (ret == mCompressed.length && !mDeflater.finished()) {
+                // Incompressible, the caller will store the block raw
+                return rawLength;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The previous numeric value of each dictionary key, shared by the
+     * writer and the reader so that both sides compute the same deltas.
+     */
+    static final class ValueHistory {
+        private long[] mValues = new long[16];
+        private char[] mCodes = new char[16];
+
+        // The previous value of the key, or 0 if it had a different type
+        long previous(int index, char code) {
+            if (index < 0 || index >= mCodes.length || mCodes[index] != code) {
+                return 0L;
+            }
+            return mValues[index];
+        }
+
+        void set(int index, char code, long value) {
+            if (index < 0) {
+                return;
+            }
+            if (index >= mCodes.length) {
+                int capacity = Math.max(mCodes.length << 1, index + 1);
+                long[] values = new long[capacity];
+                char[] codes = new char[capacity];
+                System.arraycopy(mValues, 0, values, 0, mValues.length);
+                System.arraycopy(mCodes, 0, codes, 0, mCodes.length);
+                mValues = values;
+                mCodes = codes;
+            }
+            mValues[index] = value;
+            mCodes[index] = code;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.luxvelocitas.tinydatautils;
+
+/**
+ * Computes the weight of a DataBundle held by a DataBundleCache.
+ * Weights must be non-negative and must not change while a bundle is cached.
+ */
+public interface DataBundleWeigher {
+    /**
+     * Weighs bundles by their estimated retained heap size in bytes.
+     */
+    DataBundleWeigher RETAINED_SIZE = new DataBundleWeigher() {
+        public long weigh(DataBundle bundle) {
+            return bundle.estimateRetainedSize();
+        }
+    };
+
+    /**
+     * Gives every bundle a weight of one, so the cache bounds the number of entries.
+     */
+    DataBundleWeigher SINGLETON = new DataBundleWeigher() {
+        public long weigh(DataBundle bundle) {
+            return 1L;
+        }
+    };
+
+    /**
+     * @param bundle a DataBundle
+     * @return the weight of the bundle
+     */
+    long weigh(DataBundle bundle);
+}
@@ -3,8 +3,25 @@ package com.luxvelocitas.tinydatautils;
 import java.io.OutputStream;
 
 /**
+ * An OutputStream which discards everything written to it. Bulk writes
+ * take constant time, so it adds no cost of its own when measuring the
+ * throughput of an encoder.
  */
 public class DummyOutputStream extends OutputStream {
     @Override
     public void write(int b) { /*[NOOP] */ }
+
+    @Override
+    public void write(byte[] b) { /*[NOOP] */ }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        checkBounds(b, off, len);
+    }
+
+    static void checkBounds(byte[] b, int off, int len) {
+        if ((off | len | (b.length - (off + len))) < 0) {
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + b.length);
+        }
+    }
 }
@@ -0,0 +1,182 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IdAllocator
+ *
+ * Hands out unique long ids to many threads without a shared counter on
+ * the fast path. Each thread leases a block of consecutive ids from a
+ * shared high-water mark and then takes ids from its block with no
+ * synchronization, so the shared counter is only touched once per block.
+ * <p>
+ * Ids are unique and increase within each thread, but are not ordered
+ * between threads, and the unused rest of a block is lost when its thread
+ * ends, so the ids are not dense.
+ * <p>
+ * An IdAllocator opened on a file persists a reserved mark ahead of the
+ * leased blocks before any id beyond it is handed out, and resumes from
+ * that mark when the file is opened again, so ids stay unique across
+ * restarts, at the cost of skipping the ids reserved but not handed out.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public class IdAllocator implements Closeable {
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    // The number of blocks reserved in the file at a time
+    private static final int RESERVE_BLOCKS = 64;
+
+    private static final IdAllocator sDefault = new IdAllocator();
+
+    private final AtomicLong mNext;
+    private final int mBlockSize;
+    private final ThreadLocal<Block> mBlocks = new ThreadLocal<Block>() {
+        @Override
+        protected Block initialValue() {
+            return new Block();
+        }
+    };
+
+    private final RandomAccessFile mFile;
+    private volatile long mReserved;
+
+    /**
+     * Constructs a new IdAllocator which starts at 1 and is not persisted.
+     */
+    public IdAllocator() {
+        this(1L, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructs a new IdAllocator which is not persisted.
+     *
+     * @param start the first id
+     * @param blockSize the number of ids leased by a thread at a time
+     */
+    public IdAllocator(long start, int blockSize) {
+        this(start, blockSize, null, Long.MAX_VALUE);
+    }
+
+    private IdAllocator(long start, int blockSize, RandomAccessFile file, long reserved) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Bad block size: " + blockSize);
+        }
+        mNext = new AtomicLong(start);
+        mBlockSize = blockSize;
+        mFile = file;
+        mReserved = reserved;
+    }
+
+    /**
+     * Opens an IdAllocator which persists its high-water mark in the given
+     * file, creating the file if it does not exist.
+     *
+     * @param file the file holding the high-water mark
+     * @param start the first id if the file does not exist yet
+     * @param blockSize the number of ids leased by a thread at a time
+     * @return a new IdAllocator, which must be closed
+     * @throws IOException if the file cannot be read
+     */
+    public static IdAllocator open(File file, long start, int blockSize) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long mark = start;
+            if (raf.length() >= 8) {
+                mark = Math.max(start, raf.readLong());
+            }
+            return new IdAllocator(mark, blockSize, raf, mark);
+        }
+        catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the shared IdAllocator used by MetadataObject.assignId(),
+     *     which starts at 1 and is not persisted
+     */
+    public static IdAllocator getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * @return a new unique id
+     * @throws IllegalStateException if the high-water mark cannot be persisted
+     */
+    public long nextId() {
+        Block block = mBlocks.get();
+        if (block.mNext == block.mEnd) {
+            lease(block);
+        }
+        return block.mNext++;
+    }
+
+    /**
+     * @return the next id which has not been leased to any thread
+     */
+    public long getHighWaterMark() {
+        return mNext.get();
+    }
+
+    /**
+     * @return the number of ids leased by a thread at a time
+     */
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    /**
+     * Closes the file holding the high-water mark, if any. Threads must not
+     * lease new blocks afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mFile != null) {
+            synchronized (this) {
+                mFile.close();
+            }
+        }
+    }
+
+    private void lease(Block block) {
+        long start = mNext.getAndAdd(mBlockSize);
+        long end = start + mBlockSize;
+        if (end < start) {
+            throw new IllegalStateException("Ids exhausted");
+        }
+        if (end > mReserved) {
+            reserve(end);
+        }
+        block.mNext = start;
+        block.mEnd = end;
+    }
+
+    // Persist a mark at or beyond end before any id below it is handed out
+    private synchronized void reserve(long end) {
+        if (end <= mReserved) {
+            return;
+        }
+        long mark = Math.max(end, mReserved + (long) mBlockSize * RESERVE_BLOCKS);
+        try {
+            mFile.seek(0);
+            mFile.writeLong(mark);
+            mFile.getFD().sync();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        mReserved = mark;
+    }
+
+    private static final class Block {
+        long mNext;
+        long mEnd;
+    }
+}
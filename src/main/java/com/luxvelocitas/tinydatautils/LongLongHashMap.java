@@ -0,0 +1,213 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive long keys to primitive long values, using open
+ * addressing with linear probing so that neither keys nor values are boxed.
+ * <p>
+ * Absent keys are reported with the missing value given at construction.
+ * A LongLongHashMap is not thread-safe.
+ */
+public class LongLongHashMap {
+    private static final float LOAD_FACTOR = 0.6f;
+
+    // Key 0 marks an empty slot, so the key 0 itself is held separately
+    private long[] mKeys;
+    private long[] mValues;
+    private int mSize;
+    private int mThreshold;
+    private boolean mHasZeroKey;
+    private long mZeroValue;
+
+    private final long mMissingValue;
+
+    /**
+     * Constructs a new, empty LongLongHashMap.
+     *
+     * @param missingValue the value returned for absent keys
+     */
+    public LongLongHashMap(long missingValue) {
+        this(16, missingValue);
+    }
+
+    /**
+     * Constructs a new LongLongHashMap sized to hold the given number of
+     * entries without growing.
+     *
+     * @param capacity the expected number of entries
+     * @param missingValue the value returned for absent keys
+     */
+    public LongLongHashMap(int capacity, long missingValue) {
+        mMissingValue = missingValue;
+        allocate(tableSizeFor(capacity));
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return mSize + (mHasZeroKey ? 1 : 0);
+    }
+
+    /**
+     * @return the value returned for absent keys
+     */
+    public long missingValue() {
+        return mMissingValue;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return mHasZeroKey;
+        }
+        return mKeys[find(key)] == key;
+    }
+
+    /**
+     * @param key a key
+     * @return the value for the key, or the missing value
+     */
+    public long get(long key) {
+        if (key == 0) {
+            return mHasZeroKey ? mZeroValue : mMissingValue;
+        }
+        int i = find(key);
+        return (mKeys[i] == key) ? mValues[i] : mMissingValue;
+    }
+
+    /**
+     * @param key a key
+     * @param value the new value
+     * @return the previous value for the key, or the missing value
+     */
+    public long put(long key, long value) {
+        if (key == 0) {
+            long ret = mHasZeroKey ? mZeroValue : mMissingValue;
+            mHasZeroKey = true;
+            mZeroValue = value;
+            return ret;
+        }
+        int i = find(key);
+        if (mKeys[i] == key) {
+            long ret = mValues[i];
+            mValues[i] = value;
+            return ret;
+        }
+        mKeys[i] = key;
+        mValues[i] = value;
+        if (++mSize > mThreshold) {
+            rehash(mKeys.length << 1);
+        }
+        return mMissingValue;
+    }
+
+    /**
+     * @param key a key
+     * @return the removed value for the key, or the missing value
+     */
+    public long remove(long key) {
+        if (key == 0) {
+            long ret = mHasZeroKey ? mZeroValue : mMissingValue;
+            mHasZeroKey = false;
+            return ret;
+        }
+        int i = find(key);
+        if (mKeys[i] != key) {
+            return mMissingValue;
+        }
+        long ret = mValues[i];
+        shiftBack(i);
+        mSize--;
+        return ret;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        Arrays.fill(mKeys, 0L);
+        mSize = 0;
+        mHasZeroKey = false;
+    }
+
+    /**
+     * @return a new array holding all keys, in no particular order
+     */
+    public long[] keys() {
+        long[] ret = new long[size()];
+        int n = 0;
+        if (mHasZeroKey) {
+            ret[n++] = 0L;
+        }
+        for (long key : mKeys) {
+            if (key != 0) {
+                ret[n++] = key;
+            }
+        }
+        return ret;
+    }
+
+    // The slot holding the key, or the empty slot where it would go
+    private int find(long key) {
+        int mask = mKeys.length - 1;
+        int i = mix(key) & mask;
+        while (mKeys[i] != 0 && mKeys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    // Backward shift deletion keeps probe sequences intact without tombstones
+    private void shiftBack(int i) {
+        int mask = mKeys.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (mKeys[j] == 0) {
+                break;
+            }
+            int home = mix(mKeys[j]) & mask;
+            // Move the entry at j into the gap if its home is not in (i, j]
+            if ((j > i) ? (home <= i || home > j) : (home <= i && home > j)) {
+                mKeys[i] = mKeys[j];
+                mValues[i] = mValues[j];
+                i = j;
+            }
+        }
+        mKeys[i] = 0;
+    }
+
+    private void rehash(int tableSize) {
+        long[] keys = mKeys;
+        long[] values = mValues;
+        allocate(tableSize);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                int j = find(keys[i]);
+                mKeys[j] = keys[i];
+                mValues[j] = values[i];
+            }
+        }
+    }
+
+    private void allocate(int tableSize) {
+        mKeys = new long[tableSize];
+        mValues = new long[tableSize];
+        mThreshold = (int) (tableSize * LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int ret = 16;
+        while (ret * LOAD_FACTOR < capacity) {
+            ret <<= 1;
+        }
+        return ret;
+    }
+
+    // Spread the bits of the key, ids are often sequential
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -86,6 +86,28 @@ public abstract class MetadataObject {
         mMetadata.putLong(ID_KEY, id);
     }
 
+    /**
+     * Set the special metadata field "id" to a new unique id from the
+     * default IdAllocator
+     *
+     * @return the new id
+     */
+    public long assignId() {
+        return assignId(IdAllocator.getDefault());
+    }
+
+    /**
+     * Set the special metadata field "id" to a new unique id
+     *
+     * @param allocator  the IdAllocator to take the id from
+     * @return the new id
+     */
+    public long assignId(IdAllocator allocator) {
+        long id = allocator.nextId();
+        mMetadata.putLong(ID_KEY, id);
+        return id;
+    }
+
     /**
      * Get the special metadata field "name"
      *
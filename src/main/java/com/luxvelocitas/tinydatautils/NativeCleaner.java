@@ -0,0 +1,146 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Frees native resources whose Java owners were garbage collected without
+ * being closed, in the spirit of java.lang.ref.Cleaner (which is not
+ * available on the Java 1.6 baseline).
+ * <p>
+ * Each Resource is a PhantomReference to its owner. A daemon thread waits
+ * for the references of collected owners and frees their resources, and
+ * counts them as leaked. Set the system property tinydatautils.leaktraces
+ * to record where each resource was created and report it with the leak.
+ */
+final class NativeCleaner {
+    static final boolean TRACE = Boolean.getBoolean("tinydatautils.leaktraces");
+
+    private static final ReferenceQueue<Object> sQueue = new ReferenceQueue<Object>();
+
+    // Resources which are not yet released. A PhantomReference must stay
+    // reachable itself or it is never enqueued.
+    private static final Set<Resource> sLive =
+            Collections.newSetFromMap(new ConcurrentHashMap<Resource, Boolean>());
+
+    private NativeCleaner() { }
+
+    // Class initialization starts the thread exactly once, without a
+    // lock on the path of every later Resource
+    private static final class Holder {
+        static final Thread THREAD = start();
+    }
+
+    private static Thread ensureStarted() {
+        return Holder.THREAD;
+    }
+
+    private static Thread start() {
+        Thread ret = new Thread("tinydatautils-cleaner") {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        ((Resource) sQueue.remove()).leaked();
+                    } catch (InterruptedException e) {
+                        // Keep going, the cleaner runs for the life of the VM
+                    } catch (Throwable t) {
+                        /*[FIXME: logging]*/
+                        System.err.println("Failed to free leaked native resource: " + t);
+                    }
+                }
+            }
+        };
+        ret.setDaemon(true);
+        ret.start();
+        return ret;
+    }
+
+    /**
+     * Counts the lifecycle of one kind of native resource.
+     */
+    static final class Counters {
+        final StripedCounter mCreated = new StripedCounter();
+        final StripedCounter mClosed = new StripedCounter();
+        final StripedCounter mLeaked = new StripedCounter();
+
+        long live() {
+            return mCreated.sum() - mClosed.sum() - mLeaked.sum();
+        }
+    }
+
+    /**
+     * A native resource owned by a Java object, freed exactly once either
+     * by release() or by the cleaner after the owner is collected.
+     */
+    abstract static class Resource extends PhantomReference<Object> {
+        private final long mPtr;
+        private final String mKind;
+        private final Counters mCounters;
+        private final Throwable mTrace;
+        private final AtomicBoolean mReleased = new AtomicBoolean();
+
+        /**
+         * @param owner the Java object owning the resource, which must not
+         *     be referenced by the Resource itself
+         * @param ptr the native pointer
+         * @param kind a name for the kind of resource, for leak reports
+         * @param counters the counters for the kind of resource
+         */
+        Resource(Object owner, long ptr, String kind, Counters counters) {
+            super(owner, sQueue);
+            mPtr = ptr;
+            mKind = kind;
+            mCounters = counters;
+            mTrace = TRACE ? new Throwable(kind + " created here") : null;
+            sLive.add(this);
+            counters.mCreated.increment();
+            ensureStarted();
+        }
+
+        long pointer() {
+            return mPtr;
+        }
+
+        boolean isReleased() {
+            return mReleased.get();
+        }
+
+        /**
+         * Frees the resource now.
+         *
+         * @return false if it was already released
+         */
+        boolean release() {
+            if (!mReleased.compareAndSet(false, true)) {
+                return false;
+            }
+            sLive.remove(this);
+            clear();
+            free(mPtr);
+            mCounters.mClosed.increment();
+            return true;
+        }
+
+        void leaked() {
+            if (!mReleased.compareAndSet(false, true)) {
+                return;
+            }
+            sLive.remove(this);
+            free(mPtr);
+            mCounters.mLeaked.increment();
+            /*[FIXME: logging]*/
+            System.err.println("Leaked " + mKind + " 0x" + Long.toHexString(mPtr)
+                    + " was freed by the cleaner, it should have been closed");
+            if (mTrace != null) {
+                mTrace.printStackTrace();
+            }
+        }
+
+        abstract void free(long ptr);
+    }
+}
@@ -0,0 +1,72 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.Random;
+
+/**
+ * Platform
+ *
+ * Operations on hot paths which have faster implementations on newer
+ * JVMs. This is the Java 1.6 implementation. The multi-release JAR
+ * carries replacements of this class under META-INF/versions, which the
+ * JVM loads in its place when it is new enough, so callers never need to
+ * check the Java version themselves.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+final class Platform {
+    private static final Random sRandom = new Random();
+
+    private Platform() { }
+
+    /**
+     * @return the Java version this implementation was built for
+     */
+    static int version() {
+        return 6;
+    }
+
+    /**
+     * @return a Random for the calling thread, which must not be passed to
+     *     other threads
+     */
+    static Random random() {
+        return sRandom;
+    }
+
+    /**
+     * Reads a big-endian long from a byte array.
+     *
+     * @param b a byte array
+     * @param off the offset of the first byte, at most b.length - 8
+     * @return the value
+     */
+    static long getLong(byte[] b, int off) {
+        long hi = ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+        long lo = ((b[off + 4] & 0xFF) << 24) | ((b[off + 5] & 0xFF) << 16)
+                | ((b[off + 6] & 0xFF) << 8) | (b[off + 7] & 0xFF);
+        return (hi << 32) | (lo & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Writes a big-endian long into a byte array.
+     *
+     * @param b a byte array
+     * @param off the offset of the first byte, at most b.length - 8
+     * @param v the value
+     */
+    static void putLong(byte[] b, int off, long v) {
+        // Shifting ints is cheaper than shifting the long eight times
+        int hi = (int) (v >>> 32);
+        int lo = (int) v;
+        b[off] = (byte) (hi >>> 24);
+        b[off + 1] = (byte) (hi >>> 16);
+        b[off + 2] = (byte) (hi >>> 8);
+        b[off + 3] = (byte) hi;
+        b[off + 4] = (byte) (lo >>> 24);
+        b[off + 5] = (byte) (lo >>> 16);
+        b[off + 6] = (byte) (lo >>> 8);
+        b[off + 7] = (byte) lo;
+    }
+}
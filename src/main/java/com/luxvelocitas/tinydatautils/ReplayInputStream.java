@@ -0,0 +1,108 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.InputStream;
+
+/**
+ * An InputStream which reads the same bytes a given number of times over,
+ * and can be rewound with reset(). It is the input side counterpart of
+ * DummyOutputStream, for measuring the throughput of a decoder on a
+ * recorded sample without the cost of a real source.
+ * <p>
+ * Bulk reads copy straight from the backing array, which is not copied
+ * and must not be modified while the stream is in use. A ReplayInputStream
+ * is not thread-safe.
+ */
+public class ReplayInputStream extends InputStream {
+    private final byte[] mData;
+    private final long mLength;
+    private long mPos;
+    private long mMark;
+
+    /**
+     * Constructs a new ReplayInputStream which reads the data once.
+     *
+     * @param data the bytes to read
+     */
+    public ReplayInputStream(byte[] data) {
+        this(data, 1);
+    }
+
+    /**
+     * Constructs a new ReplayInputStream.
+     *
+     * @param data the bytes to read
+     * @param repeat the number of times to read the data
+     */
+    public ReplayInputStream(byte[] data, int repeat) {
+        if (repeat < 0) {
+            throw new IllegalArgumentException("repeat must not be negative: " + repeat);
+        }
+        mData = data;
+        mLength = (long) data.length * repeat;
+    }
+
+    @Override
+    public int read() {
+        if (mPos >= mLength) {
+            return -1;
+        }
+        return mData[(int) (mPos++ % mData.length)] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        DummyOutputStream.checkBounds(b, off, len);
+        if (len == 0) {
+            return 0;
+        }
+        if (mPos >= mLength) {
+            return -1;
+        }
+        int ret = 0;
+        while (ret < len && mPos < mLength) {
+            int start = (int) (mPos % mData.length);
+            int n = (int) Math.min(Math.min(len - ret, mData.length - start), mLength - mPos);
+            System.arraycopy(mData, start, b, off + ret, n);
+            ret += n;
+            mPos += n;
+        }
+        return ret;
+    }
+
+    @Override
+    public long skip(long n) {
+        long ret = Math.max(0L, Math.min(n, mLength - mPos));
+        mPos += ret;
+        return ret;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, mLength - mPos);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+        mMark = mPos;
+    }
+
+    /**
+     * Rewinds to the last mark, or to the start if there is none.
+     */
+    @Override
+    public void reset() {
+        mPos = mMark;
+    }
+
+    /**
+     * @return the current position, counted from the start of the first repeat
+     */
+    public long getPosition() {
+        return mPos;
+    }
+}
@@ -0,0 +1,175 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * StringDictionary
+ *
+ * A concurrent dictionary which assigns small integer codes to String
+ * values, for low-cardinality values such as status codes, device types
+ * and names.
+ * <p>
+ * A DataBundle given a StringDictionary with setStringDictionary() stores
+ * the dictionary's canonical instance of each String it is given, so equal
+ * values share one String, and equal canonical values compare as equal by
+ * reference. DataBundleCodec can write dictionary values as their codes
+ * instead of their characters; the same dictionary, or one rebuilt from
+ * toArray(), is then needed to decode them.
+ * <p>
+ * Codes are assigned in order of first use and never change. Once the
+ * dictionary holds maxSize values, further values are left as they are, so
+ * that unexpectedly high-cardinality values cannot grow it without bound.
+ *
+ * @author Konrad Markus <konker@luxvelocitas>
+ *
+ */
+public class StringDictionary {
+    public static final int DEFAULT_MAX_SIZE = 1 << 16;
+
+    private final ConcurrentHashMap<String, Integer> mCodes;
+    private final int mMaxSize;
+
+    // Written under the lock, the size is published after the value
+    private volatile String[] mValues;
+    private volatile int mSize;
+
+    /**
+     * Constructs a new, empty StringDictionary with the default maximum size.
+     */
+    public StringDictionary() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructs a new, empty StringDictionary.
+     *
+     * @param maxSize the maximum number of values
+     */
+    public StringDictionary(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        mMaxSize = maxSize;
+        mCodes = new ConcurrentHashMap<String, Integer>();
+        mValues = new String[16];
+    }
+
+    /**
+     * Constructs a StringDictionary holding the given values, with codes
+     * equal to their indexes, for example to decode data encoded with a
+     * dictionary exported by toArray().
+     *
+     * @param values distinct values
+     * @param maxSize the maximum number of values
+     * @throws IllegalArgumentException if a value is null or repeated
+     */
+    public StringDictionary(String[] values, int maxSize) {
+        this(Math.max(maxSize, values.length));
+        for (String value : values) {
+            // encode() returns the existing code of a repeated value, which
+            // would shift the codes of all later values
+            if (value == null || codeOf(value) >= 0) {
+                throw new IllegalArgumentException("Duplicate or null value: " + value);
+            }
+            encode(value);
+        }
+    }
+
+    /**
+     * Returns the canonical instance of the given value, adding it to the
+     * dictionary if there is room.
+     *
+     * @param value a String, or null
+     * @return the canonical String equal to value, or value itself if the
+     *     dictionary is full or value is null
+     */
+    public String intern(String value) {
+        int code = encode(value);
+        return (code < 0) ? value : mValues[code];
+    }
+
+    /**
+     * Returns the code of the given value, adding it to the dictionary if
+     * there is room.
+     *
+     * @param value a String, or null
+     * @return the code, or -1 if the dictionary is full or value is null
+     */
+    public int encode(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer code = mCodes.get(value);
+        if (code != null) {
+            return code;
+        }
+        return add(value);
+    }
+
+    /**
+     * @param value a String, or null
+     * @return the code of the value, or -1 if it is not in the dictionary
+     */
+    public int codeOf(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer code = mCodes.get(value);
+        return (code == null) ? -1 : code;
+    }
+
+    /**
+     * @param code a code
+     * @return the canonical String for the code
+     * @throws IndexOutOfBoundsException if the code has not been assigned
+     */
+    public String get(int code) {
+        if (code < 0 || code >= mSize) {
+            throw new IndexOutOfBoundsException("code: " + code + ", size: " + mSize);
+        }
+        return mValues[code];
+    }
+
+    /**
+     * @return the number of values
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return a new array holding the values, indexed by code
+     */
+    public String[] toArray() {
+        int size = mSize;
+        String[] ret = new String[size];
+        System.arraycopy(mValues, 0, ret, 0, size);
+        return ret;
+    }
+
+    private synchronized int add(String value) {
+        Integer code = mCodes.get(value);
+        if (code != null) {
+            return code;
+        }
+        int size = mSize;
+        if (size >= mMaxSize) {
+            return -1;
+        }
+        String[] values = mValues;
+        if (size == values.length) {
+            String[] grown = new String[Math.min(values.length * 2, mMaxSize)];
+            System.arraycopy(values, 0, grown, 0, size);
+            values = grown;
+        }
+        values[size] = value;
+        mValues = values;
+        mSize = size + 1;
+        mCodes.put(value, size);
+        return size;
+    }
+}
@@ -0,0 +1,79 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A low-contention counter which spreads updates across a number of
+ * cache-line padded cells, in the spirit of java.util.concurrent.atomic.LongAdder
+ * (which is not available on the Java 1.6 baseline).
+ * <p>
+ * Updates are cheap and scale with the number of updating threads,
+ * reads sum all of the cells and are therefore comparatively expensive.
+ */
+public class StripedCounter {
+    // Number of longs in a 64 byte cache line
+    static final int PADDING = 8;
+
+    static final int STRIPES = stripeCount();
+
+    private final AtomicLongArray mCells;
+
+    public StripedCounter() {
+        mCells = new AtomicLongArray(STRIPES * PADDING);
+    }
+
+    /**
+     * Adds the given value to this counter.
+     *
+     * @param x the value to add
+     */
+    public void add(long x) {
+        mCells.addAndGet(stripe() * PADDING, x);
+    }
+
+    /**
+     * Increments this counter by one.
+     */
+    public void increment() {
+        add(1L);
+    }
+
+    /**
+     * Returns the current sum of this counter. The result is not an atomic
+     * snapshot when there are concurrent updates.
+     *
+     * @return the sum as a long
+     */
+    public long sum() {
+        long ret = 0L;
+        for (int i = 0; i < STRIPES; i++) {
+            ret += mCells.get(i * PADDING);
+        }
+        return ret;
+    }
+
+    /**
+     * Resets all cells of this counter to zero.
+     */
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            mCells.set(i * PADDING, 0L);
+        }
+    }
+
+    // Choose the cell for the calling thread
+    static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 32)) & (STRIPES - 1);
+    }
+
+    // A power of two, at least as large as the number of processors, capped at 64
+    private static int stripeCount() {
+        int n = Runtime.getRuntime().availableProcessors();
+        int ret = 1;
+        while (ret < n && ret < 64) {
+            ret <<= 1;
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,150 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A low-contention histogram of non-negative long values with power-of-two
+ * buckets. Bucket 0 holds the value 0, bucket n holds values in
+ * the range [2^(n-1), 2^n).
+ * <p>
+ * Each updating thread is mapped to its own row of buckets, in the same
+ * way as StripedCounter, so that concurrent recording does not contend.
+ */
+public class StripedHistogram {
+    public static final int BUCKETS = 65;
+
+    // Each row holds the buckets followed by the running sum,
+    // padded to a multiple of a cache line
+    private static final int SUM_INDEX = BUCKETS;
+    private static final int ROW = ((BUCKETS + 1 + StripedCounter.PADDING - 1)
+            / StripedCounter.PADDING) * StripedCounter.PADDING;
+
+    private final AtomicLongArray mCells;
+
+    public StripedHistogram() {
+        mCells = new AtomicLongArray(StripedCounter.STRIPES * ROW);
+    }
+
+    /**
+     * Records a value in this histogram. Negative values are recorded as 0.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int base = StripedCounter.stripe() * ROW;
+        mCells.incrementAndGet(base + bucketFor(value));
+        mCells.addAndGet(base + SUM_INDEX, value);
+    }
+
+    /**
+     * Resets all buckets of this histogram to zero.
+     */
+    public void reset() {
+        for (int i = 0; i < mCells.length(); i++) {
+            mCells.set(i, 0L);
+        }
+    }
+
+    /**
+     * @return a point-in-time copy of this histogram
+     */
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long sum = 0L;
+        for (int s = 0; s < StripedCounter.STRIPES; s++) {
+            int base = s * ROW;
+            for (int b = 0; b < BUCKETS; b++) {
+                buckets[b] += mCells.get(base + b);
+            }
+            sum += mCells.get(base + SUM_INDEX);
+        }
+        return new Snapshot(buckets, sum);
+    }
+
+    static int bucketFor(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * An immutable copy of the state of a StripedHistogram.
+     */
+    public static final class Snapshot {
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mSum;
+
+        Snapshot(long[] buckets, long sum) {
+            long count = 0L;
+            for (long b : buckets) {
+                count += b;
+            }
+            mBuckets = buckets;
+            mCount = count;
+            mSum = sum;
+        }
+
+        /**
+         * @return the number of recorded values
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return the sum of all recorded values
+         */
+        public long getSum() {
+            return mSum;
+        }
+
+        /**
+         * @return the mean of all recorded values, or 0.0 if there are none
+         */
+        public double getMean() {
+            return (mCount == 0) ? 0.0 : (double) mSum / mCount;
+        }
+
+        /**
+         * Returns the count of a single bucket.
+         *
+         * @param bucket a bucket index in [0, BUCKETS)
+         * @return the number of values recorded in the bucket
+         */
+        public long getBucket(int bucket) {
+            return mBuckets[bucket];
+        }
+
+        /**
+         * Returns an upper bound for the given quantile. The result is the
+         * largest value which falls into the same bucket as the quantile,
+         * so it is an inclusive bound.
+         *
+         * @param q a quantile in [0.0, 1.0]
+         * @return an upper bound for the value at the given quantile
+         */
+        public long getQuantileUpperBound(double q) {
+            if (mCount == 0) {
+                return 0L;
+            }
+            long rank = (long) Math.ceil(q * mCount);
+            long seen = 0L;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += mBuckets[b];
+                if (seen >= rank && mBuckets[b] > 0) {
+                    return (b == 0) ? 0L : (b >= 64 ? Long.MAX_VALUE : (1L << b) - 1);
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount + " sum=" + mSum + " mean=" + getMean()
+                    + " p50<=" + getQuantileUpperBound(0.5)
+                    + " p99<=" + getQuantileUpperBound(0.99);
+        }
+    }
+}
@@ -1,22 +1,19 @@
 package com.luxvelocitas.tinydatautils;
 
+import java.util.NoSuchElementException;
 import java.util.Random;
 
 public class Util {
-    private static Random sRandom;
-
     private Util() { }
 
     // Fisher–Yates shuffle
     public static void shuffleIntArrayInPlace(int[] array) {
-        if (sRandom == null) {
-            sRandom = new Random();
-        }
+        Random random = Platform.random();
 
         int count = array.length;
         int j, temp;
         for (int i = count; i>1; i--) {
-            j = sRandom.nextInt(i);
+            j = random.nextInt(i);
 
             // Swap arrray[i-1] and array[j]
             temp = array[i-1];
@@ -43,4 +40,178 @@ public class Util {
         // Copy the shuffled sub array back to the original array after offset
         System.arraycopy(subArray, 0, array, offset, subArrayCount);
     }
+
+    /**
+     * Returns a random permutation of 0..n-1 which is computed on demand,
+     * so that it takes constant memory however large n is.
+     *
+     * @param n the number of elements
+     * @param seed the seed, the same seed always gives the same permutation
+     * @return a new Permutation
+     */
+    public static Permutation permutation(long n, long seed) {
+        return new Permutation(n, seed);
+    }
+
+    /**
+     * A seeded random permutation of 0..n-1 with random access.
+     * <p>
+     * The permutation is a Feistel network over the smallest even number of
+     * bits which covers n, made to fit 0..n-1 exactly by cycle walking:
+     * results of n or above are fed through the network again, which on
+     * average takes fewer than four rounds of the network per element.
+     * <p>
+     * A Permutation is immutable and can be shared between threads. Use
+     * split() to give each thread its own Cursor over part of the range.
+     */
+    public static final class Permutation {
+        private static final int ROUNDS = 6;
+
+        private final long mSize;
+        private final long mSeed;
+        private final int mHalfBits;
+        private final long mHalfMask;
+        private final long[] mKeys = new long[ROUNDS];
+
+        Permutation(long n, long seed) {
+            if (n < 0) {
+                throw new IllegalArgumentException("n must not be negative: " + n);
+            }
+            mSize = n;
+            mSeed = seed;
+            int bits = 64 - Long.numberOfLeadingZeros(Math.max(n - 1, 1));
+            mHalfBits = (bits + 1) / 2;
+            mHalfMask = (mHalfBits == 32) ? 0xFFFFFFFFL : (1L << mHalfBits) - 1;
+            long state = seed;
+            for (int i = 0; i < ROUNDS; i++) {
+                state += 0x9E3779B97F4A7C15L;
+                mKeys[i] = mix(state);
+            }
+        }
+
+        /**
+         * @return the number of elements
+         */
+        public long size() {
+            return mSize;
+        }
+
+        public long getSeed() {
+            return mSeed;
+        }
+
+        /**
+         * @param index an index in 0..size()-1
+         * @return the element at the given index, which is in 0..size()-1
+         */
+        public long get(long index) {
+            if (index < 0 || index >= mSize) {
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + mSize);
+            }
+            long ret = encrypt(index);
+            // With 64 bits the result can be negative, which is also out of range
+            while (ret < 0 || ret >= mSize) {
+                ret = encrypt(ret);
+            }
+            return ret;
+        }
+
+        /**
+         * @return a Cursor over the whole permutation
+         */
+        public Cursor cursor() {
+            return new Cursor(this, 0, mSize);
+        }
+
+        /**
+         * @param from the first index, inclusive
+         * @param to the last index, exclusive
+         * @return a Cursor over the given range of indexes
+         */
+        public Cursor cursor(long from, long to) {
+            if (from < 0 || to > mSize || from > to) {
+                throw new IndexOutOfBoundsException("from: " + from + ", to: " + to + ", size: " + mSize);
+            }
+            return new Cursor(this, from, to);
+        }
+
+        /**
+         * Splits the permutation into contiguous ranges of indexes of
+         * nearly equal length, for consumption by separate threads.
+         *
+         * @param parts the number of ranges
+         * @return an array of parts Cursors which together cover the permutation
+         */
+        public Cursor[] split(int parts) {
+            if (parts <= 0) {
+                throw new IllegalArgumentException("parts must be positive: " + parts);
+            }
+            Cursor[] ret = new Cursor[parts];
+            long chunk = mSize / parts;
+            long extra = mSize % parts;
+            long from = 0;
+            for (int i = 0; i < parts; i++) {
+                long to = from + chunk + (i < extra ? 1 : 0);
+                ret[i] = new Cursor(this, from, to);
+                from = to;
+            }
+            return ret;
+        }
+
+        private long encrypt(long x) {
+            long left = (x >>> mHalfBits) & mHalfMask;
+            long right = x & mHalfMask;
+            for (int i = 0; i < ROUNDS; i++) {
+                long t = left ^ (mix(right ^ mKeys[i]) & mHalfMask);
+                left = right;
+                right = t;
+            }
+            return (left << mHalfBits) | right;
+        }
+
+        // The SplitMix64 finalizer
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+
+    /**
+     * Iterates over a range of indexes of a Permutation, returning elements
+     * without boxing. A Cursor is not thread-safe.
+     */
+    public static final class Cursor {
+        private final Permutation mPermutation;
+        private final long mTo;
+        private long mNext;
+
+        Cursor(Permutation permutation, long from, long to) {
+            mPermutation = permutation;
+            mNext = from;
+            mTo = to;
+        }
+
+        public boolean hasNext() {
+            return mNext < mTo;
+        }
+
+        /**
+         * @return the next element
+         * @throws NoSuchElementException if the range is exhausted
+         */
+        public long next() {
+            if (mNext >= mTo) {
+                throw new NoSuchElementException();
+            }
+            return mPermutation.get(mNext++);
+        }
+
+        /**
+         * @return the number of elements left in the range
+         */
+        public long remaining() {
+            return mTo - mNext;
+        }
+    }
 }
@@ -0,0 +1,213 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Segmented LRU eviction, the weight budget and the statistics of
+ * DataBundleCache.
+ */
+public class DataBundleCacheTest extends TestCase {
+
+    // Weighs bundles by their "w" entry
+    private static final DataBundleWeigher BY_W = new DataBundleWeigher() {
+        public long weigh(DataBundle bundle) {
+            return bundle.getLong("w");
+        }
+    };
+
+    private static DataBundle bundle(long w) {
+        DataBundle b = new DataBundle();
+        b.putLong("w", w);
+        return b;
+    }
+
+    // One shard, so that the eviction order is fully determined
+    private static DataBundleCache cache(long maxEntries) {
+        return new DataBundleCache(maxEntries, DataBundleWeigher.SINGLETON, 1);
+    }
+
+    private static void putAll(DataBundleCache cache, int from, int to) {
+        for (int key = from; key <= to; key++) {
+            assertTrue(cache.put(key, bundle(1)));
+        }
+    }
+
+    private static void assertCached(DataBundleCache cache, int from, int to) {
+        for (int key = from; key <= to; key++) {
+            assertNotNull("key " + key, cache.get(key));
+        }
+    }
+
+    public void testProbationEvictedInLruOrder() {
+        DataBundleCache cache = cache(10);
+        putAll(cache, 1, 10);
+        assertEquals(10, cache.size());
+        // Promote 2, so that 1 and then 3 are the oldest probationary entries
+        assertNotNull(cache.get(2));
+        putAll(cache, 11, 12);
+
+        assertEquals(10, cache.size());
+        assertEquals(10L, cache.weightedSize());
+        assertNull(cache.get(1));
+        assertNull(cache.get(3));
+        assertCached(cache, 4, 12);
+        assertCached(cache, 2, 2);
+    }
+
+    public void testScanDoesNotFlushProtectedEntries() {
+        DataBundleCache cache = cache(10);
+        putAll(cache, 1, 5);
+        assertCached(cache, 1, 5);
+        // A scan of keys which are read only once
+        putAll(cache, 100, 199);
+
+        assertEquals(10, cache.size());
+        assertCached(cache, 1, 5);
+        assertCached(cache, 195, 199);
+        assertNull(cache.get(194));
+        assertEquals(95L, cache.stats().getEvictionCount());
+    }
+
+    public void testProtectedSegmentDemotesWhenFull() {
+        DataBundleCache cache = cache(10);
+        putAll(cache, 1, 10);
+        // The protected segment holds 8 of 10, so reading 9 and 10 demotes 1 and 2
+        assertCached(cache, 1, 10);
+        putAll(cache, 11, 12);
+
+        assertNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertCached(cache, 3, 12);
+    }
+
+    public void testWeightBudget() {
+        DataBundleCache cache = new DataBundleCache(100, BY_W, 1);
+        assertEquals(100L, cache.maxWeight());
+        assertTrue(cache.put(1, bundle(60)));
+        assertTrue(cache.put(2, bundle(30)));
+        assertEquals(90L, cache.weightedSize());
+        // Evicts 1, the oldest probationary entry
+        assertTrue(cache.put(3, bundle(20)));
+        assertNull(cache.get(1));
+        assertEquals(50L, cache.weightedSize());
+
+        // Replacing an entry changes its weight in place
+        assertTrue(cache.put(2, bundle(70)));
+        assertEquals(2, cache.size());
+        assertEquals(90L, cache.weightedSize());
+
+        // Heavier than the whole budget: rejected, and any old entry removed
+        assertFalse(cache.put(3, bundle(101)));
+        assertNull(cache.get(3));
+        assertEquals(70L, cache.weightedSize());
+
+        DataBundleCache.Stats stats = cache.stats();
+        assertEquals(1L, stats.getEvictionCount());
+        assertEquals(60L, stats.getEvictedWeight());
+        assertEquals(1L, stats.getRejectionCount());
+    }
+
+    public void testWeightBudgetAcrossShards() {
+        DataBundleCache cache = new DataBundleCache(64 * 1024, DataBundleWeigher.RETAINED_SIZE, 8);
+        Random random = new Random(33L);
+        for (int i = 0; i < 20000; i++) {
+            DataBundle b = new DataBundle();
+            b.putIntArray("a", new int[random.nextInt(200)]);
+            cache.put(random.nextInt(5000), b);
+            if (i % 1000 == 0) {
+                assertTrue(cache.weightedSize() <= cache.maxWeight());
+            }
+        }
+        assertTrue(cache.weightedSize() <= cache.maxWeight());
+        assertTrue(cache.size() > 0);
+    }
+
+    public void testStats() {
+        DataBundleCache cache = cache(10);
+        assertEquals(1.0, cache.stats().getHitRate(), 0.0);
+
+        putAll(cache, 1, 3);
+        cache.get(1);
+        cache.get(2);
+        cache.get(3);
+        cache.get(4);
+        DataBundleCache.Stats stats = cache.stats();
+        assertEquals(3L, stats.getHitCount());
+        assertEquals(1L, stats.getMissCount());
+        assertEquals(0.75, stats.getHitRate(), 0.0);
+        assertEquals(0L, stats.getEvictionCount());
+        assertEquals(0L, stats.getRejectionCount());
+
+        // Invalidation is not eviction, and statistics are kept
+        assertNotNull(cache.invalidate(1));
+        assertNull(cache.invalidate(1));
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(0L, cache.weightedSize());
+        assertNull(cache.get(2));
+        stats = cache.stats();
+        assertEquals(3L, stats.getHitCount());
+        assertEquals(2L, stats.getMissCount());
+        assertEquals(0L, stats.getEvictionCount());
+    }
+
+    public void testSlotsReusedAfterRemoval() {
+        DataBundleCache cache = cache(1000);
+        for (int round = 0; round < 5; round++) {
+            putAll(cache, 0, 999);
+            assertEquals(1000, cache.size());
+            assertCached(cache, 0, 999);
+            cache.invalidateAll();
+        }
+        assertEquals(0L, cache.stats().getEvictionCount());
+    }
+
+    public void testConcurrentAccess() throws InterruptedException {
+        final DataBundleCache cache = new DataBundleCache(500, DataBundleWeigher.SINGLETON, 4);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 50000; i++) {
+                        long key = random.nextInt(2000);
+                        if (random.nextBoolean()) {
+                            cache.put(key, bundle(key));
+                        }
+                        else {
+                            DataBundle b = cache.get(key);
+                            if (b != null && b.getLong("w") != key) {
+                                failure.compareAndSet(null, "Wrong bundle for " + key);
+                            }
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertTrue(cache.size() <= 500);
+        assertEquals(cache.size(), cache.weightedSize());
+        DataBundleCache.Stats stats = cache.stats();
+        assertTrue(stats.getHitCount() + stats.getMissCount() > 0);
+    }
+
+    public void testNonPositiveBudgetFails() {
+        try {
+            new DataBundleCache(0);
+            fail("Accepted a zero budget");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Round trips of DataBundleCodec for every value tag, and decoding of
+ * malformed input.
+ */
+public class DataBundleCodecTest extends TestCase {
+
+    private static DataBundle allTypes() {
+        DataBundle b = new DataBundle();
+        b.putBoolean("z", true);
+        b.putByte("b", (byte) -7);
+        b.putChar("c", '\u00e9');
+        b.putShort("s", Short.MIN_VALUE);
+        b.putInt("i", -123456);
+        b.putLong("l", Long.MAX_VALUE);
+        b.putFloat("f", 1.5f);
+        b.putDouble("d", -0.0);
+        b.putString("x", "hello \u4e16\u754c \ud83d\ude00");
+        b.putString("empty", "");
+        b.putByteArray("B", new byte[] { 0, -1, 127 });
+        b.putIntArray("I", new int[] { Integer.MIN_VALUE, 0, Integer.MAX_VALUE });
+        b.putLongArray("L", new long[] { Long.MIN_VALUE, -1L, 1L << 40 });
+        b.putDoubleArray("D", new double[] { Double.NaN, Double.NEGATIVE_INFINITY, 3.25 });
+        b.put("null", null);
+        return b;
+    }
+
+    private static DataBundle roundTrip(DataBundle b) throws IOException {
+        return DataBundleCodec.decode(DataBundleCodec.encode(b));
+    }
+
+    public void testRoundTripEveryTag() throws IOException {
+        DataBundle b = allTypes();
+        DataBundle decoded = roundTrip(b);
+
+        assertEquals(b, decoded);
+        assertEquals(b.size(), decoded.size());
+        assertTrue(decoded.containsKey("null"));
+        assertNull(decoded.get("null"));
+        assertEquals(Byte.valueOf((byte) -7), decoded.get("b"));
+        assertEquals(Character.valueOf('\u00e9'), decoded.get("c"));
+        assertEquals(Short.valueOf(Short.MIN_VALUE), decoded.get("s"));
+        assertEquals(Float.valueOf(1.5f), decoded.get("f"));
+        assertEquals(Double.doubleToRawLongBits(-0.0),
+                Double.doubleToRawLongBits((Double) decoded.get("d")));
+        assertEquals("", decoded.getString("empty"));
+        assertTrue(Arrays.equals(new long[] { Long.MIN_VALUE, -1L, 1L << 40 }, decoded.getLongArray("L")));
+        assertTrue(Double.isNaN(decoded.getDoubleArray("D")[0]));
+    }
+
+    public void testRoundTripNestedBundles() throws IOException {
+        DataBundle inner = new DataBundle();
+        inner.putIntArray("values", new int[] { 1, 2, 3 });
+        inner.putDataBundle("empty", new DataBundle());
+        DataBundle middle = new DataBundle();
+        middle.putDataBundle("inner", inner);
+        middle.putString("name", "middle");
+        DataBundle outer = allTypes();
+        outer.putDataBundle("middle", middle);
+
+        DataBundle decoded = roundTrip(outer);
+
+        assertEquals(outer, decoded);
+        DataBundle decodedInner = decoded.getBundle("middle").getBundle("inner");
+        assertNotSame(inner, decodedInner);
+        assertTrue(Arrays.equals(new int[] { 1, 2, 3 }, decodedInner.getIntArray("values")));
+        assertEquals(0, decodedInner.getBundle("empty").size());
+    }
+
+    public void testRoundTripEmptyBundleAndArrays() throws IOException {
+        DataBundle b = new DataBundle();
+        assertEquals(b, roundTrip(b));
+
+        b.putByteArray("B", new byte[0]);
+        b.putDoubleArray("D", new double[0]);
+        assertEquals(b, roundTrip(b));
+    }
+
+    public void testCharSequenceIsDecodedAsString() throws IOException {
+        DataBundle b = new DataBundle();
+        b.putCharSequence("cs", new StringBuilder("abc"));
+        assertEquals("abc", roundTrip(b).get("cs"));
+    }
+
+    public void testDictionaryStrings() throws IOException {
+        StringDictionary dictionary = new StringDictionary();
+        dictionary.intern("thermostat");
+        DataBundle b = new DataBundle();
+        b.putString("device", "thermostat");
+        b.putString("room", "kitchen");
+
+        BinaryWriter w = new BinaryWriter();
+        DataBundleCodec.encode(b, w, dictionary);
+        DataBundle decoded = DataBundleCodec.decode(new BinaryReader(w.toByteArray()), dictionary);
+        assertEquals(b, decoded);
+
+        try {
+            DataBundleCodec.decode(w.toByteArray());
+            fail("Decoded a dictionary code without a dictionary");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testStreamRecords() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryWriter scratch = new BinaryWriter();
+        DataBundle first = allTypes();
+        DataBundle second = new DataBundle();
+        second.putInt("n", 2);
+        DataBundleCodec.writeTo(first, out, scratch);
+        DataBundleCodec.writeTo(second, out, scratch);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertEquals(first, DataBundleCodec.readFrom(in));
+        assertEquals(second, DataBundleCodec.readFrom(in));
+        assertNull(DataBundleCodec.readFrom(in));
+    }
+
+    public void testTruncatedInputFails() {
+        byte[] data = DataBundleCodec.encode(allTypes());
+        for (int len = 0; len < data.length; len++) {
+            try {
+                DataBundleCodec.decode(data, 0, len);
+                fail("Decoded " + len + " of " + data.length + " bytes");
+            }
+            catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testTruncatedStreamRecordFails() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataBundleCodec.writeTo(allTypes(), out, new BinaryWriter());
+        byte[] data = out.toByteArray();
+        try {
+            DataBundleCodec.readFrom(new ByteArrayInputStream(data, 0, data.length - 1));
+            fail("Read a truncated record");
+        }
+        catch (EOFException e) {
+            // expected
+        }
+    }
+
+    public void testUnknownTagFails() {
+        BinaryWriter w = new BinaryWriter();
+        w.writeVarInt(1);
+        w.writeString("k");
+        w.writeByte('?');
+        try {
+            DataBundleCodec.decode(w.toByteArray());
+            fail("Decoded an unknown tag");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Unknown value tag"));
+        }
+    }
+
+    public void testBadLengthsFail() {
+        // An entry count larger than the remaining input
+        BinaryWriter w = new BinaryWriter();
+        w.writeVarInt(1000);
+        assertMalformed(w.toByteArray());
+
+        // A negative entry count
+        w.reset();
+        w.writeVarInt(-1);
+        assertMalformed(w.toByteArray());
+
+        // An array length larger than the remaining input
+        w.reset();
+        w.writeVarInt(1);
+        w.writeString("k");
+        w.writeByte(DataBundle.TYPE_CODE_DOUBLE_ARRAY);
+        w.writeVarInt(1 << 20);
+        assertMalformed(w.toByteArray());
+
+        // A varint which never ends
+        assertMalformed(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF });
+    }
+
+    private static DataBundle nested(int depth) {
+        DataBundle ret = new DataBundle();
+        ret.putInt("leaf", depth);
+        for (int i = 0; i < depth; i++) {
+            DataBundle outer = new DataBundle();
+            outer.putDataBundle("k", ret);
+            ret = outer;
+        }
+        return ret;
+    }
+
+    public void testMaxDepthRoundTrips() throws IOException {
+        DataBundle b = nested(DataBundleCodec.MAX_DEPTH);
+        assertEquals(b, roundTrip(b));
+
+        try {
+            DataBundleCodec.encode(nested(DataBundleCodec.MAX_DEPTH + 1));
+            fail("Encoded bundles nested too deeply to decode");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testDeepNestingFails() {
+        // Far deeper than the stack would allow a recursive decoder to go
+        BinaryWriter w = new BinaryWriter();
+        for (int i = 0; i < 100000; i++) {
+            w.writeVarInt(1);
+            w.writeString("k");
+            w.writeByte(DataBundleCodec.TAG_BUNDLE);
+        }
+        w.writeVarInt(0);
+        try {
+            DataBundleCodec.decode(w.toByteArray());
+            fail("Decoded bundles nested too deeply");
+        }
+        catch (IOException e) {
+            assertEquals("DataBundles nested too deeply", e.getMessage());
+        }
+    }
+
+    public void testOversizedStreamRecordFails() throws IOException {
+        // A length of Integer.MAX_VALUE and no payload
+        byte[] header = { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };
+        try {
+            DataBundleCodec.readFrom(new ByteArrayInputStream(header));
+            fail("Accepted a record longer than the maximum");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Record of 2147483647 bytes"));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataBundleCodec.writeTo(allTypes(), out, new BinaryWriter());
+        byte[] data = out.toByteArray();
+        assertEquals(allTypes(), DataBundleCodec.readFrom(new ByteArrayInputStream(data), data.length));
+        try {
+            DataBundleCodec.readFrom(new ByteArrayInputStream(data), 16);
+            fail("Accepted a record longer than the maximum");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testUnsupportedValueFails() {
+        DataBundle b = new DataBundle();
+        b.put("o", new Object());
+        try {
+            DataBundleCodec.encode(b);
+            fail("Encoded an arbitrary Object");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testWriterRefusesToOverflow() {
+        BinaryWriter w = new BinaryWriter();
+        w.writeByte(1);
+        try {
+            w.ensureCapacity(Integer.MAX_VALUE);
+            fail("Grew past the largest array");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(1, w.size());
+    }
+
+    private static void assertMalformed(byte[] data) {
+        try {
+            DataBundleCodec.decode(data);
+            fail("Decoded malformed input " + Arrays.toString(data));
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * DataBundle.diff(), takeDelta() and applyDelta(), and the encoding of
+ * DataBundleDelta, used to keep a replica equal to its primary.
+ */
+public class DataBundleDeltaTest extends TestCase {
+
+    private static DataBundle base() {
+        DataBundle inner = new DataBundle();
+        inner.putInt("n", 1);
+        DataBundle b = new DataBundle();
+        b.putInt("same", 1);
+        b.putString("changed", "old");
+        b.putLong("removed", 7L);
+        b.putIntArray("array", new int[] { 1, 2 });
+        b.putDataBundle("inner", inner);
+        return b;
+    }
+
+    private static DataBundleDelta roundTrip(DataBundleDelta delta) throws IOException {
+        return DataBundleDelta.decode(delta.encode());
+    }
+
+    public void testDiff() throws IOException {
+        DataBundle base = base();
+        DataBundle target = new DataBundle(base);
+        target.putString("changed", "new");
+        target.remove("removed");
+        target.putDouble("added", 2.5);
+        // Equal content in a new array is not a change
+        target.putIntArray("array", new int[] { 1, 2 });
+        DataBundle inner = new DataBundle();
+        inner.putInt("n", 2);
+        target.putDataBundle("inner", inner);
+
+        DataBundleDelta delta = target.diff(base);
+        assertEquals(Collections.singleton("added"), delta.getAdded().keySet());
+        assertEquals(2, delta.getChanged().size());
+        assertEquals("new", delta.getChanged().get("changed"));
+        assertTrue(delta.getChanged().containsKey("inner"));
+        assertEquals(Collections.singletonList("removed"), delta.getRemoved());
+        assertEquals(4, delta.size());
+
+        base.applyDelta(roundTrip(delta));
+        assertEquals(target, base);
+        assertTrue(target.diff(base).isEmpty());
+    }
+
+    public void testDiffOfEqualBundlesIsEmpty() {
+        assertTrue(base().diff(base()).isEmpty());
+        assertEquals(0, new DataBundle().diff(new DataBundle()).size());
+    }
+
+    public void testTakeDelta() throws IOException {
+        DataBundle primary = base();
+        DataBundle replica = new DataBundle(primary);
+        primary.setTrackChanges(true);
+        assertTrue(primary.isTrackingChanges());
+
+        primary.putString("changed", "new");
+        primary.remove("removed");
+        primary.putInt("added", 3);
+        // Added and removed again between deltas: no change at all
+        primary.putInt("transient", 1);
+        primary.remove("transient");
+        // Removed and put back: a change
+        primary.remove("same");
+        primary.putInt("same", 2);
+
+        DataBundleDelta delta = primary.takeDelta();
+        assertEquals(Collections.singleton("added"), delta.getAdded().keySet());
+        assertTrue(delta.getChanged().containsKey("changed"));
+        assertTrue(delta.getChanged().containsKey("same"));
+        assertEquals(Collections.singletonList("removed"), delta.getRemoved());
+        assertFalse(delta.getAdded().containsKey("transient"));
+
+        replica.applyDelta(roundTrip(delta));
+        assertEquals(primary, replica);
+    }
+
+    public void testTakeDeltaSeesNestedChanges() throws IOException {
+        DataBundle primary = base();
+        DataBundle replica = DataBundleCodec.decode(DataBundleCodec.encode(primary));
+        primary.setTrackChanges(true);
+
+        // Modified in place, without a put on the primary
+        primary.getBundle("inner").putInt("n", 99);
+        DataBundleDelta delta = primary.takeDelta();
+        assertTrue(delta.getChanged().containsKey("inner"));
+
+        replica.applyDelta(roundTrip(delta));
+        assertEquals(primary, replica);
+        assertEquals(99, replica.getBundle("inner").getInt("n"));
+    }
+
+    public void testTakeDeltaRequiresTracking() {
+        DataBundle b = base();
+        try {
+            b.takeDelta();
+            fail("Took a delta without tracking");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+        b.setTrackChanges(true);
+        b.setTrackChanges(false);
+        assertFalse(b.isTrackingChanges());
+    }
+
+    public void testReplicaFollowsRandomChanges() throws IOException {
+        Random random = new Random(29L);
+        DataBundle primary = new DataBundle();
+        primary.putDataBundle("nested", new DataBundle());
+        DataBundle replica = new DataBundle(primary);
+        replica.putDataBundle("nested", new DataBundle());
+        primary.setTrackChanges(true);
+
+        for (int round = 0; round < 200; round++) {
+            for (int op = random.nextInt(10); op >= 0; op--) {
+                String key = "k" + random.nextInt(20);
+                switch (random.nextInt(6)) {
+                    case 0:
+                        primary.remove(key);
+                        break;
+                    case 1:
+                        primary.putString(key, "s" + random.nextInt(5));
+                        break;
+                    case 2:
+                        primary.putDoubleArray(key, new double[] { random.nextDouble() });
+                        break;
+                    case 3:
+                        primary.getBundle("nested").putInt(key, random.nextInt(5));
+                        break;
+                    default:
+                        primary.putInt(key, random.nextInt(5));
+                        break;
+                }
+            }
+            replica.applyDelta(roundTrip(primary.takeDelta()));
+            assertEquals("round " + round, primary, replica);
+            assertEquals(primary.hashCode(), replica.hashCode());
+        }
+    }
+
+    public void testEncodeDecode() throws IOException {
+        DataBundle target = base();
+        target.putByteArray("bytes", new byte[] { 1, 2, 3 });
+        target.put("null", null);
+        target.remove("removed");
+        DataBundleDelta delta = target.diff(new DataBundle());
+        DataBundleDelta decoded = roundTrip(delta);
+
+        assertEquals(delta.getAdded().keySet(), decoded.getAdded().keySet());
+        assertTrue(Arrays.equals((byte[]) delta.getAdded().get("bytes"), (byte[]) decoded.getAdded().get("bytes")));
+        assertTrue(decoded.getAdded().containsKey("null"));
+        assertNull(decoded.getAdded().get("null"));
+        assertEquals(delta.getAdded().get("inner"), decoded.getAdded().get("inner"));
+        assertTrue(decoded.getChanged().isEmpty());
+
+        DataBundleDelta empty = roundTrip(new DataBundle().diff(new DataBundle()));
+        assertTrue(empty.isEmpty());
+    }
+
+    public void testMalformedDeltaFails() {
+        byte[] data = base().diff(new DataBundle()).encode();
+        for (int len = 0; len < data.length; len++) {
+            try {
+                DataBundleDelta.decode(Arrays.copyOf(data, len));
+                fail("Decoded " + len + " of " + data.length + " bytes");
+            }
+            catch (IOException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.TestCase;
+
+/**
+ * Reading files written by DataBundleFileWriter in one pass, split into
+ * ranges and in parallel, and reading damaged files.
+ */
+public class DataBundleFileTest extends TestCase {
+    private static final int COUNT = 2000;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws IOException {
+        mFile = File.createTempFile("DataBundleFileTest", ".tdbf");
+    }
+
+    @Override
+    protected void tearDown() {
+        mFile.delete();
+    }
+
+    private static DataBundle bundle(int id) {
+        DataBundle b = new DataBundle();
+        b.putInt("id", id);
+        b.putString("name", "bundle-" + id);
+        // Records of varying length, so that sync entries fall at every offset
+        b.putIntArray("values", new int[id % 37]);
+        return b;
+    }
+
+    private void writeFile(int syncInterval) throws IOException {
+        DataBundleFileWriter writer = new DataBundleFileWriter(
+                new BufferedOutputStream(new FileOutputStream(mFile)), syncInterval);
+        for (int id = 0; id < COUNT; id++) {
+            writer.write(bundle(id));
+        }
+        writer.close();
+    }
+
+    private int[] readSplits(DataBundleFileReader reader, int parts) throws IOException {
+        int[] seen = new int[COUNT];
+        for (DataBundleFileReader.Split split : reader.split(parts)) {
+            DataBundle b;
+            while ((b = split.read()) != null) {
+                int id = b.getInt("id");
+                assertEquals(bundle(id), b);
+                seen[id]++;
+            }
+            assertNull(split.read());
+        }
+        return seen;
+    }
+
+    public void testEveryRecordExactlyOnceAcrossSplits() throws IOException {
+        for (int syncInterval : new int[] { 1, 100, 4096, DataBundleFileWriter.DEFAULT_SYNC_INTERVAL }) {
+            writeFile(syncInterval);
+            DataBundleFileReader reader = new DataBundleFileReader(mFile);
+            try {
+                for (int parts = 1; parts <= 300; parts += (parts < 20) ? 1 : 37) {
+                    int[] seen = readSplits(reader, parts);
+                    for (int id = 0; id < COUNT; id++) {
+                        assertEquals("sync " + syncInterval + " parts " + parts + " id " + id, 1, seen[id]);
+                    }
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+    }
+
+    public void testSplitsCoverTheFile() throws IOException {
+        writeFile(100);
+        DataBundleFileReader reader = new DataBundleFileReader(mFile);
+        try {
+            for (int parts : new int[] { 1, 7, 64 }) {
+                DataBundleFileReader.Split[] splits = reader.split(parts);
+                assertEquals(parts, splits.length);
+                assertEquals(0L, splits[0].getStart());
+                for (int i = 1; i < splits.length; i++) {
+                    assertEquals(splits[i - 1].getEnd(), splits[i].getStart());
+                }
+                assertEquals(reader.length(), splits[splits.length - 1].getEnd());
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    public void testReadParallel() throws IOException {
+        writeFile(512);
+        final AtomicIntegerArray seen = new AtomicIntegerArray(COUNT);
+        DataBundleFileReader reader = new DataBundleFileReader(mFile);
+        try {
+            long n = reader.readParallel(4, new DataBundleFileReader.Handler() {
+                public void handle(DataBundle bundle) {
+                    seen.incrementAndGet(bundle.getInt("id"));
+                }
+            });
+            assertEquals(COUNT, n);
+        }
+        finally {
+            reader.close();
+        }
+        for (int id = 0; id < COUNT; id++) {
+            assertEquals(1, seen.get(id));
+        }
+    }
+
+    public void testNegativeRecordLengthFails() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        DataBundleFileWriter writer = new DataBundleFileWriter(out, 1024);
+        writer.write(bundle(1));
+        writer.flush();
+        // A five byte varint with bit 31 set
+        out.write(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F });
+        out.write(new byte[64]);
+        writer.close();
+
+        DataBundleFileReader reader = new DataBundleFileReader(mFile);
+        try {
+            DataBundleFileReader.Split split = reader.split(1)[0];
+            assertEquals(bundle(1), split.read());
+            split.read();
+            fail("Read a negative record length");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed record length"));
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    public void testNotADataBundleFile() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[64]);
+        out.close();
+        try {
+            new DataBundleFileReader(mFile).close();
+            fail("Opened a file without a header");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+}
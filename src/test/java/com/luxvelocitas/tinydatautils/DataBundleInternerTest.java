@@ -0,0 +1,230 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Content equality and hashing of DataBundle, and interning equal
+ * DataBundles with DataBundleInterner.
+ */
+public class DataBundleInternerTest extends TestCase {
+
+    private static DataBundle sample() {
+        DataBundle inner = new DataBundle();
+        inner.putDoubleArray("d", new double[] { 1.5, Double.NaN });
+        DataBundle b = new DataBundle();
+        b.putInt("i", 1);
+        b.putString("s", "x");
+        b.put("null", null);
+        b.putIntArray("ints", new int[] { 1, 2, 3 });
+        b.putByteArray("bytes", new byte[] { 4 });
+        b.putLongArray("longs", new long[] { 5L });
+        b.putDataBundle("inner", inner);
+        return b;
+    }
+
+    private static void assertEqualBundles(DataBundle a, DataBundle b) {
+        assertEquals(a, b);
+        assertEquals(b, a);
+        assertEquals(a.hashCode(), b.hashCode());
+    }
+
+    public void testEqualContentInFreshArrays() {
+        DataBundle a = sample();
+        DataBundle b = sample();
+        assertNotSame(a.getIntArray("ints"), b.getIntArray("ints"));
+        assertEqualBundles(a, b);
+        assertEqualBundles(a, new DataBundle(a));
+        assertEqualBundles(new DataBundle(), new DataBundle());
+    }
+
+    public void testOrderAndHistoryDoNotMatter() {
+        DataBundle a = new DataBundle();
+        a.putInt("x", 1);
+        a.putString("y", "2");
+        DataBundle b = new DataBundle();
+        b.putString("y", "old");
+        b.putLong("z", 9L);
+        b.putInt("x", 5);
+        b.remove("z");
+        b.putString("y", "2");
+        b.putInt("x", 1);
+        assertEqualBundles(a, b);
+    }
+
+    public void testDifferentContent() {
+        DataBundle a = sample();
+        DataBundle b = sample();
+        b.putInt("i", 2);
+        assertFalse(a.equals(b));
+
+        // Same value, different class
+        b = sample();
+        b.putLong("i", 1L);
+        assertFalse(a.equals(b));
+        b = sample();
+        b.putCharSequence("s", new StringBuilder("x"));
+        assertFalse(a.equals(b));
+
+        // Null value against a missing key
+        b = sample();
+        b.remove("null");
+        b.putInt("other", 0);
+        assertFalse(a.equals(b));
+
+        b = sample();
+        b.getBundle("inner").putInt("extra", 0);
+        assertFalse(a.equals(b));
+        assertFalse(a.equals(null));
+        assertFalse(a.equals("x"));
+    }
+
+    public void testInPlaceChangesSeen() {
+        DataBundle a = sample();
+        DataBundle b = sample();
+        b.getIntArray("ints")[0] = 99;
+        assertFalse(a.equals(b));
+        assertFalse(a.hashCode() == b.hashCode());
+        b.getIntArray("ints")[0] = 1;
+        assertEqualBundles(a, b);
+
+        b.getBundle("inner").getDoubleArray("d")[0] = -1.0;
+        assertFalse(a.equals(b));
+        assertFalse(a.hashCode() == b.hashCode());
+        b.getBundle("inner").getDoubleArray("d")[0] = 1.5;
+        assertEqualBundles(a, b);
+    }
+
+    public void testHashCodeConsistentWithEquals() {
+        Random random = new Random(35L);
+        DataBundle[] bundles = new DataBundle[300];
+        for (int i = 0; i < bundles.length; i++) {
+            bundles[i] = randomBundle(random, 2);
+        }
+        int equalPairs = 0;
+        for (int i = 0; i < bundles.length; i++) {
+            assertEquals(bundles[i], new DataBundle(bundles[i]));
+            for (int j = 0; j < bundles.length; j++) {
+                if (bundles[i].equals(bundles[j])) {
+                    assertEquals(bundles[i].hashCode(), bundles[j].hashCode());
+                    assertTrue(bundles[j].equals(bundles[i]));
+                    equalPairs++;
+                }
+            }
+        }
+        // Small enough a space that distinct bundles with equal content occur
+        assertTrue(equalPairs > bundles.length);
+    }
+
+    private static DataBundle randomBundle(Random random, int depth) {
+        DataBundle b = new DataBundle();
+        for (int n = random.nextInt(3); n > 0; n--) {
+            String key = "k" + random.nextInt(2);
+            switch (random.nextInt(depth > 0 ? 5 : 4)) {
+                case 0:
+                    b.putInt(key, random.nextInt(2));
+                    break;
+                case 1:
+                    b.putIntArray(key, new int[] { random.nextInt(2) });
+                    break;
+                case 2:
+                    b.put(key, null);
+                    break;
+                case 3:
+                    b.putString(key, "s" + random.nextInt(2));
+                    break;
+                default:
+                    b.putDataBundle(key, randomBundle(random, depth - 1));
+                    break;
+            }
+        }
+        return b;
+    }
+
+    public void testInternReturnsCanonicalInstance() {
+        DataBundleInterner interner = new DataBundleInterner(4);
+        DataBundle first = sample();
+        assertSame(first, interner.intern(first));
+        assertSame(first, interner.intern(sample()));
+        DataBundle other = sample();
+        other.putInt("i", 2);
+        assertSame(other, interner.intern(other));
+
+        assertEquals(2, interner.size());
+        assertEquals(1L, interner.getHitCount());
+        assertEquals(2L, interner.getMissCount());
+
+        interner.clear();
+        assertEquals(0, interner.size());
+        DataBundle again = sample();
+        assertSame(again, interner.intern(again));
+    }
+
+    public void testInternNullFails() {
+        try {
+            new DataBundleInterner().intern(null);
+            fail("Interned null");
+        }
+        catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+    public void testUnreferencedInstancesDropped() throws InterruptedException {
+        DataBundleInterner interner = new DataBundleInterner(1);
+        for (int i = 0; i < 1000; i++) {
+            DataBundle b = new DataBundle();
+            b.putInt("i", i);
+            interner.intern(b);
+        }
+        DataBundle kept = new DataBundle();
+        kept.putInt("kept", 1);
+        interner.intern(kept);
+        for (int i = 0; i < 50 && interner.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(1, interner.size());
+        DataBundle equal = new DataBundle();
+        equal.putInt("kept", 1);
+        assertSame(kept, interner.intern(equal));
+    }
+
+    public void testConcurrentInternAgrees() throws InterruptedException {
+        final DataBundleInterner interner = new DataBundleInterner();
+        final DataBundle[][] results = new DataBundle[4][100];
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread[] threads = new Thread[results.length];
+        for (int t = 0; t < threads.length; t++) {
+            final DataBundle[] out = results[t];
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < out.length; i++) {
+                        DataBundle b = new DataBundle();
+                        b.putInt("i", i);
+                        b.putIntArray("a", new int[] { i });
+                        out[i] = interner.intern(b);
+                        if (!out[i].equals(b)) {
+                            failure.compareAndSet(null, "Interned unequal bundle for " + i);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        for (int t = 1; t < results.length; t++) {
+            for (int i = 0; i < results[t].length; i++) {
+                assertSame(results[0][i], results[t][i]);
+            }
+        }
+        assertEquals(100L, interner.getMissCount());
+        assertEquals(300L, interner.getHitCount());
+    }
+}
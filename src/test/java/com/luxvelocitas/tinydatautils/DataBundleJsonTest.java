@@ -0,0 +1,267 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Round trips of DataBundleJsonWriter and DataBundleJsonReader through
+ * every sink, and parsing of malformed JSON.
+ */
+public class DataBundleJsonTest extends TestCase {
+
+    // Only the types which JSON maps back to themselves
+    private static DataBundle jsonTypes() {
+        DataBundle b = new DataBundle();
+        b.putBoolean("yes", true);
+        b.putBoolean("no", false);
+        b.putInt("i", Integer.MIN_VALUE);
+        b.putLong("l", Long.MAX_VALUE);
+        b.putDouble("d", -2.5e-300);
+        b.putDouble("whole", 1e15);
+        b.putDouble("negzero", -0.0);
+        b.putString("s", "plain");
+        b.putString("empty", "");
+        b.putIntArray("I", new int[] { -1, 0, Integer.MAX_VALUE });
+        b.putLongArray("L", new long[] { 1L, Long.MIN_VALUE });
+        b.putDoubleArray("D", new double[] { 1.0, 0.5, -3e10 });
+        b.put("null", null);
+        return b;
+    }
+
+    private static String writeToWriter(DataBundle b) throws IOException {
+        StringWriter out = new StringWriter();
+        new DataBundleJsonWriter().write(b, out);
+        return out.toString();
+    }
+
+    private static String writeToByteBuffer(DataBundle b) throws CharacterCodingException {
+        ByteBuffer out = ByteBuffer.allocate(1 << 16);
+        new DataBundleJsonWriter().write(b, out);
+        out.flip();
+        // A strict decoder, so that malformed UTF-8 fails the test
+        return BinaryWriter.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(out).toString();
+    }
+
+    public void testRoundTrip() throws IOException {
+        DataBundle b = jsonTypes();
+        DataBundle decoded = DataBundleJsonReader.fromJson(DataBundleJsonWriter.toJson(b));
+
+        assertEquals(b, decoded);
+        assertTrue(decoded.containsKey("null"));
+        assertNull(decoded.get("null"));
+        assertEquals(Double.valueOf(1e15), decoded.get("whole"));
+        assertEquals(Double.doubleToRawLongBits(-0.0),
+                Double.doubleToRawLongBits(decoded.getDouble("negzero")));
+        assertTrue(Arrays.equals(new long[] { 1L, Long.MIN_VALUE }, decoded.getLongArray("L")));
+    }
+
+    public void testRoundTripNestedBundles() throws IOException {
+        DataBundle inner = new DataBundle();
+        inner.putDoubleArray("values", new double[] { 0.25 });
+        inner.putDataBundle("empty", new DataBundle());
+        DataBundle outer = jsonTypes();
+        outer.putDataBundle("inner", inner);
+
+        DataBundle decoded = DataBundleJsonReader.fromJson(DataBundleJsonWriter.toJson(outer));
+        assertEquals(outer, decoded);
+        assertEquals(0, decoded.getBundle("inner").getBundle("empty").size());
+    }
+
+    public void testAllSinksAgree() throws IOException {
+        DataBundle b = jsonTypes();
+        b.putString("escapes", "q\"b\\n\nr\rt\t\u0000\u001f\u007f");
+        b.putString("unicode", "\u00e9\u4e16\u754c \ud83d\ude00");
+        b.putDataBundle("nested", jsonTypes());
+
+        String json = DataBundleJsonWriter.toJson(b);
+        assertEquals(json, writeToWriter(b));
+        assertEquals(json, writeToByteBuffer(b));
+        assertEquals(b, DataBundleJsonReader.fromJson(json));
+    }
+
+    public void testEscapes() throws IOException {
+        DataBundle b = new DataBundle();
+        b.putString("s", "a\"\\\n\u0001");
+        assertEquals("{\"s\":\"a\\\"\\\\\\n\\u0001\"}", DataBundleJsonWriter.toJson(b));
+
+        DataBundle decoded = DataBundleJsonReader.fromJson(
+                "{\"s\":\"\\u00e9\\/\\b\\f\\ud83d\\ude00\"}");
+        assertEquals("\u00e9/\b\f\ud83d\ude00", decoded.getString("s"));
+    }
+
+    public void testLoneSurrogatesAreValidUtf8() throws IOException {
+        DataBundle b = new DataBundle();
+        b.putString("high", "a\ud83d");
+        b.putString("low", "\ude00b");
+        b.putString("swapped", "\ude00\ud83d");
+
+        DataBundle decoded = DataBundleJsonReader.fromJson(writeToByteBuffer(b));
+        assertEquals("a?", decoded.getString("high"));
+        assertEquals("?b", decoded.getString("low"));
+        assertEquals("??", decoded.getString("swapped"));
+    }
+
+    public void testConvertedTypes() throws IOException {
+        DataBundle b = new DataBundle();
+        b.putByte("b", (byte) -3);
+        b.putShort("s", (short) 300);
+        b.putChar("c", 'x');
+        b.putFloat("f", 0.5f);
+        b.putDouble("nan", Double.NaN);
+        b.putDouble("inf", Double.NEGATIVE_INFINITY);
+        b.putByteArray("B", new byte[] { 1, -1 });
+        b.putLongArray("small", new long[] { 1L, 2L });
+        b.putIntArray("none", new int[0]);
+
+        DataBundle decoded = DataBundleJsonReader.fromJson(DataBundleJsonWriter.toJson(b));
+        assertEquals(Integer.valueOf(-3), decoded.get("b"));
+        assertEquals(Integer.valueOf(300), decoded.get("s"));
+        assertEquals("x", decoded.get("c"));
+        assertEquals(Double.valueOf(0.5), decoded.get("f"));
+        assertTrue(decoded.containsKey("nan"));
+        assertNull(decoded.get("nan"));
+        assertNull(decoded.get("inf"));
+        assertTrue(Arrays.equals(new int[] { 1, -1 }, decoded.getIntArray("B")));
+        assertTrue(Arrays.equals(new int[] { 1, 2 }, decoded.getIntArray("small")));
+        assertTrue(Arrays.equals(new int[0], decoded.getIntArray("none")));
+    }
+
+    public void testNonFiniteArrayElements() throws IOException {
+        DataBundle b = new DataBundle();
+        b.putDoubleArray("D", new double[] { 1.5, Double.NaN, Double.POSITIVE_INFINITY, 2 });
+        String json = DataBundleJsonWriter.toJson(b);
+        assertEquals("{\"D\":[1.5,null,null,2.0]}", json);
+
+        double[] decoded = DataBundleJsonReader.fromJson(json).getDoubleArray("D");
+        assertEquals(4, decoded.length);
+        assertEquals(1.5, decoded[0], 0.0);
+        assertTrue(Double.isNaN(decoded[1]));
+        assertTrue(Double.isNaN(decoded[2]));
+        assertEquals(2.0, decoded[3], 0.0);
+
+        // A null promotes integral elements to doubles
+        decoded = DataBundleJsonReader.fromJson("{\"a\":[null,1]}").getDoubleArray("a");
+        assertTrue(Double.isNaN(decoded[0]));
+        assertEquals(1.0, decoded[1], 0.0);
+    }
+
+    private static String floatJson(float f) {
+        DataBundle b = new DataBundle();
+        b.putFloat("f", f);
+        return DataBundleJsonWriter.toJson(b);
+    }
+
+    public void testFloatDigits() throws IOException {
+        assertEquals("{\"f\":1.1}", floatJson(1.1f));
+        assertEquals("{\"f\":3.0}", floatJson(3f));
+        assertEquals("{\"f\":-0.0}", floatJson(-0f));
+        assertEquals("{\"f\":1.0E-10}", floatJson(1.0e-10f));
+        assertEquals("{\"f\":null}", floatJson(Float.NaN));
+
+        DataBundle b = new DataBundle();
+        b.putFloat("f", 0.1f);
+        assertEquals(writeToByteBuffer(b), DataBundleJsonWriter.toJson(b));
+        assertEquals(0.1f, (float) DataBundleJsonReader.fromJson(floatJson(0.1f)).getDouble("f"), 0.0f);
+    }
+
+    public void testNullKeyIsRejected() throws IOException {
+        DataBundle b = new DataBundle();
+        b.putInt(null, 1);
+        try {
+            DataBundleJsonWriter.toJson(b);
+            fail("Wrote a null key");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new DataBundleJsonWriter().write(b, ByteBuffer.allocate(64));
+            fail("Wrote a null key");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testSeveralObjects() throws IOException {
+        DataBundle first = jsonTypes();
+        DataBundle second = new DataBundle();
+        second.putString("n", "2");
+        StringBuilder sb = new StringBuilder();
+        // Longer than the reader's internal buffer
+        for (int i = 0; i < 200; i++) {
+            sb.append(DataBundleJsonWriter.toJson(first)).append("\n ");
+        }
+        sb.append(DataBundleJsonWriter.toJson(second)).append('\t');
+
+        DataBundleJsonReader reader = new DataBundleJsonReader(new StringReader(sb.toString()));
+        for (int i = 0; i < 200; i++) {
+            assertEquals(first, reader.read());
+        }
+        assertEquals(second, reader.read());
+        assertNull(reader.read());
+    }
+
+    public void testWhitespace() throws IOException {
+        DataBundle decoded = DataBundleJsonReader.fromJson(
+                " {\n\t\"a\" : [ 1 , 2.5 ] ,\r\n \"b\" : { } , \"c\" : -7 } ");
+        assertTrue(Arrays.equals(new double[] { 1.0, 2.5 }, decoded.getDoubleArray("a")));
+        assertEquals(0, decoded.getBundle("b").size());
+        assertEquals(-7, decoded.getInt("c"));
+    }
+
+    public void testMalformedJsonFails() {
+        assertMalformed("");
+        assertMalformed("[1]");
+        assertMalformed("{");
+        assertMalformed("{\"a\"}");
+        assertMalformed("{\"a\" 1}");
+        assertMalformed("{\"a\":}");
+        assertMalformed("{\"a\":1 \"b\":2}");
+        assertMalformed("{a:1}");
+        assertMalformed("{\"a\":tru}");
+        assertMalformed("{\"a\":-}");
+        assertMalformed("{\"a\":\"unterminated}");
+        assertMalformed("{\"a\":\"\\x\"}");
+        assertMalformed("{\"a\":\"\\u12g4\"}");
+        assertMalformed("{\"a\":[\"x\"]}");
+        assertMalformed("{\"a\":[1,]}");
+        assertMalformed("{\"a\":[1 2]}");
+        assertMalformed("{\"a\":[1");
+    }
+
+    public void testDeepNestingFails() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("{\"a\":");
+        }
+        sb.append('1');
+        for (int i = 0; i < 1000; i++) {
+            sb.append('}');
+        }
+        assertMalformed(sb.toString());
+    }
+
+    private static void assertMalformed(String json) {
+        try {
+            DataBundle b = DataBundleJsonReader.fromJson(json);
+            if (b != null) {
+                fail("Parsed malformed JSON " + json);
+            }
+            assertEquals("", json);
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Batched delivery of DataBundle changes to DataBundleListeners: coalescing
+ * of pending changes, classification into added, changed and removed keys,
+ * and serial calls to each listener.
+ */
+public class DataBundleNotifierTest extends TestCase {
+
+    // Queues tasks until they are run explicitly
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> mQueue = new ArrayList<Runnable>();
+        boolean mRejecting;
+
+        public void execute(Runnable command) {
+            if (mRejecting) {
+                throw new RejectedExecutionException();
+            }
+            mQueue.add(command);
+        }
+
+        void runAll() {
+            while (!mQueue.isEmpty()) {
+                mQueue.remove(0).run();
+            }
+        }
+    }
+
+    private static class RecordingListener implements DataBundleListener {
+        final List<DataBundleDelta> mDeltas = new ArrayList<DataBundleDelta>();
+
+        public void onChanged(DataBundle bundle, DataBundleDelta changes) {
+            mDeltas.add(changes);
+        }
+    }
+
+    private ManualExecutor mExecutor;
+    private RecordingListener mListener;
+    private DataBundle mBundle;
+
+    @Override
+    protected void setUp() {
+        mExecutor = new ManualExecutor();
+        mListener = new RecordingListener();
+        mBundle = new DataBundle();
+        mBundle.putInt("changed", 0);
+        mBundle.putInt("removed", 0);
+        mBundle.putInt("readded", 0);
+        mBundle.addChangeListener(mListener, mExecutor);
+    }
+
+    public void testChangesCoalescedIntoOneBatch() {
+        for (int i = 1; i <= 100; i++) {
+            mBundle.putInt("changed", i);
+            mBundle.putInt("added", i);
+        }
+        mBundle.remove("removed");
+        mBundle.remove("readded");
+        mBundle.putString("readded", "back");
+        // Added and removed again within the batch
+        mBundle.putInt("transient", 1);
+        mBundle.remove("transient");
+        // Never present
+        mBundle.remove("missing");
+
+        assertEquals(1, mExecutor.mQueue.size());
+        mExecutor.runAll();
+        assertEquals(1, mListener.mDeltas.size());
+
+        DataBundleDelta delta = mListener.mDeltas.get(0);
+        assertEquals(Collections.singleton("added"), delta.getAdded().keySet());
+        assertEquals(100, delta.getAdded().get("added"));
+        assertEquals(2, delta.getChanged().size());
+        assertEquals(100, delta.getChanged().get("changed"));
+        assertEquals("back", delta.getChanged().get("readded"));
+        assertEquals(Collections.singletonList("removed"), delta.getRemoved());
+    }
+
+    public void testNextBatchScheduledAfterDelivery() {
+        mBundle.putInt("changed", 1);
+        mExecutor.runAll();
+        mBundle.putInt("changed", 2);
+        assertEquals(1, mExecutor.mQueue.size());
+        mExecutor.runAll();
+        assertEquals(2, mListener.mDeltas.size());
+        assertEquals(2, mListener.mDeltas.get(1).getChanged().get("changed"));
+
+        // Nothing pending, nothing scheduled
+        mExecutor.runAll();
+        assertEquals(2, mListener.mDeltas.size());
+    }
+
+    public void testEmptyBatchNotDelivered() {
+        mBundle.putInt("transient", 1);
+        mBundle.remove("transient");
+        mExecutor.runAll();
+        assertTrue(mListener.mDeltas.isEmpty());
+    }
+
+    public void testBulkChangesReported() {
+        DataBundle other = new DataBundle();
+        other.putInt("changed", 5);
+        other.putInt("added", 6);
+        mBundle.putAll(other);
+        mExecutor.runAll();
+        DataBundleDelta delta = mListener.mDeltas.get(0);
+        assertEquals(5, delta.getChanged().get("changed"));
+        assertEquals(6, delta.getAdded().get("added"));
+
+        mBundle.clear();
+        mExecutor.runAll();
+        delta = mListener.mDeltas.get(1);
+        assertEquals(4, delta.getRemoved().size());
+        assertTrue(delta.getAdded().isEmpty());
+
+        DataBundle target = new DataBundle();
+        target.putString("s", "t");
+        mBundle.applyDelta(target.diff(mBundle));
+        mExecutor.runAll();
+        assertEquals("t", mListener.mDeltas.get(2).getAdded().get("s"));
+    }
+
+    public void testRejectedBatchKept() {
+        mExecutor.mRejecting = true;
+        mBundle.putInt("changed", 1);
+        assertTrue(mExecutor.mQueue.isEmpty());
+        mExecutor.mRejecting = false;
+        mBundle.putInt("added", 2);
+        mExecutor.runAll();
+        assertEquals(1, mListener.mDeltas.size());
+        DataBundleDelta delta = mListener.mDeltas.get(0);
+        assertEquals(1, delta.getChanged().get("changed"));
+        assertEquals(2, delta.getAdded().get("added"));
+    }
+
+    public void testFailingListenerKeepsReceiving() {
+        final AtomicInteger calls = new AtomicInteger();
+        DataBundleListener failing = new DataBundleListener() {
+            public void onChanged(DataBundle bundle, DataBundleDelta changes) {
+                calls.incrementAndGet();
+                throw new IllegalStateException("expected by DataBundleNotifierTest");
+            }
+        };
+        mBundle.addChangeListener(failing, mExecutor);
+        mBundle.putInt("changed", 1);
+        mExecutor.runAll();
+        mBundle.putInt("changed", 2);
+        mExecutor.runAll();
+        assertEquals(2, calls.get());
+        assertEquals(2, mListener.mDeltas.size());
+    }
+
+    public void testRemovedListenerDropsPendingChanges() {
+        mBundle.putInt("changed", 1);
+        mBundle.removeChangeListener(mListener);
+        mExecutor.runAll();
+        mBundle.putInt("changed", 2);
+        mExecutor.runAll();
+        assertTrue(mListener.mDeltas.isEmpty());
+    }
+
+    public void testListenerNeverCalledConcurrently() throws InterruptedException {
+        final DataBundle primary = new DataBundle();
+        final DataBundle replica = new DataBundle();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final AtomicInteger calls = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            primary.addChangeListener(new DataBundleListener() {
+                public void onChanged(DataBundle bundle, DataBundleDelta changes) {
+                    if (inFlight.incrementAndGet() > 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    calls.incrementAndGet();
+                    try {
+                        Thread.sleep(1);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    synchronized (replica) {
+                        replica.applyDelta(changes);
+                    }
+                    inFlight.decrementAndGet();
+                }
+            }, pool);
+
+            Random random = new Random(42L);
+            for (int i = 0; i < 20000; i++) {
+                String key = "k" + random.nextInt(50);
+                if (random.nextInt(4) == 0) {
+                    primary.remove(key);
+                }
+                else {
+                    primary.putInt(key, i);
+                }
+            }
+
+            long deadline = System.currentTimeMillis() + 10000L;
+            while (true) {
+                synchronized (replica) {
+                    if (replica.equals(primary)) {
+                        break;
+                    }
+                }
+                assertTrue("Replica did not converge", System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+        }
+        finally {
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        assertEquals(0, overlaps.get());
+        assertTrue(calls.get() > 0);
+        // Coalesced into far fewer calls than changes
+        assertTrue(calls.get() < 20000);
+    }
+}
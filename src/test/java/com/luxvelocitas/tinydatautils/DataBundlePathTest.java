@@ -0,0 +1,148 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Compiling DataBundlePaths, evaluating them against nested DataBundles,
+ * and the batch getters.
+ */
+public class DataBundlePathTest extends TestCase {
+
+    private static DataBundle device(int temp) {
+        DataBundle sensor = new DataBundle();
+        sensor.putInt("temp", temp);
+        sensor.putLong("time", temp * 10L);
+        sensor.putDouble("ratio", temp / 4.0);
+        sensor.putString("name", "s" + temp);
+        DataBundle device = new DataBundle();
+        device.putDataBundle("sensor", sensor);
+        device.putBoolean("on", true);
+        DataBundle b = new DataBundle();
+        b.putDataBundle("device", device);
+        b.putLong("id", temp * 1000L);
+        return b;
+    }
+
+    public void testCompile() {
+        DataBundlePath path = DataBundlePath.compile("device.sensor.temp");
+        assertEquals(3, path.length());
+        assertEquals("device", path.getKey(0));
+        assertEquals("temp", path.getKey(2));
+        assertEquals("device.sensor.temp", path.toString());
+        assertEquals(path, DataBundlePath.of("device", "sensor", "temp"));
+        assertEquals(path.hashCode(), DataBundlePath.of("device", "sensor", "temp").hashCode());
+        assertFalse(path.equals(DataBundlePath.compile("device.sensor")));
+        assertEquals(1, DataBundlePath.compile("id").length());
+    }
+
+    public void testCompileErrors() {
+        for (String path : new String[] { "", ".", "a.", ".a", "a..b" }) {
+            try {
+                DataBundlePath.compile(path);
+                fail("Compiled \"" + path + "\"");
+            }
+            catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Empty key in path"));
+            }
+        }
+        try {
+            DataBundlePath.of();
+            fail("Built an empty path");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            DataBundlePath.of("a", null);
+            fail("Built a path with a null key");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testKeysContainingDots() {
+        DataBundle b = new DataBundle();
+        b.putInt("a.b", 7);
+        assertEquals(7, DataBundlePath.of("a.b").getInt(b));
+        assertEquals(-1, DataBundlePath.compile("a.b").getInt(b, -1));
+    }
+
+    public void testTypedGetters() {
+        DataBundle b = device(20);
+        assertEquals(20, DataBundlePath.compile("device.sensor.temp").getInt(b));
+        assertEquals(200L, DataBundlePath.compile("device.sensor.time").getLong(b));
+        assertEquals(5.0, DataBundlePath.compile("device.sensor.ratio").getDouble(b), 0.0);
+        assertEquals("s20", DataBundlePath.compile("device.sensor.name").getString(b));
+        assertTrue(DataBundlePath.compile("device.on").getBoolean(b, false));
+        assertEquals(20000L, DataBundlePath.compile("id").getLong(b));
+        assertSame(b.getBundle("device").getBundle("sensor"),
+                DataBundlePath.compile("device.sensor").getBundle(b));
+        assertEquals(20, DataBundlePath.compile("device.sensor.temp").get(b));
+        assertSame(b.getBundle("device").getBundle("sensor"),
+                DataBundlePath.compile("device.sensor.temp").getParent(b));
+        assertTrue(DataBundlePath.compile("device.sensor.temp").exists(b));
+    }
+
+    public void testUnresolvedPaths() {
+        DataBundle b = device(20);
+        b.put("nothing", null);
+        // Missing keys, a null value and a non-bundle value along the way
+        for (String s : new String[] { "missing.temp", "device.missing.temp", "nothing.temp",
+                "id.temp", "device.on.temp", "device.sensor.missing" }) {
+            DataBundlePath path = DataBundlePath.compile(s);
+            assertEquals(s, -1, path.getInt(b, -1));
+            assertEquals(s, 0, path.getInt(b));
+            assertEquals(s, -1L, path.getLong(b, -1L));
+            assertEquals(s, -1.0, path.getDouble(b, -1.0), 0.0);
+            assertTrue(s, path.getBoolean(b, true));
+            assertNull(s, path.getString(b));
+            assertNull(s, path.getBundle(b));
+            assertNull(s, path.get(b));
+            assertFalse(s, path.exists(b));
+        }
+        assertEquals(-1, DataBundlePath.compile("device.sensor.temp").getInt(null, -1));
+        assertNull(DataBundlePath.compile("device.sensor.temp").getParent(null));
+        assertTrue(DataBundlePath.compile("nothing").exists(b));
+    }
+
+    public void testWrongLeafTypeGivesDefault() {
+        DataBundle b = device(20);
+        assertEquals(-1, DataBundlePath.compile("device.sensor.name").getInt(b, -1));
+        assertNull(DataBundlePath.compile("device.sensor.temp").getString(b));
+        assertNull(DataBundlePath.compile("device.sensor.temp").getBundle(b));
+        // No widening, as for DataBundle.getLong()
+        assertEquals(-1L, DataBundlePath.compile("device.sensor.temp").getLong(b, -1L));
+    }
+
+    public void testBatchGetters() {
+        DataBundle[] bundles = new DataBundle[6];
+        for (int i = 0; i < bundles.length; i++) {
+            bundles[i] = device(i * 4);
+        }
+        bundles[2] = null;
+        bundles[4].getBundle("device").remove("sensor");
+
+        DataBundlePath temp = DataBundlePath.compile("device.sensor.temp");
+        assertTrue(Arrays.equals(new int[] { 0, 4, -1, 12, -1, 20 }, temp.getInts(bundles, -1, null)));
+        DataBundlePath time = DataBundlePath.compile("device.sensor.time");
+        assertTrue(Arrays.equals(new long[] { 0L, 40L, -1L, 120L, -1L, 200L }, time.getLongs(bundles, -1L, null)));
+
+        DataBundlePath ratio = DataBundlePath.compile("device.sensor.ratio");
+        assertTrue(Arrays.equals(new double[] { 0.0, 1.0, Double.NaN, 3.0, Double.NaN, 5.0 },
+                ratio.getDoubles(bundles, Double.NaN, null)));
+
+        // A longer destination is filled from the start and reused
+        int[] dest = new int[8];
+        Arrays.fill(dest, 99);
+        assertSame(dest, temp.getInts(bundles, -1, dest));
+        assertTrue(Arrays.equals(new int[] { 0, 4, -1, 12, -1, 20, 99, 99 }, dest));
+        double[] doubles = new double[6];
+        assertSame(doubles, ratio.getDoubles(bundles, 0.0, doubles));
+        assertEquals(5.0, doubles[5], 0.0);
+
+        assertEquals(0, temp.getInts(new DataBundle[0], -1, null).length);
+    }
+}
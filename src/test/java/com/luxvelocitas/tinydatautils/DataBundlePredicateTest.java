@@ -0,0 +1,205 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Compiling and evaluating DataBundlePredicate expressions: operator
+ * precedence, comparisons of each literal type, and malformed expressions.
+ */
+public class DataBundlePredicateTest extends TestCase {
+
+    private static DataBundle sample() {
+        DataBundle device = new DataBundle();
+        device.putBoolean("active", true);
+        device.putString("room", "kitchen");
+        DataBundle b = new DataBundle();
+        b.putInt("temp", 31);
+        b.putLong("big", Long.MAX_VALUE);
+        b.putShort("short", (short) -5);
+        b.putDouble("ratio", 0.25);
+        b.putFloat("f", 1.5f);
+        b.putString("name", "x");
+        b.putCharSequence("cs", new StringBuilder("abc"));
+        b.putBoolean("on", true);
+        b.putBoolean("off", false);
+        b.put("nothing", null);
+        b.putDataBundle("device", device);
+        return b;
+    }
+
+    private static boolean test(String expression) {
+        return DataBundlePredicate.compile(expression).test(sample());
+    }
+
+    public void testPrecedence() {
+        assertEquals("(on == true || (off == true && nothing == null))",
+                DataBundlePredicate.compile("on || off && nothing == null").toString());
+        assertEquals("((on == true || off == true) && nothing == null)",
+                DataBundlePredicate.compile("(on || off) && nothing == null").toString());
+        assertEquals("(!on == true && off == true)",
+                DataBundlePredicate.compile("!on && off").toString());
+
+        // && binds tighter than ||
+        assertTrue(test("on || off && off"));
+        assertFalse(test("(on || off) && off"));
+        assertTrue(test("off && off || on"));
+        assertFalse(test("off && (off || on)"));
+        // ! binds tighter than &&
+        assertFalse(test("!on && off"));
+        assertTrue(test("!(on && off)"));
+        assertTrue(test("!!on"));
+        assertTrue(test("! ( off ) && !(temp < 0)"));
+        // Left to right
+        assertTrue(test("off || off || on"));
+        assertTrue(test("on && on && on"));
+        assertFalse(test("on && on && off"));
+    }
+
+    public void testIntegralComparisons() {
+        assertTrue(test("temp > 30"));
+        assertTrue(test("temp >= 31"));
+        assertTrue(test("temp <= 31"));
+        assertFalse(test("temp < 31"));
+        assertTrue(test("temp == +31"));
+        assertTrue(test("temp != 30"));
+        assertTrue(test("big == 9223372036854775807"));
+        assertTrue(test("big > 9223372036854775806"));
+        assertTrue(test("short < -4"));
+        // Floating point values against an integer literal
+        assertTrue(test("ratio < 1"));
+        assertTrue(test("f > 1"));
+        // Values of other types never match
+        assertFalse(test("name == 1"));
+        assertFalse(test("name != 1"));
+        assertFalse(test("missing != 1"));
+    }
+
+    public void testFloatingPointComparisons() {
+        assertTrue(test("ratio == 0.25"));
+        assertTrue(test("ratio < 2.5e-1 || ratio == .25"));
+        assertTrue(test("temp > 30.5"));
+        assertTrue(test("big > 1e18"));
+        assertTrue(test("f >= 1.5"));
+        assertFalse(test("on == 1.0"));
+    }
+
+    public void testNegativeZeroAndNaN() {
+        DataBundle b = new DataBundle();
+        b.putDouble("neg", -0.0);
+        b.putDouble("pos", 0.0);
+        b.putDouble("nan", Double.NaN);
+
+        assertTrue(DataBundlePredicate.compile("neg == 0").test(b));
+        assertFalse(DataBundlePredicate.compile("neg < 0").test(b));
+        assertTrue(DataBundlePredicate.compile("neg >= 0").test(b));
+        assertTrue(DataBundlePredicate.compile("pos == -0.0").test(b));
+        assertFalse(DataBundlePredicate.compile("neg != 0.0").test(b));
+
+        for (String op : new String[] { "==", "!=", "<", "<=", ">", ">=" }) {
+            assertFalse("nan " + op + " 0", DataBundlePredicate.compile("nan " + op + " 0").test(b));
+            assertFalse("nan " + op + " 0.0", DataBundlePredicate.compile("nan " + op + " 0.0").test(b));
+        }
+    }
+
+    public void testStringComparisons() {
+        assertTrue(test("name == \"x\""));
+        assertFalse(test("name != \"x\""));
+        assertTrue(test("name < \"y\""));
+        assertTrue(test("cs == \"abc\""));
+        assertTrue(test("device.room == \"kitchen\""));
+        assertFalse(test("temp == \"31\""));
+
+        DataBundle b = new DataBundle();
+        b.putString("s", "a\"b\\c\n");
+        assertTrue(DataBundlePredicate.compile("s == \"a\\\"b\\\\c\\n\"").test(b));
+    }
+
+    public void testDictionaryLiterals() {
+        StringDictionary dictionary = new StringDictionary();
+        dictionary.intern("kitchen");
+        dictionary.intern("hall");
+        DataBundle canonical = new DataBundle();
+        canonical.setStringDictionary(dictionary);
+        canonical.putString("room", new String("kitchen"));
+        DataBundle plain = new DataBundle();
+        plain.putString("room", new String("kitchen"));
+
+        for (DataBundle b : new DataBundle[] { canonical, plain }) {
+            assertTrue(DataBundlePredicate.compile("room == \"kitchen\"", dictionary).test(b));
+            assertFalse(DataBundlePredicate.compile("room != \"kitchen\"", dictionary).test(b));
+            assertTrue(DataBundlePredicate.compile("room <= \"kitchen\"", dictionary).test(b));
+            assertFalse(DataBundlePredicate.compile("room == \"hall\"", dictionary).test(b));
+            assertTrue(DataBundlePredicate.compile("room > \"hall\"", dictionary).test(b));
+            assertFalse(DataBundlePredicate.compile("room == \"garage\"", dictionary).test(b));
+        }
+        // Literals are looked up, not added
+        assertEquals(2, dictionary.size());
+    }
+
+    public void testBooleansAndNulls() {
+        assertTrue(test("on"));
+        assertFalse(test("off"));
+        assertTrue(test("on == true"));
+        assertTrue(test("off != true"));
+        assertTrue(test("device.active"));
+        assertFalse(test("temp"));
+        assertTrue(test("nothing == null"));
+        assertTrue(test("missing == null"));
+        assertTrue(test("device.missing.deeper == null"));
+        assertTrue(test("temp != null"));
+        assertFalse(test("nothing != null"));
+        assertTrue(test("true"));
+        assertFalse(test("false || off"));
+    }
+
+    public void testNullBundle() {
+        assertFalse(DataBundlePredicate.compile("on").test(null));
+        assertTrue(DataBundlePredicate.compile("on == null").test(null));
+    }
+
+    public void testFilter() {
+        DataBundle[] bundles = new DataBundle[5];
+        for (int i = 0; i < bundles.length; i++) {
+            bundles[i] = new DataBundle();
+            bundles[i].putInt("i", i);
+        }
+        bundles[3] = null;
+        DataBundlePredicate p = DataBundlePredicate.compile("i >= 1 && i != 4");
+
+        BitSet expected = new BitSet();
+        expected.set(1);
+        expected.set(2);
+        assertEquals(expected, p.filter(bundles));
+        assertEquals(expected, p.filter(Arrays.asList(bundles)));
+    }
+
+    public void testMalformedExpressionsFail() {
+        assertMalformed("", "Expected a key at position 0");
+        assertMalformed("temp >", "Expected a literal at position 6");
+        assertMalformed("temp > abc", "Expected a literal at position 7");
+        assertMalformed("temp < null", "Expected a literal at position 7");
+        assertMalformed("(on", "Expected ')' at position 3");
+        assertMalformed("on)", "Unexpected input at position 2");
+        assertMalformed("on off", "Unexpected input at position 3");
+        assertMalformed("on &&", "Expected a key at position 5");
+        assertMalformed("on & off", "Unexpected input at position 3");
+        assertMalformed("name == \"x", "Unterminated string");
+        assertMalformed("temp == 1.2.3", "Malformed number at position 8");
+        assertMalformed("temp == -", "Malformed number at position 8");
+        assertMalformed("temp == 99999999999999999999", "Malformed number at position 8");
+        assertMalformed("!", "Expected a key at position 1");
+    }
+
+    private static void assertMalformed(String expression, String message) {
+        try {
+            DataBundlePredicate.compile(expression);
+            fail("Compiled malformed expression " + expression);
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * The size model of DataBundleSizeEstimator, and the incrementally
+ * maintained DataBundle.estimateRetainedSize() staying equal to a full walk.
+ */
+public class DataBundleSizeEstimatorTest extends TestCase {
+
+    private static void assertConsistent(DataBundle b) {
+        long estimate = DataBundleSizeEstimator.estimate(b);
+        assertEquals(estimate, b.estimateRetainedSize());
+        assertEquals(estimate, DataBundleSizeEstimator.breakdown(b).getTotalBytes());
+    }
+
+    public void testEmptyBundle() {
+        DataBundle b = new DataBundle();
+        assertEquals(DataBundleSizeEstimator.shallowSize(0), b.estimateRetainedSize());
+        assertConsistent(b);
+        assertEquals(1, DataBundleSizeEstimator.breakdown(b).getBundleCount());
+    }
+
+    public void testEntrySizes() {
+        DataBundle b = new DataBundle();
+        long empty = b.estimateRetainedSize();
+        // A small Integer is cached, so only the entry and the key count
+        b.putInt("k", 1);
+        long key = DataBundleSizeEstimator.ENTRY + DataBundleSizeEstimator.stringSize("k");
+        assertEquals(empty + key, b.estimateRetainedSize());
+        b.putInt("k", 1000);
+        assertEquals(empty + key + DataBundleSizeEstimator.BOXED_SMALL, b.estimateRetainedSize());
+        b.putLong("k", 1000L);
+        assertEquals(empty + key + DataBundleSizeEstimator.BOXED_WIDE, b.estimateRetainedSize());
+        b.putIntArray("k", new int[10]);
+        assertEquals(empty + key + DataBundleSizeEstimator.align(16 + 40), b.estimateRetainedSize());
+        b.put("k", null);
+        assertEquals(empty + key, b.estimateRetainedSize());
+        b.remove("k");
+        assertEquals(empty, b.estimateRetainedSize());
+    }
+
+    public void testTableGrowth() {
+        DataBundle b = new DataBundle();
+        for (int i = 0; i < 100; i++) {
+            b.putInt("k" + i, i);
+            assertConsistent(b);
+        }
+        assertTrue(DataBundleSizeEstimator.shallowSize(100) > DataBundleSizeEstimator.shallowSize(0));
+    }
+
+    public void testConsistentThroughChanges() {
+        Random random = new Random(34L);
+        DataBundle nested = new DataBundle();
+        DataBundle b = new DataBundle();
+        b.putDataBundle("nested", nested);
+        for (int i = 0; i < 5000; i++) {
+            String key = "k" + random.nextInt(30);
+            DataBundle target = random.nextInt(4) == 0 ? nested : b;
+            switch (random.nextInt(12)) {
+                case 0:
+                    target.remove(key);
+                    break;
+                case 1:
+                    target.putString(key, "s" + random.nextInt(1000));
+                    break;
+                case 2:
+                    target.putCharSequence(key, new StringBuilder("cs").append(random.nextInt()));
+                    break;
+                case 3:
+                    target.putDoubleArray(key, new double[random.nextInt(20)]);
+                    break;
+                case 4:
+                    target.putByteArray(key, new byte[random.nextInt(20)]);
+                    break;
+                case 5:
+                    target.putLong(key, random.nextLong());
+                    break;
+                case 6:
+                    target.putChar(key, (char) random.nextInt(300));
+                    break;
+                case 7:
+                    target.put(key, null);
+                    break;
+                case 8:
+                    target.putDouble(key, random.nextDouble());
+                    break;
+                case 9:
+                    if (random.nextInt(50) == 0) {
+                        target.clear();
+                        if (target == b) {
+                            b.putDataBundle("nested", nested);
+                        }
+                    }
+                    break;
+                default:
+                    target.putInt(key, random.nextInt(1000) - 500);
+                    break;
+            }
+            assertConsistent(b);
+            assertConsistent(nested);
+        }
+    }
+
+    public void testCopiesAndDeltas() {
+        DataBundle inner = new DataBundle();
+        inner.putString("s", "inner");
+        DataBundle b = new DataBundle();
+        b.putInt("i", 12345);
+        b.putLongArray("a", new long[7]);
+        b.putDataBundle("inner", inner);
+
+        DataBundle copy = new DataBundle(b);
+        assertConsistent(copy);
+        assertEquals(b.estimateRetainedSize(), copy.estimateRetainedSize());
+
+        DataBundle merged = new DataBundle();
+        merged.putString("i", "replaced");
+        merged.putAll(b);
+        assertConsistent(merged);
+
+        DataBundle target = new DataBundle(b);
+        target.remove("a");
+        target.putFloat("f", 1.5f);
+        DataBundle applied = new DataBundle(b);
+        applied.applyDelta(target.diff(b));
+        assertConsistent(applied);
+        assertEquals(target.estimateRetainedSize(), applied.estimateRetainedSize());
+    }
+
+    public void testBreakdown() {
+        DataBundle inner = new DataBundle();
+        inner.putInt("n", 1000);
+        DataBundle b = new DataBundle();
+        b.putString("s", "abc");
+        b.putString("t", "de");
+        b.putIntArray("a", new int[3]);
+        b.putDataBundle("inner", inner);
+        b.put("null", null);
+
+        DataBundleSizeEstimator.Breakdown breakdown = DataBundleSizeEstimator.breakdown(b);
+        assertEquals(2, breakdown.getBundleCount());
+        assertEquals(2, breakdown.getValueCount(DataBundleStats.TYPE_STRING));
+        assertEquals(DataBundleSizeEstimator.stringSize("abc") + DataBundleSizeEstimator.stringSize("de"),
+                breakdown.getValueBytes(DataBundleStats.TYPE_STRING));
+        assertEquals(1, breakdown.getValueCount(DataBundleStats.TYPE_INT_ARRAY));
+        assertEquals(1, breakdown.getValueCount(DataBundleStats.TYPE_INT));
+        assertEquals(DataBundleSizeEstimator.BOXED_SMALL, breakdown.getValueBytes(DataBundleStats.TYPE_INT));
+        // Nested bundles are walked, not counted as values
+        assertEquals(0, breakdown.getValueCount(DataBundleStats.TYPE_BUNDLE));
+        assertEquals(DataBundleSizeEstimator.shallowSize(5) + DataBundleSizeEstimator.shallowSize(1)
+                + 6 * DataBundleSizeEstimator.ENTRY, breakdown.getStructureBytes());
+        assertEquals(DataBundleSizeEstimator.stringSize("s") * 4 + DataBundleSizeEstimator.stringSize("inner")
+                + DataBundleSizeEstimator.stringSize("null"), breakdown.getKeyBytes());
+        assertEquals(b.estimateRetainedSize(), breakdown.getTotalBytes());
+    }
+}
@@ -0,0 +1,252 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs a mix of create, clone, serialize and lookup operations on
+ * DataBundles from several threads for a fixed duration, while keeping a
+ * large set of bundles alive and replacing them, so that the collector is
+ * under sustained pressure. Reports throughput, latency percentiles of
+ * each operation and the time spent in garbage collection.
+ *
+ * Run with: java -cp build/classes/main:build/classes/test
+ *     com.luxvelocitas.tinydatautils.DataBundleSoakHarness [seconds] [threads] [liveBundles] [seed]
+ */
+public class DataBundleSoakHarness {
+    private static final String[] OPS = { "create", "clone", "serialize", "lookup" };
+    private static final int[] OP_WEIGHTS = { 20, 15, 15, 50 };
+    private static final int REPORT_SECONDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : 60;
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int live = (args.length > 2) ? Integer.parseInt(args[2]) : 200000;
+        long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42L;
+
+        final AtomicReferenceArray<DataBundle> pool = new AtomicReferenceArray<DataBundle>(live);
+        DataBundleWorkload fill = new DataBundleWorkload(seed);
+        for (int i = 0; i < live; i++) {
+            pool.set(i, fill.next());
+        }
+
+        System.out.println(String.format("Soak: %d s, %d threads, %d live bundles, seed %d",
+                seconds, threads, live, seed));
+        long gcStart = gcMillis();
+        long start = System.nanoTime();
+        final long deadline = start + seconds * 1000000000L;
+
+        Worker[] workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(pool, seed + 1 + i, deadline);
+            workers[i].start();
+        }
+
+        long lastOps = 0L;
+        long lastGc = gcStart;
+        long lastTime = start;
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(Math.min(REPORT_SECONDS * 1000L,
+                    Math.max(1L, (deadline - System.nanoTime()) / 1000000L)));
+            long now = System.nanoTime();
+            long ops = 0L;
+            for (Worker w : workers) {
+                ops += w.mOps;
+            }
+            long gc = gcMillis();
+            System.out.println(String.format("  %5.0f s  %10.0f ops/s  gc %5.1f%%  heap %6d MB",
+                    (now - start) / 1e9, (ops - lastOps) / ((now - lastTime) / 1e9),
+                    100.0 * (gc - lastGc) / ((now - lastTime) / 1e6), usedHeapMb()));
+            lastOps = ops;
+            lastGc = gc;
+            lastTime = now;
+        }
+        for (Worker w : workers) {
+            w.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long gc = gcMillis() - gcStart;
+
+        System.out.println(String.format("%-10s %12s %10s %10s %10s %10s %10s",
+                "op", "count", "ops/s", "p50 us", "p99 us", "p99.9 us", "max us"));
+        for (int op = 0; op < OPS.length; op++) {
+            LatencyHistogram h = new LatencyHistogram();
+            for (Worker w : workers) {
+                h.add(w.mLatencies[op]);
+            }
+            System.out.println(String.format("%-10s %12d %10.0f %10.1f %10.1f %10.1f %10.1f",
+                    OPS[op], h.count(), h.count() / elapsed, h.quantile(0.5) / 1e3,
+                    h.quantile(0.99) / 1e3, h.quantile(0.999) / 1e3, h.max() / 1e3));
+        }
+        System.out.println(String.format("gc: %d ms (%.1f%% of %.0f s)", gc, 100.0 * gc / (elapsed * 1e3), elapsed));
+        for (Worker w : workers) {
+            if (w.mError != null) {
+                throw new IllegalStateException("Worker failed", w.mError);
+            }
+        }
+    }
+
+    private static long gcMillis() {
+        long ret = 0L;
+        List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean bean : beans) {
+            ret += Math.max(0L, bean.getCollectionTime());
+        }
+        return ret;
+    }
+
+    private static long usedHeapMb() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024);
+    }
+
+    private static final class Worker extends Thread {
+        private final AtomicReferenceArray<DataBundle> mPool;
+        private final long mDeadline;
+        private final Random mRandom;
+        private final DataBundleWorkload mWorkload;
+        private final BinaryWriter mScratch = new BinaryWriter();
+        final LatencyHistogram[] mLatencies = new LatencyHistogram[OPS.length];
+        volatile long mOps;
+        Throwable mError;
+        // Keeps results observable so the work cannot be optimized away
+        long mSink;
+
+        Worker(AtomicReferenceArray<DataBundle> pool, long seed, long deadline) {
+            super("soak-" + seed);
+            mPool = pool;
+            mDeadline = deadline;
+            mRandom = new Random(seed);
+            mWorkload = new DataBundleWorkload(seed);
+            for (int i = 0; i < OPS.length; i++) {
+                mLatencies[i] = new LatencyHistogram();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                long ops = 0L;
+                long now = System.nanoTime();
+                while (now < mDeadline) {
+                    int op = pickOp();
+                    int slot = mRandom.nextInt(mPool.length());
+                    long t0 = System.nanoTime();
+                    operate(op, slot);
+                    now = System.nanoTime();
+                    mLatencies[op].record(now - t0);
+                    if ((++ops & 0xFF) == 0) {
+                        mOps = ops;
+                    }
+                }
+                mOps = ops;
+            } catch (Throwable t) {
+                mError = t;
+            }
+        }
+
+        private void operate(int op, int slot) throws IOException {
+            switch (op) {
+                case 0:
+                    mPool.set(slot, mWorkload.next());
+                    break;
+                case 1:
+                    mPool.set(slot, new DataBundle(mPool.get(slot)));
+                    break;
+                case 2: {
+                    mScratch.reset();
+                    DataBundleCodec.encode(mPool.get(slot), mScratch);
+                    DataBundle b = DataBundleCodec.decode(mScratch.array(), 0, mScratch.size());
+                    mSink += b.size();
+                    break;
+                }
+                default: {
+                    DataBundle b = mPool.get(slot);
+                    for (int i = 0; i < 8; i++) {
+                        Object o = b.get(mWorkload.randomKey(mRandom));
+                        mSink += (o == null) ? 0 : 1;
+                    }
+                }
+            }
+        }
+
+        private int pickOp() {
+            int pick = mRandom.nextInt(100);
+            int op = 0;
+            while (pick >= OP_WEIGHTS[op]) {
+                pick -= OP_WEIGHTS[op];
+                op++;
+            }
+            return op;
+        }
+    }
+
+    /**
+     * A log-linear histogram of nanosecond latencies: 16 buckets per power
+     * of two, so quantiles are reported within about 6%.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+
+        private final long[] mCounts = new long[64 * SUB];
+        private long mCount;
+        private long mMax;
+
+        void record(long nanos) {
+            long v = Math.max(0L, nanos);
+            mCounts[index(v)]++;
+            mCount++;
+            mMax = Math.max(mMax, v);
+        }
+
+        void add(LatencyHistogram other) {
+            for (int i = 0; i < mCounts.length; i++) {
+                mCounts[i] += other.mCounts[i];
+            }
+            mCount += other.mCount;
+            mMax = Math.max(mMax, other.mMax);
+        }
+
+        long count() {
+            return mCount;
+        }
+
+        long max() {
+            return mMax;
+        }
+
+        // The upper bound of the bucket holding the q quantile
+        long quantile(double q) {
+            long rank = (long) Math.ceil(q * mCount);
+            long seen = 0L;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank && mCounts[i] > 0) {
+                    return Math.min(upperBound(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        private static int index(long v) {
+            if (v < SUB) {
+                return (int) v;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+            return exp * SUB + (int) ((v >>> exp) - SUB) + SUB;
+        }
+
+        private static long upperBound(int index) {
+            if (index < SUB) {
+                return index;
+            }
+            int exp = index / SUB - 1;
+            long sub = index % SUB + SUB;
+            return ((sub + 1) << exp) - 1;
+        }
+    }
+}
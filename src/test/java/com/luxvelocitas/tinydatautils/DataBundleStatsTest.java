@@ -0,0 +1,175 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+/**
+ * The counters, hot keys and resize counts of DataBundleStats, through
+ * snapshot() and the registered MBean. The recorders are called directly,
+ * since DataBundle only calls them when the JVM runs with
+ * -Dtinydatautils.stats=true.
+ */
+public class DataBundleStatsTest extends TestCase {
+
+    @Override
+    protected void setUp() {
+        DataBundleStats.reset();
+    }
+
+    @Override
+    protected void tearDown() {
+        DataBundleStats.reset();
+    }
+
+    public void testSnapshotCounts() {
+        for (int i = 0; i < 3; i++) {
+            DataBundleStats.recordPut(DataBundleStats.TYPE_INT, "i");
+        }
+        DataBundleStats.recordPut(DataBundleStats.TYPE_STRING, "s");
+        DataBundleStats.recordGet(DataBundleStats.TYPE_INT, "i");
+        DataBundleStats.recordRemove();
+        DataBundleStats.recordTypeMismatch();
+        DataBundleStats.recordTypeMismatch();
+        DataBundleStats.recordCreate();
+        DataBundleStats.recordCopy(5);
+        DataBundleStats.recordCopy(7);
+        DataBundleStats.recordPutAll(3);
+
+        DataBundleStats.Snapshot snapshot = DataBundleStats.snapshot();
+        assertEquals(3L, snapshot.getPutCount(DataBundleStats.TYPE_INT));
+        assertEquals(1L, snapshot.getPutCount(DataBundleStats.TYPE_STRING));
+        assertEquals(0L, snapshot.getPutCount(DataBundleStats.TYPE_LONG));
+        assertEquals(4L, snapshot.getTotalPutCount());
+        assertEquals(1L, snapshot.getGetCount(DataBundleStats.TYPE_INT));
+        assertEquals(1L, snapshot.getTotalGetCount());
+        assertEquals(1L, snapshot.getRemoveCount());
+        assertEquals(2L, snapshot.getTypeMismatchCount());
+        assertEquals(1L, snapshot.getCreateCount());
+        assertEquals(2L, snapshot.getCopySizes().getCount());
+        assertEquals(6.0, snapshot.getCopySizes().getMean(), 0.0);
+        assertEquals(1L, snapshot.getPutAllSizes().getCount());
+        assertTrue(snapshot.toString(), snapshot.toString().contains("Integer(put=3 get=1)"));
+
+        // A snapshot is a copy
+        DataBundleStats.recordRemove();
+        assertEquals(1L, snapshot.getRemoveCount());
+        assertEquals(2L, DataBundleStats.snapshot().getRemoveCount());
+
+        DataBundleStats.reset();
+        snapshot = DataBundleStats.snapshot();
+        assertEquals(0L, snapshot.getTotalPutCount());
+        assertEquals(0L, snapshot.getCopySizes().getCount());
+    }
+
+    public void testConcurrentCountsAreExact() throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        DataBundleStats.recordPut(DataBundleStats.TYPE_LONG, "k" + (i & 7));
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000L, DataBundleStats.snapshot().getPutCount(DataBundleStats.TYPE_LONG));
+    }
+
+    public void testResizeCount() {
+        // Tables of 16, 32, 64, 128 and 256 entries at a 0.75 load factor
+        for (int size = 1; size <= 100; size++) {
+            DataBundleStats.recordGrowth(size);
+        }
+        assertEquals(4L, DataBundleStats.snapshot().getResizeCount());
+    }
+
+    public void testHotKeys() {
+        int n = DataBundleStats.HOT_KEY_SAMPLE * 100;
+        for (int i = 0; i < n; i++) {
+            DataBundleStats.recordGet(DataBundleStats.TYPE_INT, "hot");
+            if ((i & 1) == 0) {
+                DataBundleStats.recordPut(DataBundleStats.TYPE_INT, "warm");
+            }
+            // Many keys which are each accessed once
+            DataBundleStats.recordGet(DataBundleStats.TYPE_INT, "cold" + i);
+        }
+        Map<String, Long> hot = DataBundleStats.snapshot().getHotKeys();
+        assertTrue(hot.size() <= DataBundleStats.HOT_KEY_CAPACITY);
+        Iterator<Map.Entry<String, Long>> it = hot.entrySet().iterator();
+        Map.Entry<String, Long> first = it.next();
+        Map.Entry<String, Long> second = it.next();
+        assertEquals("hot", first.getKey());
+        assertEquals("warm", second.getKey());
+        // Estimates are extrapolated from samples and never undercount
+        assertTrue(first.getValue() >= n - DataBundleStats.HOT_KEY_SAMPLE);
+        assertTrue(second.getValue() >= n / 2 - DataBundleStats.HOT_KEY_SAMPLE);
+
+        DataBundleStats.reset();
+        assertTrue(DataBundleStats.snapshot().getHotKeys().isEmpty());
+    }
+
+    public void testSpaceSaving() {
+        DataBundleStats.HotKeys keys = new DataBundleStats.HotKeys(2);
+        for (int i = 0; i < 4; i++) {
+            keys.record("a");
+        }
+        keys.record("b");
+        // Replaces b, the least frequent, and inherits its count
+        keys.record("c");
+        keys.record(null);
+        Map<String, Long> top = keys.top();
+        assertEquals(2, top.size());
+        assertEquals("a", top.keySet().iterator().next());
+        assertEquals(Long.valueOf(4L * DataBundleStats.HOT_KEY_SAMPLE), top.get("a"));
+        assertEquals(Long.valueOf(3L * DataBundleStats.HOT_KEY_SAMPLE), top.get(null));
+        assertFalse(top.containsKey("b"));
+        assertFalse(top.containsKey("c"));
+    }
+
+    public void testMBean() throws JMException {
+        DataBundleStats.registerMBean();
+        // Registering again has no further effect
+        DataBundleStats.registerMBean();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(DataBundleStats.OBJECT_NAME);
+        try {
+            assertTrue(server.isRegistered(name));
+            DataBundleStats.recordPut(DataBundleStats.TYPE_DOUBLE, "d");
+            DataBundleStats.recordGet(DataBundleStats.TYPE_DOUBLE, "d");
+            DataBundleStats.recordCreate();
+            DataBundleStats.recordGrowth(13);
+
+            assertEquals(Boolean.valueOf(DataBundleStats.ENABLED), server.getAttribute(name, "Enabled"));
+            assertEquals(1L, server.getAttribute(name, "CreateCount"));
+            assertEquals(1L, server.getAttribute(name, "TotalPutCount"));
+            assertEquals(1L, server.getAttribute(name, "ResizeCount"));
+            long[] gets = (long[]) server.getAttribute(name, "GetCounts");
+            assertEquals(1L, gets[DataBundleStats.TYPE_DOUBLE]);
+            String[] names = (String[]) server.getAttribute(name, "TypeNames");
+            assertEquals("Double", names[DataBundleStats.TYPE_DOUBLE]);
+            String[] hotKeys = (String[]) server.getAttribute(name, "HotKeys");
+            assertTrue(Arrays.toString(hotKeys), hotKeys.length <= DataBundleStats.HOT_KEY_CAPACITY);
+            assertTrue(server.getAttribute(name, "Summary").toString().contains("resizes=1"));
+
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "TotalPutCount"));
+        }
+        finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Reopening a DataBundleStore, recovery from damaged segment tails,
+ * compaction and the directory lock.
+ */
+public class DataBundleStoreTest extends TestCase {
+    private static final int SEGMENT_SIZE = 4096;
+
+    private File mDir;
+
+    @Override
+    protected void setUp() throws IOException {
+        mDir = File.createTempFile("DataBundleStoreTest", "");
+        if (!mDir.delete() || !mDir.mkdir()) {
+            throw new IOException("Cannot create " + mDir);
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    private DataBundleStore open() throws IOException {
+        return new DataBundleStore(mDir, SEGMENT_SIZE);
+    }
+
+    private static DataBundle bundle(long id, int version) {
+        DataBundle b = new DataBundle();
+        b.putLong("id", id);
+        b.putInt("version", version);
+        b.putString("name", "bundle-" + id);
+        b.putIntArray("values", new int[] { version, version + 1 });
+        return b;
+    }
+
+    private File[] segments() {
+        File[] ret = mDir.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".log");
+            }
+        });
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    // The offset of the last record in a segment file
+    private static int lastRecord(File segment) throws IOException {
+        return lastRecord(segment, Integer.MAX_VALUE);
+    }
+
+    // The offset of the last of the first n + 1 records in a segment file
+    private static int lastRecord(File segment, int n) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(segment, "r");
+        try {
+            int last = -1;
+            int pos = 0;
+            for (int i = 0; i <= n && pos + 4 <= raf.length(); i++) {
+                raf.seek(pos);
+                int size = raf.readInt();
+                if (size == 0) {
+                    break;
+                }
+                last = pos;
+                pos += size;
+            }
+            assertTrue("No records in " + segment, last >= 0);
+            return last;
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    public void testReopen() throws IOException {
+        DataBundleStore store = open();
+        for (long id = 1; id <= 100; id++) {
+            store.put(id, bundle(id, 1));
+        }
+        for (long id = 1; id <= 100; id += 2) {
+            store.put(id, bundle(id, 2));
+        }
+        assertTrue(store.remove(50));
+        assertFalse(store.remove(50));
+        store.close();
+        assertTrue(segments().length > 1);
+
+        store = open();
+        try {
+            assertEquals(99, store.size());
+            assertNull(store.get(50));
+            assertFalse(store.contains(50));
+            assertEquals(bundle(1, 2), store.get(1));
+            assertEquals(bundle(2, 1), store.get(2));
+            assertEquals(bundle(99, 2), store.get(99));
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    public void testRecoverTruncatedTail() throws IOException {
+        DataBundleStore store = open();
+        store.put(1, bundle(1, 1));
+        store.put(2, bundle(2, 1));
+        store.put(1, bundle(1, 2));
+        store.close();
+
+        // A crash part way through the last record
+        File segment = segments()[0];
+        int last = lastRecord(segment);
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.setLength(last + DataBundleStore.HEADER_SIZE + 3);
+        raf.close();
+
+        store = open();
+        try {
+            assertEquals(2, store.size());
+            assertEquals(bundle(1, 1), store.get(1));
+            assertEquals(bundle(2, 1), store.get(2));
+            store.put(3, bundle(3, 1));
+        }
+        finally {
+            store.close();
+        }
+
+        store = open();
+        try {
+            assertEquals(3, store.size());
+            assertEquals(bundle(1, 1), store.get(1));
+            assertEquals(bundle(3, 1), store.get(3));
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    public void testRecoverCorruptTail() throws IOException {
+        DataBundleStore store = open();
+        store.put(1, bundle(1, 1));
+        store.put(1, bundle(1, 2));
+        store.close();
+
+        // A torn write which left the whole record but the wrong bytes
+        File segment = segments()[0];
+        corrupt(segment, lastRecord(segment));
+
+        store = open();
+        try {
+            assertEquals(1, store.size());
+            assertEquals(bundle(1, 1), store.get(1));
+            store.put(2, bundle(2, 1));
+        }
+        finally {
+            store.close();
+        }
+
+        store = open();
+        try {
+            assertEquals(2, store.size());
+            assertEquals(bundle(1, 1), store.get(1));
+            assertEquals(bundle(2, 1), store.get(2));
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    public void testRecordsAfterCorruptionAreDiscarded() throws IOException {
+        DataBundleStore store = open();
+        store.put(1, bundle(1, 1));
+        store.put(2, bundle(2, 1));
+        store.put(3, bundle(3, 1));
+        store.close();
+
+        // Damage the middle record, so that an intact one follows it
+        File segment = segments()[0];
+        int middle = lastRecord(segment, 1);
+        corrupt(segment, middle);
+
+        store = open();
+        try {
+            assertEquals(1, store.size());
+            assertFalse(store.contains(3));
+            // A record of the same size as the damaged one, which would make
+            // the one after it readable again unless the tail was cleared
+            store.put(2, bundle(2, 2));
+        }
+        finally {
+            store.close();
+        }
+
+        store = open();
+        try {
+            assertEquals(2, store.size());
+            assertEquals(bundle(2, 2), store.get(2));
+            assertFalse(store.contains(3));
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    private static void corrupt(File segment, int record) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            int pos = record + DataBundleStore.HEADER_SIZE + 1;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(~b);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    public void testCompact() throws IOException {
+        DataBundleStore store = open();
+        try {
+            for (int version = 1; version <= 20; version++) {
+                for (long id = 1; id <= 20; id++) {
+                    store.put(id, bundle(id, version));
+                }
+            }
+            for (long id = 11; id <= 20; id++) {
+                store.remove(id);
+            }
+            File[] before = segments();
+            int deleted = store.compact(0.5);
+            assertTrue(deleted > 0);
+            // The live records fit in far fewer segments than were deleted
+            assertTrue(segments().length < before.length);
+            assertFalse(before[0].exists());
+            assertEquals(10, store.size());
+            for (long id = 1; id <= 10; id++) {
+                assertEquals(bundle(id, 20), store.get(id));
+            }
+        }
+        finally {
+            store.close();
+        }
+
+        store = open();
+        try {
+            assertEquals(10, store.size());
+            for (long id = 1; id <= 10; id++) {
+                assertEquals(bundle(id, 20), store.get(id));
+            }
+            for (long id = 11; id <= 20; id++) {
+                assertFalse(store.contains(id));
+            }
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    public void testDirectoryIsLocked() throws IOException {
+        DataBundleStore store = open();
+        store.put(1, bundle(1, 1));
+        try {
+            open();
+            fail("Opened a store directory twice");
+        }
+        catch (IOException e) {
+            // expected
+        }
+        // The failed open must not have disturbed the first store
+        assertEquals(bundle(1, 1), store.get(1));
+        store.close();
+
+        store = open();
+        try {
+            assertEquals(bundle(1, 1), store.get(1));
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    public void testClosedStoreFails() throws IOException {
+        DataBundleStore store = open();
+        store.close();
+        // A second close is harmless
+        store.close();
+        try {
+            store.put(1, bundle(1, 1));
+            fail("Wrote to a closed store");
+        }
+        catch (IOException e) {
+            // expected
+        }
+        try {
+            store.get(1);
+            fail("Read from a closed store");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+}
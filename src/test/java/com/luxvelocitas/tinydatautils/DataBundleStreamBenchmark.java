@@ -0,0 +1,120 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Throughput and compression ratio of DataBundleStreamWriter compared to
+ * plain DataBundleCodec records, on a synthetic corpus of sensor-like
+ * bundles with stable keys and slowly changing values.
+ *
+ * Run with: java -cp build/classes/main:build/classes/test
+ *     com.luxvelocitas.tinydatautils.DataBundleStreamBenchmark [bundles]
+ */
+public class DataBundleStreamBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        DataBundle[] corpus = corpus(count, 42L);
+
+        byte[] plain = plain(corpus);
+        report("codec records", plain.length, count);
+
+        int[] levels = { Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION };
+        int[] blockSizes = { 16 * 1024, 64 * 1024, 256 * 1024 };
+        for (int level : levels) {
+            for (int blockSize : blockSizes) {
+                // Time the writer against a sink which costs nothing, so
+                // that copying into a growing array is not measured
+                byte[] out = stream(corpus, blockSize, level);
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < ROUNDS; i++) {
+                    CountingOutputStream sink = new CountingOutputStream();
+                    long start = System.nanoTime();
+                    streamTo(corpus, sink, blockSize, level);
+                    best = Math.min(best, System.nanoTime() - start);
+                    if (sink.getCount() != out.length) {
+                        throw new IllegalStateException("Unexpected output size " + sink.getCount());
+                    }
+                }
+                long bestRead = Long.MAX_VALUE;
+                for (int i = 0; i < ROUNDS; i++) {
+                    long start = System.nanoTime();
+                    readAll(out);
+                    bestRead = Math.min(bestRead, System.nanoTime() - start);
+                }
+                System.out.println(String.format(
+                        "level=%2d block=%6d  %9d bytes  ratio %5.2f  write %7.1f MB/s  read %7.1f MB/s",
+                        level, blockSize, out.length, (double) plain.length / out.length,
+                        mbPerSecond(plain.length, best), mbPerSecond(plain.length, bestRead)));
+            }
+        }
+    }
+
+    static DataBundle[] corpus(int count, long seed) {
+        Random random = new Random(seed);
+        String[] devices = { "thermostat", "camera", "gateway", "meter" };
+        DataBundle[] ret = new DataBundle[count];
+        long timestamp = 1400000000000L;
+        double temp = 21.5;
+        for (int i = 0; i < count; i++) {
+            DataBundle b = new DataBundle();
+            timestamp += 1000 + random.nextInt(10);
+            temp += random.nextGaussian() * 0.01;
+            b.putLong("timestamp", timestamp);
+            b.putInt("seq", i);
+            b.putDouble("temp", temp);
+            b.putFloat("humidity", 40.0f + random.nextInt(3));
+            b.putString("device", devices[random.nextInt(devices.length)]);
+            b.putBoolean("ok", random.nextInt(100) != 0);
+            ret[i] = b;
+        }
+        return ret;
+    }
+
+    static byte[] plain(DataBundle[] corpus) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryWriter w = new BinaryWriter();
+        for (DataBundle b : corpus) {
+            DataBundleCodec.writeTo(b, out, w);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] stream(DataBundle[] corpus, int blockSize, int level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        streamTo(corpus, out, blockSize, level);
+        return out.toByteArray();
+    }
+
+    static void streamTo(DataBundle[] corpus, OutputStream out, int blockSize, int level) throws IOException {
+        DataBundleStreamWriter w = new DataBundleStreamWriter(out, blockSize, level);
+        for (DataBundle b : corpus) {
+            w.write(b);
+        }
+        w.close();
+    }
+
+    static int readAll(byte[] data) throws IOException {
+        DataBundleStreamReader r = new DataBundleStreamReader(new ReplayInputStream(data));
+        int ret = 0;
+        while (r.read() != null) {
+            ret++;
+        }
+        r.close();
+        return ret;
+    }
+
+    private static void report(String name, long bytes, int count) {
+        System.out.println(String.format("%s: %d bundles, %d bytes (%.1f bytes/bundle)",
+                name, count, bytes, (double) bytes / count));
+    }
+
+    private static double mbPerSecond(long bytes, long nanos) {
+        return (bytes / (1024.0 * 1024.0)) / (nanos / 1e9);
+    }
+}
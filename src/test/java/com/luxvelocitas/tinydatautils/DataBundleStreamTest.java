@@ -0,0 +1,212 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import junit.framework.TestCase;
+
+/**
+ * Round trips of DataBundleStreamWriter and DataBundleStreamReader across
+ * block boundaries and compression levels, and reading of damaged streams.
+ */
+public class DataBundleStreamTest extends TestCase {
+    private static final int[] LEVELS = { Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION };
+
+    private static byte[] write(List<DataBundle> bundles, int blockSize, int level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataBundleStreamWriter writer = new DataBundleStreamWriter(out, blockSize, level);
+        for (DataBundle b : bundles) {
+            writer.write(b);
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static List<DataBundle> read(byte[] data) throws IOException {
+        DataBundleStreamReader reader = new DataBundleStreamReader(new ByteArrayInputStream(data));
+        List<DataBundle> ret = new ArrayList<DataBundle>();
+        DataBundle b;
+        while ((b = reader.read()) != null) {
+            ret.add(b);
+        }
+        reader.close();
+        return ret;
+    }
+
+    private static List<DataBundle> corpus(int count) {
+        DataBundleWorkload workload = new DataBundleWorkload(7L)
+                .setNesting(2, 0.1)
+                .setTypeWeight(DataBundleStats.TYPE_BYTE, 2)
+                .setTypeWeight(DataBundleStats.TYPE_CHAR, 2)
+                .setTypeWeight(DataBundleStats.TYPE_SHORT, 5)
+                .setTypeWeight(DataBundleStats.TYPE_FLOAT, 5)
+                .setTypeWeight(DataBundleStats.TYPE_LONG_ARRAY, 2);
+        return new ArrayList<DataBundle>(Arrays.asList(workload.corpus(count)));
+    }
+
+    public void testRoundTripAcrossBlocksAndLevels() throws IOException {
+        List<DataBundle> bundles = corpus(500);
+        for (int level : LEVELS) {
+            for (int blockSize : new int[] { 1, 256, 64 * 1024 }) {
+                assertEquals("level " + level + " block " + blockSize,
+                        bundles, read(write(bundles, blockSize, level)));
+            }
+        }
+    }
+
+    public void testDeltaEncodedValues() throws IOException {
+        long[] longs = { 0L, Long.MAX_VALUE, Long.MIN_VALUE, -1L, Long.MAX_VALUE };
+        double[] doubles = { 0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE };
+        List<DataBundle> bundles = new ArrayList<DataBundle>();
+        for (int i = 0; i < longs.length; i++) {
+            DataBundle b = new DataBundle();
+            b.putLong("long", longs[i]);
+            b.putDouble("double", doubles[i]);
+            b.putInt("int", (i % 2 == 0) ? Integer.MIN_VALUE : Integer.MAX_VALUE);
+            b.putShort("short", (short) (Short.MAX_VALUE - i * 20000));
+            b.putFloat("float", (i % 2 == 0) ? Float.NaN : -i);
+            bundles.add(b);
+        }
+        // The same key with a different type, and a missing key
+        DataBundle changed = new DataBundle();
+        changed.putDouble("long", 1.5);
+        changed.putLong("double", 42L);
+        bundles.add(changed);
+        DataBundle again = new DataBundle();
+        again.putLong("long", 7L);
+        bundles.add(again);
+
+        for (int level : LEVELS) {
+            List<DataBundle> decoded = read(write(bundles, 64, level));
+            assertEquals(bundles, decoded);
+            assertEquals(Double.doubleToRawLongBits(-0.0),
+                    Double.doubleToRawLongBits(decoded.get(1).getDouble("double")));
+        }
+    }
+
+    public void testFlushBetweenWrites() throws IOException {
+        List<DataBundle> bundles = corpus(20);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataBundleStreamWriter writer = new DataBundleStreamWriter(out);
+        for (DataBundle b : bundles) {
+            writer.write(b);
+            writer.flush();
+        }
+        writer.close();
+        assertEquals(bundles, read(out.toByteArray()));
+    }
+
+    public void testMoreKeysThanTheDictionaryHolds() throws IOException {
+        List<DataBundle> bundles = new ArrayList<DataBundle>();
+        int keys = DataBundleStreamWriter.MAX_KEYS + 100;
+        for (int i = 0; i < keys; i += 1000) {
+            DataBundle b = new DataBundle();
+            for (int j = i; j < Math.min(keys, i + 1000); j++) {
+                b.putInt("k" + j, j);
+            }
+            bundles.add(b);
+        }
+        // Keys beyond the dictionary are written in full every time
+        DataBundle tail = new DataBundle();
+        tail.putInt("k" + (keys - 1), -1);
+        tail.putInt("k0", -2);
+        bundles.add(tail);
+        bundles.add(new DataBundle(tail));
+
+        assertEquals(bundles, read(write(bundles, 4096, Deflater.BEST_SPEED)));
+    }
+
+    public void testEmptyStream() throws IOException {
+        assertTrue(read(write(new ArrayList<DataBundle>(), 1024, Deflater.BEST_SPEED)).isEmpty());
+    }
+
+    public void testWriteAfterCloseFails() throws IOException {
+        DataBundleStreamWriter writer = new DataBundleStreamWriter(new ByteArrayOutputStream());
+        writer.close();
+        try {
+            writer.write(new DataBundle());
+            fail("Wrote to a closed stream");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testBadHeaderFails() throws IOException {
+        byte[] data = write(corpus(1), 1024, Deflater.BEST_SPEED);
+        data[0] ^= 1;
+        assertUnreadable(data);
+
+        data = write(corpus(1), 1024, Deflater.BEST_SPEED);
+        data[4] = 99;
+        assertUnreadable(data);
+
+        assertUnreadable(new byte[3]);
+    }
+
+    public void testTruncatedStreamFails() throws IOException {
+        for (int level : LEVELS) {
+            byte[] data = write(corpus(50), 1 << 20, level);
+            assertUnreadable(Arrays.copyOf(data, data.length - 1));
+            assertUnreadable(Arrays.copyOf(data, 6));
+        }
+    }
+
+    public void testCorruptCompressedBlockFails() throws IOException {
+        byte[] data = write(corpus(200), 1 << 20, Deflater.DEFAULT_COMPRESSION);
+        // Damage the compressed data after the header and block lengths
+        for (int i = 16; i < 48; i++) {
+            data[i] = (byte) ~data[i];
+        }
+        assertUnreadable(data);
+    }
+
+    // A stream header followed by a block header with the given lengths
+    private static byte[] blockHeader(int rawLength, int storedLength) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DataBundleStreamWriter(out).close();
+        DataBundleCodec.writeVarInt(out, rawLength);
+        DataBundleCodec.writeVarInt(out, storedLength);
+        return out.toByteArray();
+    }
+
+    public void testOversizedBlockFails() throws IOException {
+        assertUnreadable(blockHeader(Integer.MAX_VALUE, 0));
+        assertUnreadable(blockHeader(Integer.MAX_VALUE, 100));
+        assertUnreadable(blockHeader(100, Integer.MAX_VALUE));
+        assertUnreadable(blockHeader(100, 100));
+
+        // Within the limit of the reader
+        byte[] data = write(corpus(50), 1024, Deflater.BEST_SPEED);
+        DataBundleStreamReader reader = new DataBundleStreamReader(new ByteArrayInputStream(data), 64 * 1024);
+        while (reader.read() != null) {
+            // drain
+        }
+        reader.close();
+
+        reader = new DataBundleStreamReader(new ByteArrayInputStream(data), 16);
+        try {
+            reader.read();
+            fail("Read a block larger than the maximum");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("exceeds the maximum of 16"));
+        }
+        reader.close();
+    }
+
+    private static void assertUnreadable(byte[] data) {
+        try {
+            read(data);
+            fail("Read a damaged stream of " + data.length + " bytes");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.Random;
+
+/**
+ * A seeded generator of synthetic DataBundles for benchmarks and soak tests.
+ * The same seed and settings always produce the same sequence of bundles.
+ * <p>
+ * Keys are drawn from a fixed pool of namespaced names such as
+ * "sensor.k12", value types from weights indexed by the DataBundleStats
+ * TYPE_* constants, and String values from a pool of the configured
+ * cardinality. String and array lengths follow a geometric distribution
+ * around their mean, so most values are short with a long tail. A nested
+ * DataBundle is generated in place of a value with the nesting probability,
+ * up to the maximum depth.
+ */
+public class DataBundleWorkload {
+    private static final String[] NAMESPACES = { "device", "sensor", "net", "app", "meta" };
+
+    private final Random mRandom;
+
+    private int mMinKeys = 4;
+    private int mMaxKeys = 16;
+    private int mKeyPoolSize = 64;
+    private final int[] mTypeWeights = new int[DataBundleStats.TYPE_COUNT];
+    private int mTotalWeight;
+    private int mMaxDepth = 2;
+    private double mNestingProbability = 0.05;
+    private int mStringCardinality = 100;
+    private int mMeanStringLength = 12;
+    private int mMeanArrayLength = 8;
+    private int mMaxLength = 4096;
+
+    private String[] mKeys;
+    private String[] mStrings;
+
+    /**
+     * Constructs a new DataBundleWorkload with a mix of mostly numeric and
+     * String values.
+     *
+     * @param seed the seed
+     */
+    public DataBundleWorkload(long seed) {
+        mRandom = new Random(seed);
+        setTypeWeight(DataBundleStats.TYPE_BOOLEAN, 5);
+        setTypeWeight(DataBundleStats.TYPE_INT, 25);
+        setTypeWeight(DataBundleStats.TYPE_LONG, 15);
+        setTypeWeight(DataBundleStats.TYPE_DOUBLE, 20);
+        setTypeWeight(DataBundleStats.TYPE_STRING, 25);
+        setTypeWeight(DataBundleStats.TYPE_BYTE_ARRAY, 3);
+        setTypeWeight(DataBundleStats.TYPE_INT_ARRAY, 3);
+        setTypeWeight(DataBundleStats.TYPE_DOUBLE_ARRAY, 4);
+    }
+
+    public DataBundleWorkload setKeyCount(int min, int max) {
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("Bad key count range " + min + ".." + max);
+        }
+        mMinKeys = min;
+        mMaxKeys = max;
+        return this;
+    }
+
+    /**
+     * @param size the number of distinct key names at each level
+     */
+    public DataBundleWorkload setKeyPoolSize(int size) {
+        mKeyPoolSize = size;
+        mKeys = null;
+        return this;
+    }
+
+    /**
+     * @param type a DataBundleStats TYPE_* index, TYPE_BUNDLE, TYPE_CHAR_SEQUENCE
+     *     and TYPE_OBJECT are not generated
+     * @param weight the relative frequency of the type, 0 to disable it
+     */
+    public DataBundleWorkload setTypeWeight(int type, int weight) {
+        if (type == DataBundleStats.TYPE_BUNDLE || type == DataBundleStats.TYPE_CHAR_SEQUENCE
+                || type == DataBundleStats.TYPE_OBJECT) {
+            throw new IllegalArgumentException("Type not generated: " + DataBundleStats.TYPE_NAMES[type]);
+        }
+        mTotalWeight += weight - mTypeWeights[type];
+        mTypeWeights[type] = weight;
+        return this;
+    }
+
+    /**
+     * @param maxDepth the maximum depth of nested DataBundles, 0 for none
+     * @param probability the probability of each value being a nested DataBundle
+     */
+    public DataBundleWorkload setNesting(int maxDepth, double probability) {
+        mMaxDepth = maxDepth;
+        mNestingProbability = probability;
+        return this;
+    }
+
+    /**
+     * @param cardinality the number of distinct String values
+     */
+    public DataBundleWorkload setStringCardinality(int cardinality) {
+        mStringCardinality = cardinality;
+        mStrings = null;
+        return this;
+    }
+
+    /**
+     * @param meanStringLength the mean length of String values
+     * @param meanArrayLength the mean length of array values
+     * @param maxLength the maximum length of any value
+     */
+    public DataBundleWorkload setLengths(int meanStringLength, int meanArrayLength, int maxLength) {
+        mMeanStringLength = meanStringLength;
+        mMeanArrayLength = meanArrayLength;
+        mMaxLength = maxLength;
+        mStrings = null;
+        return this;
+    }
+
+    /**
+     * @return the next DataBundle
+     */
+    public DataBundle next() {
+        if (mKeys == null) {
+            mKeys = keyPool();
+        }
+        if (mStrings == null) {
+            mStrings = stringPool();
+        }
+        return next(0);
+    }
+
+    /**
+     * @param count the number of DataBundles
+     * @return an array of the next count DataBundles
+     */
+    public DataBundle[] corpus(int count) {
+        DataBundle[] ret = new DataBundle[count];
+        for (int i = 0; i < count; i++) {
+            ret[i] = next();
+        }
+        return ret;
+    }
+
+    /**
+     * @return a key which the generated DataBundles may contain
+     */
+    public String randomKey(Random random) {
+        if (mKeys == null) {
+            mKeys = keyPool();
+        }
+        return mKeys[random.nextInt(mKeys.length)];
+    }
+
+    private DataBundle next(int depth) {
+        int count = mMinKeys + mRandom.nextInt(mMaxKeys - mMinKeys + 1);
+        DataBundle ret = new DataBundle(DataBundleCodec.capacityFor(count));
+        for (int i = 0; i < count; i++) {
+            String key = mKeys[mRandom.nextInt(mKeys.length)];
+            if (depth < mMaxDepth && mRandom.nextDouble() < mNestingProbability) {
+                ret.putDataBundle(key, next(depth + 1));
+            }
+            else {
+                putRandomValue(ret, key);
+            }
+        }
+        return ret;
+    }
+
+    private void putRandomValue(DataBundle b, String key) {
+        int pick = mRandom.nextInt(mTotalWeight);
+        int type = 0;
+        while (pick >= mTypeWeights[type]) {
+            pick -= mTypeWeights[type];
+            type++;
+        }
+        switch (type) {
+            case DataBundleStats.TYPE_BOOLEAN: b.putBoolean(key, mRandom.nextBoolean()); break;
+            case DataBundleStats.TYPE_BYTE: b.putByte(key, (byte) mRandom.nextInt()); break;
+            case DataBundleStats.TYPE_CHAR: b.putChar(key, (char) ('a' + mRandom.nextInt(26))); break;
+            case DataBundleStats.TYPE_SHORT: b.putShort(key, (short) mRandom.nextInt()); break;
+            case DataBundleStats.TYPE_INT: b.putInt(key, mRandom.nextInt(100000)); break;
+            case DataBundleStats.TYPE_LONG: b.putLong(key, 1400000000000L + mRandom.nextInt(Integer.MAX_VALUE)); break;
+            case DataBundleStats.TYPE_FLOAT: b.putFloat(key, mRandom.nextFloat() * 100); break;
+            case DataBundleStats.TYPE_DOUBLE: b.putDouble(key, mRandom.nextGaussian() * 50); break;
+            case DataBundleStats.TYPE_STRING: b.putString(key, mStrings[mRandom.nextInt(mStrings.length)]); break;
+            case DataBundleStats.TYPE_BYTE_ARRAY: {
+                byte[] a = new byte[length(mMeanArrayLength)];
+                mRandom.nextBytes(a);
+                b.putByteArray(key, a);
+                break;
+            }
+            case DataBundleStats.TYPE_INT_ARRAY: {
+                int[] a = new int[length(mMeanArrayLength)];
+                for (int i = 0; i < a.length; i++) {
+                    a[i] = mRandom.nextInt();
+                }
+                b.putIntArray(key, a);
+                break;
+            }
+            case DataBundleStats.TYPE_LONG_ARRAY: {
+                long[] a = new long[length(mMeanArrayLength)];
+                for (int i = 0; i < a.length; i++) {
+                    a[i] = mRandom.nextLong();
+                }
+                b.putLongArray(key, a);
+                break;
+            }
+            default: {
+                double[] a = new double[length(mMeanArrayLength)];
+                for (int i = 0; i < a.length; i++) {
+                    a[i] = mRandom.nextDouble();
+                }
+                b.putDoubleArray(key, a);
+                break;
+            }
+        }
+    }
+
+    // Geometric with the given mean, capped at the maximum length
+    private int length(int mean) {
+        if (mean <= 0) {
+            return 0;
+        }
+        double u = 1.0 - mRandom.nextDouble();
+        int ret = (int) (-Math.log(u) * mean);
+        return Math.min(ret, mMaxLength);
+    }
+
+    private String[] keyPool() {
+        String[] ret = new String[mKeyPoolSize];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = NAMESPACES[i % NAMESPACES.length] + ".k" + i;
+        }
+        return ret;
+    }
+
+    private String[] stringPool() {
+        String[] ret = new String[Math.max(1, mStringCardinality)];
+        char[] chars = new char[Math.max(1, mMaxLength)];
+        for (int i = 0; i < ret.length; i++) {
+            int n = Math.max(1, length(mMeanStringLength));
+            for (int j = 0; j < n; j++) {
+                chars[j] = (char) ('a' + mRandom.nextInt(26));
+            }
+            ret[i] = new String(chars, 0, n);
+        }
+        return ret;
+    }
+}
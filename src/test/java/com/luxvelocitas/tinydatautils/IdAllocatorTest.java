@@ -0,0 +1,151 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unique ids from IdAllocator across threads, and across reopening a
+ * persisted IdAllocator.
+ */
+public class IdAllocatorTest extends TestCase {
+    private File mFile;
+
+    @Override
+    protected void setUp() throws IOException {
+        mFile = File.createTempFile("IdAllocatorTest", ".ids");
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() {
+        mFile.delete();
+    }
+
+    // Takes count ids on each of the given number of threads
+    private static long[] takeIds(final IdAllocator allocator, int threads, final int count)
+            throws InterruptedException {
+        final long[][] ids = new long[threads][count];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long[] out = ids[t];
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < out.length; i++) {
+                        out[i] = allocator.nextId();
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long[] ret = new long[threads * count];
+        for (int t = 0; t < threads; t++) {
+            for (int i = 1; i < count; i++) {
+                assertTrue("Ids decreased on thread " + t, ids[t][i] > ids[t][i - 1]);
+            }
+            System.arraycopy(ids[t], 0, ret, t * count, count);
+        }
+        return ret;
+    }
+
+    private static void assertUnique(long[] ids) {
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        for (int i = 1; i < sorted.length; i++) {
+            assertTrue("Duplicate id " + sorted[i], sorted[i] != sorted[i - 1]);
+        }
+    }
+
+    private static long max(long[] ids) {
+        long ret = Long.MIN_VALUE;
+        for (long id : ids) {
+            ret = Math.max(ret, id);
+        }
+        return ret;
+    }
+
+    public void testSingleThreadIdsAreConsecutive() {
+        IdAllocator allocator = new IdAllocator(100L, 16);
+        assertEquals(16, allocator.getBlockSize());
+        for (long expected = 100L; expected < 200L; expected++) {
+            assertEquals(expected, allocator.nextId());
+        }
+        // Seven blocks of 16 leased
+        assertEquals(212L, allocator.getHighWaterMark());
+    }
+
+    public void testUniqueAcrossThreads() throws InterruptedException {
+        IdAllocator allocator = new IdAllocator(1L, 7);
+        long[] ids = takeIds(allocator, 8, 10000);
+        assertUnique(ids);
+        assertTrue(max(ids) < allocator.getHighWaterMark());
+    }
+
+    public void testUniqueAcrossReopening() throws IOException, InterruptedException {
+        long[] seen = new long[0];
+        for (int round = 0; round < 5; round++) {
+            IdAllocator allocator = IdAllocator.open(mFile, 1L, 32);
+            long[] ids;
+            try {
+                ids = takeIds(allocator, 4, 3000);
+            }
+            finally {
+                allocator.close();
+            }
+            // Everything handed out after reopening is above what came before
+            long previous = max(seen);
+            for (long id : ids) {
+                assertTrue(id > previous);
+            }
+            long[] all = Arrays.copyOf(seen, seen.length + ids.length);
+            System.arraycopy(ids, 0, all, seen.length, ids.length);
+            seen = all;
+        }
+        assertUnique(seen);
+    }
+
+    public void testReopenWithoutUseKeepsMark() throws IOException {
+        IdAllocator allocator = IdAllocator.open(mFile, 1000L, 10);
+        assertEquals(1000L, allocator.nextId());
+        allocator.close();
+        allocator = IdAllocator.open(mFile, 1L, 10);
+        long mark = allocator.getHighWaterMark();
+        assertTrue(mark > 1000L);
+        allocator.close();
+        // Nothing leased, so nothing more reserved
+        allocator = IdAllocator.open(mFile, 1L, 10);
+        assertEquals(mark, allocator.getHighWaterMark());
+        allocator.close();
+        // A later start wins over the persisted mark
+        allocator = IdAllocator.open(mFile, mark + 5000L, 10);
+        assertEquals(mark + 5000L, allocator.nextId());
+        allocator.close();
+    }
+
+    public void testBadBlockSizeFails() {
+        try {
+            new IdAllocator(1L, 0);
+            fail("Accepted a block size of 0");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testMetadataObjectAssignId() {
+        MetadataObject a = new MetadataObject() { };
+        MetadataObject b = new MetadataObject() { };
+        IdAllocator allocator = new IdAllocator(50L, 4);
+        assertEquals(50L, a.assignId(allocator));
+        assertEquals(50L, a.getId());
+        assertEquals(51L, b.assignId(allocator));
+        assertTrue(a.assignId() != b.assignId());
+        assertSame(IdAllocator.getDefault(), IdAllocator.getDefault());
+    }
+}
@@ -0,0 +1,93 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.IOException;
+
+/**
+ * Times the operations which have version specific implementations in the
+ * multi-release JAR. Run it once normally and once with
+ * -Djdk.util.jar.enableMultiRelease=false against the same JAR to compare
+ * the Java 9 classes with the Java 1.6 ones on the same JVM.
+ *
+ * Run with: java -cp build/libs/TinyDataUtils-0.1.0.jar:build/classes/test
+ *     com.luxvelocitas.tinydatautils.PlatformBenchmark [threads]
+ */
+public class PlatformBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        System.out.println(String.format("Platform %d on Java %s, %d threads",
+                Platform.version(), System.getProperty("java.version"), threads));
+
+        report("shuffle 64 ints", threads, 200000, new Task() {
+            public long run(int n) {
+                int[] a = new int[64];
+                for (int i = 0; i < n; i++) {
+                    Util.shuffleIntArrayInPlace(a);
+                }
+                return a[0];
+            }
+        });
+
+        final double[] doubles = new double[64];
+        for (int i = 0; i < doubles.length; i++) {
+            doubles[i] = i * 0.5;
+        }
+        report("write 64 doubles", threads, 500000, new Task() {
+            public long run(int n) {
+                BinaryWriter w = new BinaryWriter(1024);
+                for (int i = 0; i < n; i++) {
+                    w.reset();
+                    w.writeDoubleArray(doubles);
+                }
+                return w.size();
+            }
+        });
+
+        BinaryWriter w = new BinaryWriter(1024);
+        w.writeDoubleArray(doubles);
+        final byte[] encoded = w.toByteArray();
+        report("read 64 doubles", threads, 500000, new Task() {
+            public long run(int n) {
+                long ret = 0L;
+                try {
+                    for (int i = 0; i < n; i++) {
+                        ret += new BinaryReader(encoded).readDoubleArray().length;
+                    }
+                }
+                catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                return ret;
+            }
+        });
+    }
+
+    interface Task {
+        long run(int n);
+    }
+
+    private static void report(String name, int threads, final int n, final Task task) throws InterruptedException {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        task.run(n);
+                    }
+                };
+            }
+            long start = System.nanoTime();
+            for (Thread w : workers) {
+                w.start();
+            }
+            for (Thread w : workers) {
+                w.join();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println(String.format("%-20s %8.1f Mops/s", name, (double) n * threads * 1e3 / best));
+    }
+}
@@ -0,0 +1,53 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * The byte order of Platform.getLong() and putLong(), which must match
+ * DataOutputStream whichever Platform class the JVM loaded.
+ */
+public class PlatformTest extends TestCase {
+
+    public void testLongsAreBigEndian() throws IOException {
+        Random random = new Random(46L);
+        long[] values = new long[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong();
+        }
+        values[0] = 0L;
+        values[1] = -1L;
+        values[2] = Long.MIN_VALUE;
+        values[3] = 0x0102030405060708L;
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(expected);
+        // One byte of padding, so that the longs are not aligned
+        out.writeByte(0);
+        for (long v : values) {
+            out.writeLong(v);
+        }
+
+        byte[] actual = new byte[1 + values.length * 8];
+        for (int i = 0; i < values.length; i++) {
+            Platform.putLong(actual, 1 + i * 8, values[i]);
+        }
+        assertTrue(Arrays.equals(expected.toByteArray(), actual));
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], Platform.getLong(actual, 1 + i * 8));
+        }
+    }
+
+    public void testRandomIsUsable() {
+        int[] a = { 1, 2, 3, 4, 5 };
+        Util.shuffleIntArrayInPlace(a);
+        Arrays.sort(a);
+        assertTrue(Arrays.equals(new int[] { 1, 2, 3, 4, 5 }, a));
+        assertTrue(Platform.version() >= 6);
+    }
+}
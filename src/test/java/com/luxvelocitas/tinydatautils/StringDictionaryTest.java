@@ -0,0 +1,80 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Code assignment, canonical instances and the size bound of StringDictionary.
+ */
+public class StringDictionaryTest extends TestCase {
+
+    public void testCodesInOrderOfFirstUse() {
+        StringDictionary dictionary = new StringDictionary();
+        assertEquals(0, dictionary.encode("a"));
+        assertEquals(1, dictionary.encode("b"));
+        assertEquals(0, dictionary.encode(new String("a")));
+        assertEquals(1, dictionary.codeOf("b"));
+        assertEquals(-1, dictionary.codeOf("c"));
+        assertEquals(-1, dictionary.encode(null));
+        assertEquals(2, dictionary.size());
+        assertEquals("b", dictionary.get(1));
+        assertTrue(Arrays.equals(new String[] { "a", "b" }, dictionary.toArray()));
+    }
+
+    public void testInternReturnsCanonicalInstance() {
+        StringDictionary dictionary = new StringDictionary();
+        String first = new String("thermostat");
+        assertSame(first, dictionary.intern(first));
+        assertSame(first, dictionary.intern(new String("thermostat")));
+        assertNull(dictionary.intern(null));
+    }
+
+    public void testMaxSize() {
+        StringDictionary dictionary = new StringDictionary(2);
+        dictionary.encode("a");
+        dictionary.encode("b");
+        assertEquals(-1, dictionary.encode("c"));
+        String c = new String("c");
+        assertSame(c, dictionary.intern(c));
+        assertEquals(2, dictionary.size());
+    }
+
+    public void testRebuildFromArray() {
+        StringDictionary dictionary = new StringDictionary();
+        for (int i = 0; i < 100; i++) {
+            dictionary.encode("v" + i);
+        }
+        StringDictionary rebuilt = new StringDictionary(dictionary.toArray(), 10);
+        assertEquals(100, rebuilt.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, rebuilt.codeOf("v" + i));
+        }
+    }
+
+    public void testRebuildRejectsDuplicatesAndNulls() {
+        assertRejected(new String[] { "a", "a", "b" });
+        assertRejected(new String[] { "a", null });
+    }
+
+    private static void assertRejected(String[] values) {
+        try {
+            new StringDictionary(values, 16);
+            fail("Accepted " + Arrays.toString(values));
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testDataBundleStoresCanonicalValues() {
+        StringDictionary dictionary = new StringDictionary();
+        String canonical = dictionary.intern("kitchen");
+        DataBundle b = new DataBundle();
+        b.setStringDictionary(dictionary);
+        b.putString("room", new String("kitchen"));
+        b.putCharSequence("where", new StringBuilder("kitchen"));
+        assertSame(canonical, b.getString("room"));
+        assertSame(canonical, b.get("where"));
+    }
+}
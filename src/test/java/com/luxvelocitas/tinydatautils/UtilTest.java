@@ -0,0 +1,174 @@
+package com.luxvelocitas.tinydatautils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Util.Permutation and its Cursors: a bijection over 0..n-1 for any n,
+ * exact coverage by split(), and the same permutation for the same seed.
+ */
+public class UtilTest extends TestCase {
+
+    // Asserts that the elements form a permutation of 0..elements.length-1
+    private static void assertPermutation(String message, long[] elements) {
+        boolean[] seen = new boolean[elements.length];
+        for (long e : elements) {
+            assertTrue(message + ": " + e + " out of range", e >= 0 && e < elements.length);
+            assertFalse(message + ": " + e + " repeated", seen[(int) e]);
+            seen[(int) e] = true;
+        }
+    }
+
+    private static long[] elements(Util.Permutation p) {
+        long[] ret = new long[(int) p.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = p.get(i);
+        }
+        return ret;
+    }
+
+    public void testBijectionForSmallAndOddSizes() {
+        for (long seed = 0; seed < 4; seed++) {
+            for (int n = 0; n <= 257; n++) {
+                assertPermutation("n=" + n + " seed=" + seed, elements(Util.permutation(n, seed)));
+            }
+            // Sizes just above and below powers of two and of four
+            for (int n : new int[] { 1023, 1025, 4095, 4097, 65535, 65537, 99991 }) {
+                assertPermutation("n=" + n + " seed=" + seed, elements(Util.permutation(n, seed)));
+            }
+        }
+    }
+
+    public void testShuffles() {
+        Util.Permutation p = Util.permutation(1000, 38L);
+        int fixed = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (p.get(i) == i) {
+                fixed++;
+            }
+        }
+        // About one fixed point is expected from a random permutation
+        assertTrue("fixed points: " + fixed, fixed < 10);
+    }
+
+    public void testLargeSizes() {
+        for (long n : new long[] { (1L << 31) + 1, (1L << 62) - 3, Long.MAX_VALUE }) {
+            Util.Permutation p = Util.permutation(n, 7L);
+            Set<Long> seen = new HashSet<Long>();
+            for (long i : new long[] { 0L, 1L, n / 2, n - 2, n - 1 }) {
+                long e = p.get(i);
+                assertTrue("n=" + n + ": " + e, e >= 0 && e < n);
+                assertTrue("n=" + n + ": " + e + " repeated", seen.add(e));
+            }
+        }
+    }
+
+    public void testSeedReproducesPermutation() {
+        for (int n : new int[] { 1, 2, 5, 100, 1001 }) {
+            long[] a = elements(Util.permutation(n, 12345L));
+            long[] b = elements(Util.permutation(n, 12345L));
+            assertTrue("n=" + n, Arrays.equals(a, b));
+        }
+        assertEquals(12345L, Util.permutation(10, 12345L).getSeed());
+        assertFalse(Arrays.equals(elements(Util.permutation(1001, 1L)),
+                elements(Util.permutation(1001, 2L))));
+    }
+
+    public void testCursor() {
+        Util.Permutation p = Util.permutation(101, 3L);
+        Util.Cursor cursor = p.cursor();
+        assertEquals(101L, cursor.remaining());
+        long[] elements = new long[101];
+        int count = 0;
+        while (cursor.hasNext()) {
+            elements[count] = cursor.next();
+            assertEquals(p.get(count), elements[count]);
+            count++;
+        }
+        assertEquals(101, count);
+        assertEquals(0L, cursor.remaining());
+        assertPermutation("cursor", elements);
+        try {
+            cursor.next();
+            fail("Read past the end of a Cursor");
+        }
+        catch (NoSuchElementException e) {
+            // expected
+        }
+
+        cursor = p.cursor(10, 13);
+        assertEquals(3L, cursor.remaining());
+        assertEquals(p.get(10), cursor.next());
+        assertEquals(p.get(11), cursor.next());
+        assertEquals(p.get(12), cursor.next());
+        assertFalse(cursor.hasNext());
+        assertFalse(p.cursor(50, 50).hasNext());
+        assertFalse(Util.permutation(0, 3L).cursor().hasNext());
+    }
+
+    public void testSplitCoversRangeExactly() {
+        for (int n : new int[] { 0, 1, 2, 7, 100, 1001 }) {
+            Util.Permutation p = Util.permutation(n, 9L);
+            for (int parts = 1; parts <= 9; parts++) {
+                String message = "n=" + n + " parts=" + parts;
+                Util.Cursor[] cursors = p.split(parts);
+                assertEquals(message, parts, cursors.length);
+                long[] elements = new long[n];
+                int count = 0;
+                for (Util.Cursor cursor : cursors) {
+                    // Lengths differ by at most one
+                    assertTrue(message, cursor.remaining() == n / parts
+                            || cursor.remaining() == n / parts + 1);
+                    while (cursor.hasNext()) {
+                        elements[count] = cursor.next();
+                        // Contiguous ranges in order
+                        assertEquals(message, p.get(count), elements[count]);
+                        count++;
+                    }
+                }
+                assertEquals(message, n, count);
+                assertPermutation(message, elements);
+            }
+        }
+    }
+
+    public void testBadArgumentsFail() {
+        try {
+            Util.permutation(-1, 0L);
+            fail("Accepted a negative size");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+        Util.Permutation p = Util.permutation(10, 0L);
+        try {
+            p.split(0);
+            fail("Split into no parts");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+        for (long index : new long[] { -1L, 10L }) {
+            try {
+                p.get(index);
+                fail("Got index " + index);
+            }
+            catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+        }
+        for (long[] range : new long[][] { { -1L, 5L }, { 0L, 11L }, { 6L, 5L } }) {
+            try {
+                p.cursor(range[0], range[1]);
+                fail("Made a cursor from " + range[0] + " to " + range[1]);
+            }
+            catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+        }
+    }
+}